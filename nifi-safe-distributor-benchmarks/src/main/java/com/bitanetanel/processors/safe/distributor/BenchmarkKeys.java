@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import java.util.Random;
+
+/**
+ * Generates the keys of the benchmarks, random alphanumeric strings of a fixed length, the same keys on every run.
+ *
+ * @author Netanel Bitan
+ */
+final class BenchmarkKeys {
+
+
+    /* --- Constants --- */
+
+    /** The characters the keys are made of. */
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+    /** The seed of the keys, fixed so every run routes the same keys. */
+    private static final long SEED = 0x5afed15L;
+
+
+    /* --- Constructors --- */
+
+    private BenchmarkKeys() {
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * @param length The length of every key.
+     * @param cardinality The number of distinct keys.
+     * @return The keys, in the order they are routed.
+     */
+    static String[] keys(int length, int cardinality) {
+        Random random = new Random(SEED);
+        String[] keys = new String[cardinality];
+        char[] chars = new char[length];
+
+        for (int index = 0; index < cardinality; index++) {
+            for (int position = 0; position < length; position++) {
+                chars[position] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+            }
+
+            keys[index] = new String(chars);
+        }
+
+        return keys;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with JMH's command line options, always with the GC profiler, so every result reports the
+ * bytes allocated per operation ('gc.alloc.rate.norm') next to the operations per second.
+ *
+ * @author Netanel Bitan
+ */
+public final class Benchmarks {
+
+
+    /* --- Constructors --- */
+
+    private Benchmarks() {
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * @param args JMH's command line options, such as a benchmark name pattern or '-p relationships=1024'.
+     * @throws Exception If the options are malformed or a benchmark fails to run.
+     */
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class).build())
+                .run();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the routing of a single key, the work of {@link BatchRouter}'s calculatedDestination on every cache
+ * miss: encoding the key, hashing it and partitioning the hash, by every strategy and hash function.
+ * The partitioners are built by the strategies themselves, from the properties of a test runner, and the hash
+ * function is forced even where the processor would reject it, so every pair is measured.
+ *
+ * @author Netanel Bitan
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CalculatedDestinationBenchmark {
+
+
+    /* --- Parameters --- */
+
+    /** The distribution strategy, by its enum name. */
+    @Param({"MODULO", "CONSISTENT_HASH_RING", "BOUNDED_LOAD_HASH_RING", "JUMP_CONSISTENT_HASH",
+            "WEIGHTED_RENDEZVOUS_HASH", "MAGLEV", "KAFKA_PARTITIONER", "SLOT_TABLE"})
+    public String strategy;
+
+    /** The hash function, by its enum name. */
+    @Param({"MURMUR3_32", "MURMUR3_128", "XXHASH64", "CRC32C", "FNV1A_64", "KAFKA_MURMUR2"})
+    public String hashFunction;
+
+    /** The number of numbered relationships. */
+    @Param({"1", "32", "1024"})
+    public int relationships;
+
+    /** The length of every key. */
+    @Param({"16", "256"})
+    public int keyLength;
+
+    /** The number of distinct keys, routed round robin. */
+    @Param({"1024", "65536"})
+    public int cardinality;
+
+
+    /* --- Data Members --- */
+
+    /** The table the keys are routed by. */
+    private DistributionTable table;
+
+    /** The buffer the keys are encoded into, reused like the buffer of a processor thread. */
+    private final KeyBuffer keyBuffer = new KeyBuffer();
+
+    /** The routed keys. */
+    private String[] keys;
+
+    /** The index of the next routed key. */
+    private int next;
+
+
+    /* --- Setup --- */
+
+    @Setup
+    public void setup() {
+        DistributionStrategy distributionStrategy = DistributionStrategy.valueOf(strategy);
+        TestRunner testRunner = TestRunners.newTestRunner(SafeDistributor.class);
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, String.valueOf(relationships));
+        testRunner.setProperty(SafeDistributor.DISTRIBUTION_STRATEGY,
+                distributionStrategy.getAllowableValue().getValue());
+
+        Partitioner partitioner = distributionStrategy.createPartitioner(relationships, testRunner.getProcessContext());
+        table = new DistributionTable(relationships, ImmutableSet.of(SafeDistributor.FAILURE))
+                .withPartitioner(HashScheme.V2, HashFunction.valueOf(hashFunction), partitioner, null, null);
+        keys = BenchmarkKeys.keys(keyLength, cardinality);
+    }
+
+
+    /* --- Benchmarks --- */
+
+    @Benchmark
+    public int calculatedDestination() {
+        String key = keys[next];
+        next = next + 1 == keys.length ? 0 : next + 1;
+        return table.partition(key, keyBuffer);
+    }
+}
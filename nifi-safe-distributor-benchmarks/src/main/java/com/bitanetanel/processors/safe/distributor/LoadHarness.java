@@ -0,0 +1,320 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.MockFlowFileQueue;
+import org.apache.nifi.util.MockProcessSession;
+import org.apache.nifi.util.SharedSessionState;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes millions of flowfiles through a {@link SafeDistributor} by concurrent tasks, and reports the flowfiles
+ * routed per second, the 50th and 99th percentiles of the trigger latency and the bytes allocated per flowfile.
+ * Run by the 'load' profile of this module, configured by system properties:
+ * <ul>
+ *     <li>load.flowFiles - The flowfiles routed per run, 2,000,000 by default.</li>
+ *     <li>load.warmupFlowFiles - The flowfiles routed before every run and not measured, 500,000 by default.</li>
+ *     <li>load.threads - The comma separated numbers of concurrent tasks, "1,2,4,8,16,32" by default.</li>
+ *     <li>load.batchSize - The batch size property, 100 by default.</li>
+ *     <li>load.strategy - The distribution strategy by its enum name, MODULO by default.</li>
+ *     <li>load.hashFunction - The hash function property, "Strategy default" by default.</li>
+ *     <li>load.routingCacheSize - The routing cache size property, 0 by default.</li>
+ *     <li>load.relationships - The relationships number, 32 by default.</li>
+ *     <li>load.keys - The number of distinct keys, 100,000 by default.</li>
+ *     <li>load.keyLength - The length of every key, 32 by default.</li>
+ * </ul>
+ * Every task triggers the same scheduled processor, each on its own queue and a new mock session per trigger, so
+ * the tasks contend only on the processor. The latency and the allocations are measured around the trigger and the
+ * commit of its session only, not around queueing the input, and include the work of the mock session, which copies
+ * attributes more than NiFi's session does. Compare them between settings rather than against a live node.
+ *
+ * @author Netanel Bitan
+ */
+public final class LoadHarness {
+
+
+    /* --- Constants --- */
+
+    /** The attribute the flowfiles are routed by. */
+    private static final String KEY_ATTRIBUTE = "tenant.id";
+
+    /** The flowfiles routed per run. */
+    private static final long FLOW_FILES = Long.getLong("load.flowFiles", 2_000_000L);
+
+    /** The flowfiles routed before every run, to warm the JIT up. */
+    private static final long WARMUP_FLOW_FILES = Long.getLong("load.warmupFlowFiles", 500_000L);
+
+    /** The numbers of concurrent tasks to run with. */
+    private static final List<String> THREADS =
+            Splitter.on(',').trimResults().omitEmptyStrings().splitToList(System.getProperty("load.threads",
+                    "1,2,4,8,16,32"));
+
+    /** The batch size property. */
+    private static final int BATCH_SIZE = Integer.getInteger("load.batchSize", 100);
+
+    /** The distribution strategy, by its enum name. */
+    private static final String STRATEGY = System.getProperty("load.strategy", DistributionStrategy.MODULO.name());
+
+    /** The hash function property. */
+    private static final String HASH_FUNCTION =
+            System.getProperty("load.hashFunction", HashFunction.STRATEGY_DEFAULT.getValue());
+
+    /** The routing cache size property. */
+    private static final int ROUTING_CACHE_SIZE = Integer.getInteger("load.routingCacheSize", 0);
+
+    /** The relationships number property. */
+    private static final int RELATIONSHIPS = Integer.getInteger("load.relationships", 32);
+
+    /** The number of distinct keys. */
+    private static final int CARDINALITY = Integer.getInteger("load.keys", 100_000);
+
+    /** The length of every key. */
+    private static final int KEY_LENGTH = Integer.getInteger("load.keyLength", 32);
+
+    /** The flowfiles of a task, queued again and again with new keys. Larger than a batch, so none is in use. */
+    private static final int POOL_SIZE = Math.max(4 * BATCH_SIZE, 1024);
+
+
+    /* --- Constructors --- */
+
+    private LoadHarness() {
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * Runs the harness once per number of concurrent tasks and prints a line of results for each.
+     *
+     * @param args Unused, the harness is configured by system properties.
+     * @throws InterruptedException If interrupted while waiting for the tasks.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        String[] keys = BenchmarkKeys.keys(KEY_LENGTH, CARDINALITY);
+        System.out.println(String.format("Strategy %s, hash function '%s', %d relationships, batch size %d, " +
+                        "routing cache size %d, %d keys of length %d.", STRATEGY, HASH_FUNCTION, RELATIONSHIPS,
+                BATCH_SIZE, ROUTING_CACHE_SIZE, CARDINALITY, KEY_LENGTH));
+        System.out.println(String.format("%8s %14s %12s %12s %16s",
+                "tasks", "flowfiles/s", "p50 us", "p99 us", "bytes/flowfile"));
+
+        for (String threads : THREADS) {
+            int tasks = Integer.parseInt(threads);
+            run(tasks, WARMUP_FLOW_FILES, keys, false);
+            run(tasks, FLOW_FILES, keys, true);
+        }
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * Schedules a new processor and routes the flowfiles by concurrent tasks.
+     *
+     * @param tasks The number of concurrent tasks.
+     * @param flowFiles The number of flowfiles to route, split evenly between the tasks.
+     * @param keys The keys of the flowfiles.
+     * @param report Whether to print the results of the run.
+     * @throws InterruptedException If interrupted while waiting for the tasks.
+     */
+    private static void run(int tasks, long flowFiles, String[] keys, boolean report) throws InterruptedException {
+        TestRunner testRunner = TestRunners.newTestRunner(SafeDistributor.class);
+        testRunner.setProperty(SafeDistributor.ATTRIBUTE_NAME, KEY_ATTRIBUTE);
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, String.valueOf(RELATIONSHIPS));
+        testRunner.setProperty(SafeDistributor.BATCH_SIZE, String.valueOf(BATCH_SIZE));
+        testRunner.setProperty(SafeDistributor.DISTRIBUTION_STRATEGY,
+                DistributionStrategy.valueOf(STRATEGY).getAllowableValue().getValue());
+        testRunner.setProperty(SafeDistributor.HASH_FUNCTION, HASH_FUNCTION);
+        testRunner.setProperty(SafeDistributor.ROUTING_CACHE_SIZE, String.valueOf(ROUTING_CACHE_SIZE));
+        testRunner.assertValid();
+        testRunner.run(1, false, true);
+
+        SafeDistributor processor = (SafeDistributor) testRunner.getProcessor();
+        ProcessContext processContext = testRunner.getProcessContext();
+        int triggers = (int) Math.max(1, flowFiles / tasks / BATCH_SIZE);
+        CountDownLatch start = new CountDownLatch(1);
+        Task[] runnables = new Task[tasks];
+        Thread[] threads = new Thread[tasks];
+
+        for (int task = 0; task < tasks; task++) {
+            runnables[task] = new Task(processor, processContext, keys, task, triggers, start);
+            threads[task] = new Thread(runnables[task], "load-harness-" + task);
+            threads[task].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long elapsed = System.nanoTime() - begin;
+
+        if (!report) {
+            return;
+        }
+
+        long[] latencies = new long[tasks * triggers];
+        long allocated = 0;
+
+        for (int task = 0; task < tasks; task++) {
+            System.arraycopy(runnables[task].latencies, 0, latencies, task * triggers, triggers);
+            allocated += runnables[task].allocated;
+        }
+
+        Arrays.sort(latencies);
+        long routed = (long) tasks * triggers * BATCH_SIZE;
+        System.out.println(String.format("%8d %14.0f %12.1f %12.1f %16.0f", tasks,
+                routed * (double) TimeUnit.SECONDS.toNanos(1) / elapsed,
+                percentile(latencies, 0.5) / 1000.0, percentile(latencies, 0.99) / 1000.0,
+                allocated / (double) routed));
+    }
+
+    /**
+     * @param sorted Sorted values.
+     * @param fraction The fraction of the values at or below the percentile.
+     * @return The percentile of the values.
+     */
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    /**
+     * @return The bytes allocated by the current thread so far.
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+
+
+    /* --- Inner Classes --- */
+
+    /**
+     * A concurrent task, triggering the processor on its own queue and recording every trigger.
+     */
+    private static final class Task implements Runnable {
+
+        /** The scheduled processor, shared by all tasks. */
+        private final SafeDistributor processor;
+
+        /** The context the processor was scheduled with. */
+        private final ProcessContext processContext;
+
+        /** The state of the sessions of this task, holding its queue. */
+        private final SharedSessionState sessionState;
+
+        /** The flowfiles of this task, queued in order. */
+        private final MockFlowFile[] pool = new MockFlowFile[POOL_SIZE];
+
+        /** The keys of the flowfiles. */
+        private final String[] keys;
+
+        /** The number of triggers to run. */
+        private final int triggers;
+
+        /** Released once all tasks are ready. */
+        private final CountDownLatch start;
+
+        /** The nanoseconds every trigger took. */
+        private final long[] latencies;
+
+        /** The bytes allocated by the triggers. */
+        private long allocated;
+
+        /**
+         * Creates the flowfiles of the task, each with the attributes of a typical flowfile consumed from Kafka.
+         *
+         * @param processor The scheduled processor.
+         * @param processContext The context the processor was scheduled with.
+         * @param keys The keys of the flowfiles.
+         * @param task The index of the task.
+         * @param triggers The number of triggers to run.
+         * @param start Released once all tasks are ready.
+         */
+        Task(SafeDistributor processor, ProcessContext processContext, String[] keys, int task, int triggers,
+             CountDownLatch start) {
+            this.processor = processor;
+            this.processContext = processContext;
+            this.sessionState = new SharedSessionState(processor, new AtomicLong());
+            this.keys = keys;
+            this.triggers = triggers;
+            this.start = start;
+            this.latencies = new long[triggers];
+
+            for (int index = 0; index < POOL_SIZE; index++) {
+                pool[index] = new MockFlowFile((long) task * POOL_SIZE + index);
+                pool[index].putAttributes(ImmutableMap.<String, String>builder()
+                        .put("kafka.topic", "events")
+                        .put("kafka.partition", String.valueOf(index % 12))
+                        .put("kafka.offset", String.valueOf(index))
+                        .put("kafka.key", "event-" + index)
+                        .put("mime.type", "application/json")
+                        .put("schema.name", "event")
+                        .put("record.count", "1")
+                        .put("source.host", "host-" + task)
+                        .build());
+            }
+        }
+
+        @Override
+        public void run() {
+            MockFlowFileQueue queue = sessionState.getFlowFileQueue();
+            int nextFlowFile = 0;
+            int nextKey = 0;
+
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            for (int trigger = 0; trigger < triggers; trigger++) {
+                for (int count = 0; count < BATCH_SIZE; count++) {
+                    MockFlowFile flowFile = pool[nextFlowFile];
+                    flowFile.putAttributes(Collections.singletonMap(KEY_ATTRIBUTE, keys[nextKey]));
+                    queue.offer(flowFile);
+                    nextFlowFile = nextFlowFile + 1 == POOL_SIZE ? 0 : nextFlowFile + 1;
+                    nextKey = nextKey + 1 == keys.length ? 0 : nextKey + 1;
+                }
+
+                long allocatedBefore = allocatedBytes();
+                long begin = System.nanoTime();
+                MockProcessSession session = new MockProcessSession(sessionState, processor);
+                processor.onTrigger(processContext, session);
+                session.commit();
+                latencies[trigger] = System.nanoTime() - begin;
+                allocated += allocatedBytes() - allocatedBefore;
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.MockFlowFileQueue;
+import org.apache.nifi.util.MockProcessSession;
+import org.apache.nifi.util.SharedSessionState;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures whole onTrigger cycles of a scheduled {@link SafeDistributor}: taking a batch from the queue, routing
+ * every flowfile of it, transferring the batch and committing the session. One operation is one cycle of
+ * {@link #batchSize} flowfiles.
+ * The processor is scheduled once by a test runner, and then triggered directly on a new mock session per cycle,
+ * so the runner's own bookkeeping of every run isn't measured.
+ *
+ * @author Netanel Bitan
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OnTriggerBenchmark {
+
+
+    /* --- Constants --- */
+
+    /** The attribute the flowfiles are routed by. */
+    private static final String KEY_ATTRIBUTE = "key";
+
+
+    /* --- Parameters --- */
+
+    /** The distribution strategy, by its enum name. */
+    @Param({"MODULO", "CONSISTENT_HASH_RING", "BOUNDED_LOAD_HASH_RING", "JUMP_CONSISTENT_HASH",
+            "WEIGHTED_RENDEZVOUS_HASH", "MAGLEV", "KAFKA_PARTITIONER", "SLOT_TABLE"})
+    public String strategy;
+
+    /** The value of the hash function property. The strategy default is valid for every strategy. */
+    @Param({"Strategy default"})
+    public String hashFunction;
+
+    /** The number of numbered relationships. */
+    @Param({"1", "32", "1024"})
+    public int relationships;
+
+    /** The number of flowfiles of a cycle, the batch size property. */
+    @Param({"100"})
+    public int batchSize;
+
+    /** The length of every key. */
+    @Param({"16", "256"})
+    public int keyLength;
+
+    /** The number of distinct keys, routed round robin. */
+    @Param({"1024", "65536"})
+    public int cardinality;
+
+    /** The capacity of the routing cache, 0 to route without one. */
+    @Param({"0"})
+    public int routingCacheSize;
+
+
+    /* --- Data Members --- */
+
+    /** The scheduled processor. */
+    private SafeDistributor processor;
+
+    /** The context the processor was scheduled with. */
+    private ProcessContext processContext;
+
+    /** The state shared by the sessions of the cycles, holding the input queue. */
+    private SharedSessionState sessionState;
+
+    /** The input flowfiles, queued again and again in order, each with a distinct id. */
+    private MockFlowFile[] flowFiles;
+
+    /** The index of the next queued flowfile. */
+    private int next;
+
+
+    /* --- Setup --- */
+
+    @Setup
+    public void setup() {
+        TestRunner testRunner = TestRunners.newTestRunner(SafeDistributor.class);
+        testRunner.setProperty(SafeDistributor.ATTRIBUTE_NAME, KEY_ATTRIBUTE);
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, String.valueOf(relationships));
+        testRunner.setProperty(SafeDistributor.BATCH_SIZE, String.valueOf(batchSize));
+        testRunner.setProperty(SafeDistributor.DISTRIBUTION_STRATEGY,
+                DistributionStrategy.valueOf(strategy).getAllowableValue().getValue());
+        testRunner.setProperty(SafeDistributor.HASH_FUNCTION, hashFunction);
+        testRunner.setProperty(SafeDistributor.ROUTING_CACHE_SIZE, String.valueOf(routingCacheSize));
+        testRunner.run(1, false, true);
+
+        processor = (SafeDistributor) testRunner.getProcessor();
+        processContext = testRunner.getProcessContext();
+        sessionState = new SharedSessionState(processor, new AtomicLong());
+
+        String[] keys = BenchmarkKeys.keys(keyLength, cardinality);
+        flowFiles = new MockFlowFile[Math.max(cardinality, batchSize)];
+
+        for (int index = 0; index < flowFiles.length; index++) {
+            flowFiles[index] = new MockFlowFile(index);
+            flowFiles[index].putAttributes(ImmutableMap.of(KEY_ATTRIBUTE, keys[index % cardinality]));
+        }
+    }
+
+
+    /* --- Benchmarks --- */
+
+    @Benchmark
+    public MockProcessSession onTrigger() {
+        MockFlowFileQueue queue = sessionState.getFlowFileQueue();
+
+        for (int count = 0; count < batchSize; count++) {
+            queue.offer(flowFiles[next]);
+            next = next + 1 == flowFiles.length ? 0 : next + 1;
+        }
+
+        MockProcessSession session = new MockProcessSession(sessionState, processor);
+        processor.onTrigger(processContext, session);
+        session.commit();
+        return session;
+    }
+}
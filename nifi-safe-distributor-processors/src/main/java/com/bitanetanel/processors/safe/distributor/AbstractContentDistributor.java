@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.processor.*;
+
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A base for the processors that split the content of a flowfile between the numbered relationships, writing one
+ * output flowfile per relationship that gets any of it. Holds the relationships, the routing properties and the
+ * distribution table, routed the same way {@link SafeDistributor} routes flowfiles by an attribute.
+ *
+ * @author Netanel Bitan
+ */
+public abstract class AbstractContentDistributor extends AbstractProcessor {
+
+
+    /* --- Relationships --- */
+
+    /** The input flowfile is transferred to this relationship once its content was distributed. */
+    protected static final Relationship ORIGINAL = new Relationship.Builder().name("Original").build();
+
+
+    /* --- Data Members --- */
+
+    /** A key buffer per thread, so encoding keys allocates nothing. */
+    private static final ThreadLocal<KeyBuffer> KEY_BUFFERS = ThreadLocal.withInitial(KeyBuffer::new);
+
+
+    /** The processor's static relationships. */
+    private final Set<Relationship> staticRelationships = ImmutableSet.of(SafeDistributor.FAILURE, ORIGINAL);
+
+    /**
+     * Snapshot of the processor's relationships and partitioner. Replaced as a whole whenever
+     * {@link SafeDistributor#RELATIONSHIPS_NUMBER} changes or the processor is scheduled,
+     * so concurrent tasks always see a complete table.
+     */
+    private volatile DistributionTable distributionTable;
+
+    /** The processor's properties. */
+    private final List<PropertyDescriptor> properties = Lists.newArrayList();
+
+
+    /* --- Override Methods --- */
+
+    /**
+     * Initializes relationships and properties, the content properties first and then the routing ones.
+     *
+     * @param context The processor's context.
+     */
+    @Override
+    protected void init(ProcessorInitializationContext context) {
+        distributionTable = new DistributionTable(1, staticRelationships);
+        properties.addAll(getContentPropertyDescriptors());
+        properties.add(SafeDistributor.RELATIONSHIPS_NUMBER);
+        properties.add(SafeDistributor.DISTRIBUTION_STRATEGY);
+        properties.add(SafeDistributor.VIRTUAL_NODES);
+        properties.add(SafeDistributor.LOAD_BOUND);
+        properties.add(SafeDistributor.LOAD_WINDOW);
+        properties.add(SafeDistributor.LOOKUP_TABLE_SIZE);
+        properties.add(SafeDistributor.HASH_SCHEME);
+        properties.add(SafeDistributor.HASH_FUNCTION);
+    }
+
+    /**
+     * Get all relationships of the processor.
+     * The built-in relationships (failure and {@link #ORIGINAL}) and the numbered relationships of the current
+     * {@link #distributionTable}.
+     *
+     * @return All relationships of the processor.
+     */
+    @Override
+    public Set<Relationship> getRelationships() {
+        return distributionTable.getRelationships();
+    }
+
+    /**
+     * @return All properties of the processor.
+     */
+    @Override
+    public final List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    /**
+     * Rebuilds the {@link #distributionTable} according to the value at
+     * {@link SafeDistributor#RELATIONSHIPS_NUMBER}.
+     *
+     * @param descriptor The changed property.
+     * @param oldValue Old value of the property.
+     * @param newValue New value of the property.
+     */
+    @Override
+    public void onPropertyModified(PropertyDescriptor descriptor, String oldValue, String newValue) {
+        if (descriptor.equals(SafeDistributor.RELATIONSHIPS_NUMBER)) {
+            distributionTable = new DistributionTable(Integer.parseInt(newValue), staticRelationships);
+        }
+    }
+
+    /**
+     * Validates the routing properties the same way {@link SafeDistributor} does.
+     *
+     * @param validationContext The context of the validation.
+     * @return The validation failures.
+     */
+    @Override
+    protected Collection<ValidationResult> customValidate(ValidationContext validationContext) {
+        return SafeDistributor.validateRouting(validationContext);
+    }
+
+    /**
+     * Supports the 'weight.&lt;relationship number&gt;' and 'slots.&lt;relationship number&gt;' dynamic properties.
+     *
+     * @param propertyDescriptorName The name of the dynamic property.
+     * @return The descriptor of a weight or slots property, or null if the name isn't one.
+     */
+    @Override
+    protected PropertyDescriptor getSupportedDynamicPropertyDescriptor(String propertyDescriptorName) {
+        return SafeDistributor.routingDynamicPropertyDescriptor(propertyDescriptorName);
+    }
+
+
+    /* --- Lifecycle Methods --- */
+
+    /**
+     * Builds the partitioner of the selected distribution strategy once, before any trigger.
+     *
+     * @param processContext The context of the process.
+     */
+    @OnScheduled
+    public void buildDistributionTable(ProcessContext processContext) {
+        distributionTable =
+                SafeDistributor.partitionedTable(distributionTable, processContext, getLogger(), null, null);
+    }
+
+
+    /* --- Protected Methods --- */
+
+    /**
+     * @return The properties that select and read the content, listed before the routing properties.
+     */
+    protected abstract List<PropertyDescriptor> getContentPropertyDescriptors();
+
+
+    /* --- Package Methods --- */
+
+    /**
+     * @return The current distribution table. Read once per trigger, so a whole flowfile is routed by one table.
+     */
+    DistributionTable getDistributionTable() {
+        return distributionTable;
+    }
+
+    /**
+     * @return The key buffer of the current thread.
+     */
+    static KeyBuffer keyBuffer() {
+        return KEY_BUFFERS.get();
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.FlowFileFilter;
+import org.apache.nifi.processor.Relationship;
+
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Routes the flowfiles of a single trigger by a {@link DistributionTable} snapshot.
+ * Consults the table's routing cache in front of {@link #calculatedDestination(String)}, keeps moved keys on their
+ * previous partition during a {@link Migration}, lets the table's hot key splitter spread heavy hitters, counts the
+ * cache hits and misses of the trigger, keeps the key of the routed flowfile for the key statistics, and can act as a
+ * queue filter that pulls only flowfiles whose destination has room.
+ * <p>
+ * Routing a flowfile is split in two: peeking its route reads the routing state, and placing it updates the cache,
+ * the hot key sketch, the partitioner's loads and the migration. The filter places only the flowfiles it accepts, so
+ * flowfiles left queued aren't counted again on every trigger.
+ * <p>
+ * A route is a partition, marked by {@link HotKeySplitter#SPLIT} or {@link Migration#DRAINING}, and is decoded by
+ * {@link #partitionOf}, {@link #isSplit} and {@link #isDraining}.
+ * Created per trigger, so it is not thread safe.
+ *
+ * @author Netanel Bitan
+ */
+final class BatchRouter {
+
+
+    /* --- Constants --- */
+
+    /** The route of a flowfile without a key. */
+    static final int NO_KEY = -1;
+
+    /** How many flowfiles the filter may examine per flowfile of the batch before giving up on the queue. */
+    private static final int FILTER_SCAN_FACTOR = 10;
+
+
+    /* --- Data Members --- */
+
+    /** The snapshot to route by. */
+    private final DistributionTable table;
+
+    /** The table's routing cache, or null if caching is disabled. */
+    private final RoutingCache cache;
+
+    /** The table's hot key splitter, or null if splitting is disabled. */
+    private final HotKeySplitter splitter;
+
+    /** The running migration, or null if the routing isn't migrating. */
+    private final Migration migration;
+
+    /** The calling thread's key buffer. */
+    private final KeyBuffer keyBuffer;
+
+    /** Gets the key of a flowfile, or null if it has none. Null itself if the key is composite. */
+    private final Function<FlowFile, String> keys;
+
+    /** The attributes of a composite key, or null if the key isn't composite. */
+    private final String[] keyAttributes;
+
+    /** The fields of the composite key of the routed flowfile, reused between flowfiles. */
+    private final String[] keyFields;
+
+    /** Whether the key of the routed flowfile is kept, joined if composite. */
+    private final boolean keepKeys;
+
+    /** The key of the last routed flowfile, or null if it has none or keys aren't kept. */
+    private String routedKey;
+
+    /** The key of the last peeked flowfile as a whole, or null if it has none or wasn't joined. */
+    private String peekedKey;
+
+    /** The home partition of the last peeked flowfile. */
+    private int peekedHome;
+
+    /** Whether the home partition of the last peeked flowfile was found in the cache. */
+    private boolean peekedHit;
+
+    /** The keys of {@link #filteredFlowFiles}, if keys are kept. */
+    private String[] filteredKeys;
+
+    /** The flowfiles accepted by the filter, in acceptance order. */
+    private FlowFile[] filteredFlowFiles = new FlowFile[0];
+
+    /** The routes of {@link #filteredFlowFiles}. */
+    private int[] filteredRoutes = new int[0];
+
+    /** The number of flowfiles accepted by the filter. */
+    private int filteredCount;
+
+    /** The number of routed keys found in the cache. */
+    private int cacheHits;
+
+    /** The number of routed keys not found in the cache. */
+    private int cacheMisses;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * @param table The snapshot to route by.
+     * @param keyBuffer The calling thread's key buffer.
+     * @param keys Gets the key of a flowfile, or null if it has none.
+     * @param migration The running migration, or null if the routing isn't migrating.
+     * @param keepKeys Whether to keep the key of the routed flowfile.
+     */
+    BatchRouter(DistributionTable table, KeyBuffer keyBuffer, Function<FlowFile, String> keys, Migration migration,
+                boolean keepKeys) {
+        this.table = table;
+        this.cache = table.getRoutingCache();
+        this.splitter = table.getHotKeySplitter();
+        this.migration = migration;
+        this.keyBuffer = keyBuffer;
+        this.keys = keys;
+        this.keyAttributes = null;
+        this.keyFields = null;
+        this.keepKeys = keepKeys;
+    }
+
+    /**
+     * @param table The snapshot to route by.
+     * @param keyBuffer The calling thread's key buffer.
+     * @param keyAttributes The attributes of a composite key, hashed as separate fields.
+     * @param migration The running migration, or null if the routing isn't migrating.
+     * @param keepKeys Whether to keep the key of the routed flowfile.
+     */
+    BatchRouter(DistributionTable table, KeyBuffer keyBuffer, String[] keyAttributes, Migration migration,
+                boolean keepKeys) {
+        this.table = table;
+        this.cache = table.getRoutingCache();
+        this.splitter = table.getHotKeySplitter();
+        this.migration = migration;
+        this.keyBuffer = keyBuffer;
+        this.keys = null;
+        this.keyAttributes = keyAttributes;
+        this.keyFields = new String[keyAttributes.length];
+        this.keepKeys = keepKeys;
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * Routes the flowfile at the given index of the batch. Reuses the route computed by the filter if the batch was
+     * pulled by {@link #availableDestinationsFilter}.
+     *
+     * @param flowFile The flowfile to route.
+     * @param index The index of the flowfile in the pulled batch.
+     * @return The route of the flowfile, or {@link #NO_KEY} if it has no key.
+     */
+    int route(FlowFile flowFile, int index) {
+        if (index < filteredCount && filteredFlowFiles[index] == flowFile) {
+            routedKey = keepKeys ? filteredKeys[index] : null;
+            return filteredRoutes[index];
+        }
+
+        return route(flowFile);
+    }
+
+    /**
+     * Creates a filter that accepts up to the given number of flowfiles, skipping flowfiles whose destination is
+     * unavailable. Since every flowfile of a key has the same destination, the flowfiles of a key are either all
+     * skipped or accepted in queue order.
+     *
+     * @param available The relationships that currently have room.
+     * @param batchSize The maximum number of flowfiles to accept.
+     * @param failure The relationship of flowfiles without a key.
+     * @return The filter.
+     */
+    FlowFileFilter availableDestinationsFilter(Set<Relationship> available, int batchSize, Relationship failure) {
+        boolean[] availablePartitions = new boolean[table.size()];
+
+        for (int partition = 0; partition < availablePartitions.length; partition++) {
+            availablePartitions[partition] = available.contains(table.destination(partition));
+        }
+
+        boolean failureAvailable = available.contains(failure);
+        int maxExamined = batchSize * FILTER_SCAN_FACTOR;
+        filteredFlowFiles = new FlowFile[batchSize];
+        filteredRoutes = new int[batchSize];
+        filteredKeys = keepKeys ? new String[batchSize] : null;
+        filteredCount = 0;
+
+        return new FlowFileFilter() {
+
+            /** The number of flowfiles examined so far. */
+            private int examined;
+
+            @Override
+            public FlowFileFilterResult filter(FlowFile flowFile) {
+                if (examined++ == maxExamined) {
+                    return FlowFileFilterResult.REJECT_AND_TERMINATE;
+                }
+
+                int route = peek(flowFile);
+
+                if (route == NO_KEY ? !failureAvailable : !availablePartitions[partitionOf(route)]) {
+                    return FlowFileFilterResult.REJECT_AND_CONTINUE;
+                }
+
+                if (route != NO_KEY) {
+                    place(route);
+                }
+
+                if (keepKeys) {
+                    filteredKeys[filteredCount] = routedKey;
+                }
+
+                filteredFlowFiles[filteredCount] = flowFile;
+                filteredRoutes[filteredCount++] = route;
+                return filteredCount == batchSize
+                        ? FlowFileFilterResult.ACCEPT_AND_TERMINATE
+                        : FlowFileFilterResult.ACCEPT_AND_CONTINUE;
+            }
+        };
+    }
+
+    /**
+     * @param route A route other than {@link #NO_KEY}.
+     * @return The partition of the route.
+     */
+    static int partitionOf(int route) {
+        return route & (Migration.DRAINING - 1);
+    }
+
+    /**
+     * @param route A route other than {@link #NO_KEY}.
+     * @return Whether the route is of a hot key that was split.
+     */
+    static boolean isSplit(int route) {
+        return (route & HotKeySplitter.SPLIT) != 0;
+    }
+
+    /**
+     * @param route A route other than {@link #NO_KEY}.
+     * @return Whether the route is of a moved key kept on its previous partition.
+     */
+    static boolean isDraining(int route) {
+        return (route & Migration.DRAINING) != 0;
+    }
+
+    /**
+     * @return The number of routed keys found in the cache.
+     */
+    int getCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * @return The number of routed keys not found in the cache.
+     */
+    int getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * @return The key of the last routed flowfile, joined if composite, or null if it has none or keys aren't kept.
+     */
+    String getRoutedKey() {
+        return routedKey;
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * Routes a flowfile by its key, or by the fields of its composite key, and places it.
+     *
+     * @param flowFile The flowfile to route.
+     * @return The route of the flowfile, or {@link #NO_KEY} if it has no key.
+     */
+    private int route(FlowFile flowFile) {
+        int route = peek(flowFile);
+
+        if (route != NO_KEY) {
+            place(route);
+        }
+
+        return route;
+    }
+
+    /**
+     * Routes a flowfile by its key, or by the fields of its composite key, without placing it.
+     *
+     * @param flowFile The flowfile to route.
+     * @return The route of the flowfile, or {@link #NO_KEY} if it has no key.
+     */
+    private int peek(FlowFile flowFile) {
+        routedKey = null;
+        peekedKey = null;
+        peekedHit = false;
+
+        if (keyAttributes != null) {
+            return peekComposite(flowFile);
+        }
+
+        String attributeValue = keys.apply(flowFile);
+
+        if (keepKeys) {
+            routedKey = attributeValue;
+        }
+
+        return attributeValue == null ? NO_KEY : peek(attributeValue);
+    }
+
+    /**
+     * Routes a flowfile by a composite key. Hashes the fields without joining them, unless the cache, the splitter,
+     * a migration or the key statistics need the key as a whole, in which case the fields are joined by
+     * {@link DistributionTable#FIELD_SEPARATOR}, which routes the same.
+     *
+     * @param flowFile The flowfile to route.
+     * @return The route of the flowfile, or {@link #NO_KEY} if it lacks any of the key attributes.
+     */
+    private int peekComposite(FlowFile flowFile) {
+        for (int index = 0; index < keyAttributes.length; index++) {
+            keyFields[index] = flowFile.getAttribute(keyAttributes[index]);
+
+            if (keyFields[index] == null) {
+                return NO_KEY;
+            }
+        }
+
+        if (cache == null && splitter == null && migration == null && !keepKeys) {
+            peekedHome = table.peek(keyFields, keyBuffer);
+            return peekedHome;
+        }
+
+        String key = String.join(String.valueOf(DistributionTable.FIELD_SEPARATOR), keyFields);
+
+        if (keepKeys) {
+            routedKey = key;
+        }
+
+        return peek(key);
+    }
+
+    /**
+     * Routes a key to its home partition, by the cache or by {@link #calculatedDestination(String)} on a cache
+     * miss, keeps it on its previous partition if it is draining, and otherwise lets the splitter spread the key if
+     * it is hot. Changes none of them.
+     *
+     * @param attributeValue The key of the flowfile.
+     * @return The route of the key.
+     */
+    private int peek(String attributeValue) {
+        peekedKey = attributeValue;
+        peekedHome = homePartition(attributeValue);
+
+        if (migration != null) {
+            int migrated = migration.peek(attributeValue, peekedHome, keyBuffer);
+
+            if (migrated != peekedHome) {
+                return migrated;
+            }
+        }
+
+        return splitter == null ? peekedHome : splitter.peek(attributeValue, peekedHome);
+    }
+
+    /**
+     * Places the last peeked flowfile on its route: counts the cache hit or caches the missed key, places the key on
+     * the partitioner, and records it on the migration and the splitter that chose the route.
+     *
+     * @param route The route of the last peeked flowfile, other than {@link #NO_KEY}.
+     */
+    private void place(int route) {
+        if (peekedHit) {
+            cacheHits++;
+        } else {
+            table.place(peekedHome);
+
+            if (cache != null) {
+                cacheMisses++;
+                cache.put(peekedKey, peekedHome);
+            }
+        }
+
+        if (peekedKey == null) {
+            return;
+        }
+
+        if (migration != null) {
+            migration.record(peekedKey, route);
+        }
+
+        if (splitter != null && !isDraining(route)) {
+            splitter.record(peekedKey, route);
+        }
+    }
+
+    /**
+     * @param attributeValue The attribute value.
+     * @return The home partition of the value, from the cache or by {@link #calculatedDestination(String)}.
+     */
+    private int homePartition(String attributeValue) {
+        if (cache != null) {
+            int partition = cache.get(attributeValue);
+
+            if (partition != RoutingCache.MISS) {
+                peekedHit = true;
+                return partition;
+            }
+        }
+
+        return calculatedDestination(attributeValue);
+    }
+
+    /**
+     * Calculates the destination partition of the flowfile according to the given attribute value, without placing
+     * it on the partitioner.
+     *
+     * @param attributeValue The attribute value.
+     * @return The calculated destination partition of the {@link DistributionTable}.
+     */
+    private int calculatedDestination(String attributeValue) {
+        return table.peek(attributeValue, keyBuffer);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Partitions keys by consistent hashing with bounded loads (Mirrokni, Thorup and Zadimoghaddam).
+ * A key belongs to its node on a {@link HashRingPartitioner consistent hash ring}, unless the owner of that node has
+ * already received its capacity - the load bound times the average load of the window - in which case the key spills
+ * to the owner of the next node with room, walking the ring clockwise. Keys stay on their home relationship under even
+ * load, and no relationship receives more than the load bound times its share.
+ * <p>
+ * The loads are counted over a decaying window: whenever a window of keys has been placed, all loads are halved.
+ * Loads are updated with atomic adds without a lock, so under concurrent tasks the bound holds approximately.
+ *
+ * @author Netanel Bitan
+ */
+final class BoundedLoadPartitioner implements Partitioner {
+
+
+    /* --- Data Members --- */
+
+    /** The ring of the home nodes. */
+    private final HashRingPartitioner ring;
+
+    /** The number of keys placed on every partition in the window. */
+    private final AtomicLongArray loads;
+
+    /** The number of keys placed in the window. */
+    private final AtomicLong total = new AtomicLong();
+
+    /** Set while a thread halves the loads. */
+    private final AtomicBoolean decaying = new AtomicBoolean();
+
+    /** The maximal load of a partition, as a multiple of the average load. */
+    private final double loadBound;
+
+    /** The number of placed keys after which the loads are halved. */
+    private final long window;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * @param partitions The number of partitions.
+     * @param virtualNodes The number of virtual nodes of every partition.
+     * @param loadBound The maximal load of a partition, as a multiple of the average load. Greater than 1.
+     * @param window The number of placed keys after which the loads are halved.
+     */
+    BoundedLoadPartitioner(int partitions, int virtualNodes, double loadBound, long window) {
+        this.ring = new HashRingPartitioner(partitions, virtualNodes);
+        this.loads = new AtomicLongArray(partitions);
+        this.loadBound = loadBound;
+        this.window = window;
+    }
+
+
+    /* --- Partitioner Implementation --- */
+
+    @Override
+    public int partition(long hash) {
+        int partition = peek(hash);
+        place(partition);
+        return partition;
+    }
+
+    @Override
+    public int peek(long hash) {
+        long capacity = (long) Math.ceil(loadBound * (total.get() + 1) / loads.length());
+        int node = ring.node(hash);
+        int partition = ring.owner(node);
+
+        // The capacities add up to more than the placed keys, so a partition with room is always found on the ring.
+        for (int step = 1; loads.get(partition) >= capacity && step < ring.nodes(); step++) {
+            partition = ring.owner(node + step);
+        }
+
+        return partition;
+    }
+
+    @Override
+    public void place(int partition) {
+        long placed = total.incrementAndGet();
+        loads.getAndIncrement(partition);
+
+        if (placed >= window) {
+            decay();
+        }
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * Halves all loads, unless another thread is already doing so.
+     */
+    private void decay() {
+        if (!decaying.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            for (int i = 0; i < loads.length(); i++) {
+                loads.set(i, loads.get(i) >>> 1);
+            }
+
+            total.set(total.get() >>> 1);
+        } finally {
+            decaying.set(false);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+/**
+ * Reads of primitives from byte arrays, shared by the hash functions.
+ *
+ * @author Netanel Bitan
+ */
+final class Bytes {
+
+
+    /* --- Constructors --- */
+
+    private Bytes() {
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * @param bytes The array to read from.
+     * @param offset The offset of the first byte.
+     * @return The little endian int at the offset.
+     */
+    static int intLittleEndian(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff)
+                | (bytes[offset + 1] & 0xff) << 8
+                | (bytes[offset + 2] & 0xff) << 16
+                | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    /**
+     * @param bytes The array to read from.
+     * @param offset The offset of the first byte.
+     * @return The little endian long at the offset.
+     */
+    static long longLittleEndian(byte[] bytes, int offset) {
+        return (intLittleEndian(bytes, offset) & 0xffffffffL) | (long) intLittleEndian(bytes, offset + 4) << 32;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+/**
+ * Allocation free CRC-32C (Castagnoli), computed by slicing-by-8 tables.
+ * The JDK's intrinsified {@code java.util.zip.CRC32C} exists only since Java 9, and the processor still runs on Java 8.
+ *
+ * @author Netanel Bitan
+ */
+final class Crc32c {
+
+
+    /* --- Constants --- */
+
+    /** The reversed Castagnoli polynomial. */
+    private static final int POLYNOMIAL = 0x82f63b78;
+
+    /** The lookup tables. Table k gives the CRC of a byte followed by k zero bytes. */
+    private static final int[][] TABLES = createTables();
+
+
+    /* --- Constructors --- */
+
+    private Crc32c() {
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * @param bytes The bytes to hash.
+     * @param length The number of bytes to hash, from the start of the array.
+     * @return The CRC-32C of the bytes, as an unsigned 32 bit value.
+     */
+    static long hash(byte[] bytes, int length) {
+        int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+        int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+        int crc = ~0;
+        int offset = 0;
+
+        for (int slicesEnd = length & ~7; offset < slicesEnd; offset += 8) {
+            int low = crc ^ Bytes.intLittleEndian(bytes, offset);
+            int high = Bytes.intLittleEndian(bytes, offset + 4);
+            crc = t7[low & 0xff] ^ t6[(low >>> 8) & 0xff] ^ t5[(low >>> 16) & 0xff] ^ t4[low >>> 24]
+                    ^ t3[high & 0xff] ^ t2[(high >>> 8) & 0xff] ^ t1[(high >>> 16) & 0xff] ^ t0[high >>> 24];
+        }
+
+        for (; offset < length; offset++) {
+            crc = t0[(crc ^ bytes[offset]) & 0xff] ^ (crc >>> 8);
+        }
+
+        return ~crc & 0xffffffffL;
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * @return The slicing-by-8 lookup tables.
+     */
+    private static int[][] createTables() {
+        int[][] tables = new int[8][256];
+
+        for (int value = 0; value < 256; value++) {
+            int crc = value;
+
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+
+            tables[0][value] = crc;
+        }
+
+        for (int table = 1; table < 8; table++) {
+            for (int value = 0; value < 256; value++) {
+                int previous = tables[table - 1][value];
+                tables[table][value] = (previous >>> 8) ^ tables[0][previous & 0xff];
+            }
+        }
+
+        return tables;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.collect.Maps;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.exception.ProcessException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The strategies for mapping a key hash to one of the numbered relationships.
+ *
+ * @author Netanel Bitan
+ */
+enum DistributionStrategy {
+
+
+    /* --- Values --- */
+
+    /** The floor modulo of the hash. Changing the relationships number remaps almost every key. */
+    MODULO("Modulo", "Routes by the hash modulo the relationships number. Perfectly balanced, " +
+            "but changing the relationships number remaps almost every key.") {
+        @Override
+        Partitioner createPartitioner(int partitions, ProcessContext context) {
+            return new ModuloPartitioner(partitions);
+        }
+    },
+
+    /** A consistent hash ring with virtual nodes. Changing the relationships number moves only a share of the keys. */
+    CONSISTENT_HASH_RING("Consistent hash ring", "Routes over a consistent hash ring with a configurable number of " +
+            "virtual nodes per relationship. Adding or removing the n-th relationship moves only about 1/n of the keys.") {
+        @Override
+        Partitioner createPartitioner(int partitions, ProcessContext context) {
+            return new HashRingPartitioner(partitions, context.getProperty(SafeDistributor.VIRTUAL_NODES).asInteger());
+        }
+    },
+
+    /** Consistent hashing with bounded loads. A key spills to the next relationship on the ring if its own is full. */
+    BOUNDED_LOAD_HASH_RING("Consistent hash with bounded loads", "Routes over a consistent hash ring, but no " +
+            "relationship receives more than the load bound times the average share of a decaying load window. " +
+            "A key whose relationship is full spills to the next relationship on the ring with room, so keys stay on " +
+            "their relationship under even load and move only during bursts. Can't be used with the routing cache.") {
+        @Override
+        Partitioner createPartitioner(int partitions, ProcessContext context) {
+            return new BoundedLoadPartitioner(partitions,
+                    context.getProperty(SafeDistributor.VIRTUAL_NODES).asInteger(),
+                    context.getProperty(SafeDistributor.LOAD_BOUND).asDouble(),
+                    context.getProperty(SafeDistributor.LOAD_WINDOW).asInteger());
+        }
+    },
+
+    /** Jump Consistent Hash over a 64 bit hash. Needs no memory, and adding a relationship moves 1/n of the keys. */
+    JUMP_CONSISTENT_HASH("Jump consistent hash", "Routes by Jump Consistent Hash over a 64 bit hash of the " +
+            "attribute value. Needs no lookup structure, and adding the n-th relationship moves only 1/n of the keys. " +
+            "Best suited for flows that only ever add relationships, since removing a relationship other than the " +
+            "last one remaps more keys.", HashFunction.MURMUR3_128) {
+        @Override
+        Partitioner createPartitioner(int partitions, ProcessContext context) {
+            return new JumpPartitioner(partitions);
+        }
+    },
+
+    /** Weighted rendezvous hashing. Relationships receive keys in proportion to their weights. */
+    WEIGHTED_RENDEZVOUS_HASH("Weighted rendezvous hash", "Routes by weighted rendezvous (highest random weight) " +
+            "hashing. Every relationship receives a share of the keys proportional to its weight, set by a " +
+            "'weight.<number>' dynamic property (1 by default). Changing the weight of a relationship moves keys only to or from it. " +
+            "Costs a pass over all relationships per flowfile.") {
+        @Override
+        Partitioner createPartitioner(int partitions, ProcessContext context) {
+            return new RendezvousPartitioner(weights(partitions, context));
+        }
+    },
+
+    /** Maglev hashing. A prime sized lookup table built once, so a lookup is a single array read. */
+    MAGLEV("Maglev", "Routes by Maglev hashing over a prime sized lookup table, built once when the processor is " +
+            "scheduled. A lookup is a single array read and the relationships are almost perfectly balanced. " +
+            "Changing the relationships number moves only a small share of the keys. " +
+            "Suited for a large number of relationships.") {
+        @Override
+        Partitioner createPartitioner(int partitions, ProcessContext context) {
+            int tableSize = context.getProperty(SafeDistributor.LOOKUP_TABLE_SIZE).asInteger();
+            return new MaglevPartitioner(partitions, tableSize);
+        }
+    },
+
+    /** Kafka's default partitioner. Relationship k holds the keys Kafka writes to partition k-1. */
+    KAFKA_PARTITIONER("Kafka partitioner", "Routes exactly as Kafka's default partitioner routes keyed records: " +
+            "murmur2 over the UTF-8 attribute value, masked positive, modulo the relationships number. Relationship k " +
+            "holds the keys Kafka writes to partition k-1 of a topic with as many partitions as relationships. " +
+            "Requires the strategy default hash function and hash scheme version 2.", HashFunction.KAFKA_MURMUR2) {
+        @Override
+        Partitioner createPartitioner(int partitions, ProcessContext context) {
+            return new KafkaPartitioner(partitions);
+        }
+    },
+
+    /** A table of virtual slots kept in the cluster state. Slots can be moved between relationships one by one. */
+    SLOT_TABLE("Slot table", "Routes over " + SlotPartitioner.SLOTS + " virtual slots, like Redis Cluster. " +
+            "Every slot is assigned to a relationship by a slot table kept in the processor's cluster state, so it " +
+            "survives restarts and is shared by the whole cluster. Slots can be moved to a relationship by a " +
+            "'slots.<number>' dynamic property without touching the rest. Changing the relationships number moves " +
+            "only the slots needed to even the relationships out.") {
+        @Override
+        Partitioner createPartitioner(int partitions, ProcessContext context) {
+            try {
+                return SlotPartitioner.load(context.getStateManager(), partitions, pins(partitions, context));
+            } catch (IOException e) {
+                throw new ProcessException("Failed to load the slot table from the cluster state", e);
+            }
+        }
+    };
+
+
+    /* --- Data Members --- */
+
+    /** The value shown for this strategy on the processor's properties. */
+    private final AllowableValue allowableValue;
+
+    /** The default function hashing the attribute values for this strategy. */
+    private final HashFunction hashFunction;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * Creates a strategy that hashes the attribute values by the original {@link HashFunction#MURMUR3_32}.
+     *
+     * @param displayName The display name of the strategy.
+     * @param description The description of the strategy.
+     */
+    DistributionStrategy(String displayName, String description) {
+        this(displayName, description, HashFunction.MURMUR3_32);
+    }
+
+    /**
+     * @param displayName The display name of the strategy.
+     * @param description The description of the strategy.
+     * @param hashFunction The default function hashing the attribute values for this strategy.
+     */
+    DistributionStrategy(String displayName, String description, HashFunction hashFunction) {
+        this.allowableValue = new AllowableValue(displayName, displayName, description);
+        this.hashFunction = hashFunction;
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * Creates the partitioner of this strategy.
+     *
+     * @param partitions The number of numbered relationships.
+     * @param context The processor's context, for strategy specific properties.
+     * @return The new partitioner.
+     */
+    abstract Partitioner createPartitioner(int partitions, ProcessContext context);
+
+    /**
+     * @return The default function hashing the attribute values for this strategy.
+     */
+    HashFunction getHashFunction() {
+        return hashFunction;
+    }
+
+    /**
+     * @return The value shown for this strategy on the processor's properties.
+     */
+    AllowableValue getAllowableValue() {
+        return allowableValue;
+    }
+
+    /**
+     * @return The values of all strategies.
+     */
+    static AllowableValue[] allowableValues() {
+        return Arrays.stream(values()).map(DistributionStrategy::getAllowableValue).toArray(AllowableValue[]::new);
+    }
+
+    /**
+     * Reads the weights of the numbered relationships from the processor's weight dynamic properties.
+     * Relationships without a weight property get a weight of 1, and weights of missing relationships are ignored.
+     *
+     * @param partitions The number of numbered relationships.
+     * @param context The processor's context.
+     * @return The weight of every partition.
+     */
+    private static double[] weights(int partitions, ProcessContext context) {
+        double[] weights = new double[partitions];
+        Arrays.fill(weights, 1);
+
+        context.getProperties().forEach((descriptor, value) -> {
+            Integer number = SafeDistributor.weightedRelationshipNumber(descriptor.getName());
+
+            if (descriptor.isDynamic() && number != null && number <= partitions && value != null) {
+                weights[number - 1] = Double.parseDouble(value);
+            }
+        });
+
+        return weights;
+    }
+
+    /**
+     * Reads the pinned slot ranges of the numbered relationships from the processor's slots dynamic properties.
+     * Pins of missing relationships are ignored.
+     *
+     * @param partitions The number of numbered relationships.
+     * @param context The processor's context.
+     * @return The slot ranges to move to every pinned partition.
+     */
+    static Map<Integer, String> pins(int partitions, ProcessContext context) {
+        Map<Integer, String> pins = Maps.newTreeMap();
+
+        context.getProperties().forEach((descriptor, value) -> {
+            Integer number = SafeDistributor.slotsRelationshipNumber(descriptor.getName());
+
+            if (descriptor.isDynamic() && number != null && number <= partitions && value != null) {
+                pins.put(number - 1, value);
+            }
+        });
+
+        return pins;
+    }
+
+    /**
+     * @param value A value of the strategy property.
+     * @return The matching strategy.
+     */
+    static DistributionStrategy of(String value) {
+        return Arrays.stream(values())
+                .filter(strategy -> strategy.allowableValue.getValue().equals(value))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown distribution strategy: " + value));
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.nifi.processor.Relationship;
+
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the distributor's relationships.
+ * The numbered relationships are kept in an array indexed by their partition (relationship "1" is at index 0),
+ * the {@link HashScheme} encodes the keys, the {@link HashFunction} hashes them and the {@link Partitioner} maps a key
+ * hash to an index of that array.
+ *
+ * @author Netanel Bitan
+ */
+final class DistributionTable {
+
+
+    /* --- Constants --- */
+
+    /** Separates the fields of a composite key, so that ("ab", "c") and ("a", "bc") hash differently. */
+    static final char FIELD_SEPARATOR = '\0';
+
+    /** The encoding of {@link #FIELD_SEPARATOR}, the same by every hash scheme. */
+    private static final byte[] FIELD_SEPARATOR_BYTES = {0};
+
+
+    /* --- Data Members --- */
+
+    /** The numbered relationships, indexed by partition. */
+    private final Relationship[] destinations;
+
+    /** All relationships of the processor, the static ones and the numbered ones. */
+    private final Set<Relationship> relationships;
+
+    /** Encodes the keys to the hashed bytes. */
+    private final HashScheme hashScheme;
+
+    /** Hashes the keys. */
+    private final HashFunction hashFunction;
+
+    /** Maps key hashes to partitions of {@link #destinations}. */
+    private final Partitioner partitioner;
+
+    /** Caches the partitions of hot keys, or null if caching is disabled. Belongs to this table only. */
+    private final RoutingCache routingCache;
+
+    /** Spreads heavy hitter keys over several partitions, or null if splitting is disabled. Belongs to this table. */
+    private final HotKeySplitter hotKeySplitter;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * Creates a table with the given number of numbered relationships, encoded by {@link HashScheme#V2}, hashed by
+     * {@link HashFunction#MURMUR3_32} and partitioned by {@link ModuloPartitioner}.
+     *
+     * @param destinationsNumber The number of numbered relationships.
+     * @param staticRelationships The relationships that always exist, such as the failure relationship.
+     */
+    DistributionTable(int destinationsNumber, Set<Relationship> staticRelationships) {
+        destinations = new Relationship[destinationsNumber];
+        ImmutableSet.Builder<Relationship> builder = ImmutableSet.<Relationship>builder().addAll(staticRelationships);
+
+        for (int partition = 0; partition < destinationsNumber; partition++) {
+            destinations[partition] = createRelationship(partition + 1);
+            builder.add(destinations[partition]);
+        }
+
+        relationships = builder.build();
+        hashScheme = HashScheme.V2;
+        hashFunction = HashFunction.MURMUR3_32;
+        partitioner = new ModuloPartitioner(destinationsNumber);
+        routingCache = null;
+        hotKeySplitter = null;
+    }
+
+    /**
+     * Creates a table with the relationships of another table and the given routing components.
+     *
+     * @param table The table to copy the relationships of.
+     * @param hashScheme The new hash scheme.
+     * @param hashFunction The new hash function.
+     * @param partitioner The new partitioner.
+     * @param routingCache The new routing cache, or null to disable caching.
+     * @param hotKeySplitter The new hot key splitter, or null to disable splitting.
+     */
+    private DistributionTable(DistributionTable table, HashScheme hashScheme, HashFunction hashFunction,
+                              Partitioner partitioner, RoutingCache routingCache, HotKeySplitter hotKeySplitter) {
+        this.destinations = table.destinations;
+        this.relationships = table.relationships;
+        this.hashScheme = hashScheme;
+        this.hashFunction = hashFunction;
+        this.partitioner = partitioner;
+        this.routingCache = routingCache;
+        this.hotKeySplitter = hotKeySplitter;
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * @param hashScheme The hash scheme to use.
+     * @param hashFunction The hash function to use.
+     * @param partitioner The partitioner to use.
+     * @param routingCache A new routing cache, or null to disable caching.
+     * @param hotKeySplitter A new hot key splitter, or null to disable splitting.
+     * @return A table with the same relationships as this table, routed by the given components.
+     */
+    DistributionTable withPartitioner(HashScheme hashScheme, HashFunction hashFunction, Partitioner partitioner,
+                                      RoutingCache routingCache, HotKeySplitter hotKeySplitter) {
+        return new DistributionTable(this, hashScheme, hashFunction, partitioner, routingCache, hotKeySplitter);
+    }
+
+    /**
+     * @param partitioner The partitioner to use.
+     * @return A table with the same relationships, hashing and hot key splitter as this table, partitioned by the
+     * given partitioner, with a new empty routing cache of the same capacity.
+     */
+    DistributionTable withPartitioner(Partitioner partitioner) {
+        RoutingCache cache = routingCache == null ? null : new RoutingCache(routingCache.capacity());
+        return new DistributionTable(this, hashScheme, hashFunction, partitioner, cache, hotKeySplitter);
+    }
+
+    /**
+     * @param key The flowfile's key.
+     * @param buffer The buffer to encode the key into, reused between calls.
+     * @return The partition the key is routed to, computed without the routing cache.
+     */
+    int partition(String key, KeyBuffer buffer) {
+        int partition = peek(key, buffer);
+        partitioner.place(partition);
+        return partition;
+    }
+
+    /**
+     * @param key The flowfile's key.
+     * @param buffer The buffer to encode the key into, reused between calls.
+     * @return The partition the key would be routed to, computed without the routing cache and without placing the
+     * key on the partitioner. See {@link Partitioner#peek(long)}.
+     */
+    int peek(String key, KeyBuffer buffer) {
+        hashScheme.encode(key, buffer.clear());
+        return partitioner.peek(hashFunction.hash(buffer.bytes(), buffer.length()));
+    }
+
+    /**
+     * Hashes the fields of a composite key one after the other, separated by {@link #FIELD_SEPARATOR}, without
+     * joining them. Routes exactly as {@link #partition(String, KeyBuffer)} of the joined key.
+     *
+     * @param fields The fields of the flowfile's key.
+     * @param buffer The buffer to encode the key into, reused between calls.
+     * @return The partition the key is routed to, computed without the routing cache.
+     */
+    int partition(String[] fields, KeyBuffer buffer) {
+        int partition = peek(fields, buffer);
+        partitioner.place(partition);
+        return partition;
+    }
+
+    /**
+     * @param fields The fields of the flowfile's key.
+     * @param buffer The buffer to encode the key into, reused between calls.
+     * @return The partition the key would be routed to, computed without the routing cache and without placing the
+     * key on the partitioner. See {@link Partitioner#peek(long)}.
+     */
+    int peek(String[] fields, KeyBuffer buffer) {
+        buffer.clear();
+
+        for (int index = 0; index < fields.length; index++) {
+            if (index > 0) {
+                buffer.append(FIELD_SEPARATOR_BYTES);
+            }
+
+            hashScheme.encode(fields[index], buffer);
+        }
+
+        return partitioner.peek(hashFunction.hash(buffer.bytes(), buffer.length()));
+    }
+
+    /**
+     * Places a key on the partition {@link #peek} returned for it.
+     *
+     * @param partition The partition of the key.
+     */
+    void place(int partition) {
+        partitioner.place(partition);
+    }
+
+    /**
+     * @param partition A zero based partition.
+     * @return The numbered relationship of the partition.
+     */
+    Relationship destination(int partition) {
+        return destinations[partition];
+    }
+
+    /**
+     * @return The partitioner of this table.
+     */
+    Partitioner getPartitioner() {
+        return partitioner;
+    }
+
+    /**
+     * @return The routing cache of this table, or null if caching is disabled.
+     */
+    RoutingCache getRoutingCache() {
+        return routingCache;
+    }
+
+    /**
+     * @return The hot key splitter of this table, or null if splitting is disabled.
+     */
+    HotKeySplitter getHotKeySplitter() {
+        return hotKeySplitter;
+    }
+
+    /**
+     * @return The number of numbered relationships.
+     */
+    int size() {
+        return destinations.length;
+    }
+
+    /**
+     * @return All relationships of the processor.
+     */
+    Set<Relationship> getRelationships() {
+        return relationships;
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * Creates and returns a new numbered relationship.
+     *
+     * @param number The number of the new relationship.
+     * @return The new created relationship.
+     */
+    private static Relationship createRelationship(int number) {
+        return new Relationship.Builder().name(String.valueOf(number)).build();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import org.apache.nifi.components.AllowableValue;
+
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * The functions for hashing the encoded value of the selected attribute.
+ * Implemented over a byte array range, so hashing allocates nothing.
+ * 32 bit hashes are sign extended to a long, so partitioners always get a long hash.
+ *
+ * @author Netanel Bitan
+ */
+enum HashFunction {
+
+
+    /* --- Values --- */
+
+    /** 32 bit MurmurHash3 (x86 variant), the processor's original hash. */
+    MURMUR3_32("Murmur3 32", "32 bit MurmurHash3, the original hash of the processor.") {
+        @Override
+        long hash(byte[] bytes, int length) {
+            return Murmur3.hash32(bytes, length);
+        }
+    },
+
+    /** The first 64 bits of 128 bit MurmurHash3 (x64 variant). */
+    MURMUR3_128("Murmur3 128", "The first 64 bits of 128 bit MurmurHash3.") {
+        @Override
+        long hash(byte[] bytes, int length) {
+            return Murmur3.hash128(bytes, length);
+        }
+    },
+
+    /** 64 bit xxHash. */
+    XXHASH64("xxHash64", "64 bit xxHash. Fast on keys of any length.") {
+        @Override
+        long hash(byte[] bytes, int length) {
+            return XxHash64.hash(bytes, length);
+        }
+    },
+
+    /** CRC-32C. */
+    CRC32C("CRC32C", "CRC-32C (Castagnoli). A checksum rather than a hash, cheap but with weaker mixing, " +
+            "so prefer it with strategies that mix the hash again, such as the hash ring or Maglev.") {
+        @Override
+        long hash(byte[] bytes, int length) {
+            return Crc32c.hash(bytes, length);
+        }
+    },
+
+    /** 64 bit FNV-1a. */
+    FNV1A_64("FNV-1a 64", "64 bit FNV-1a. The cheapest choice for short keys, slower on long ones.") {
+        @Override
+        long hash(byte[] bytes, int length) {
+            return Fnv1a.hash(bytes, length);
+        }
+    },
+
+    /** Kafka's MurmurHash2. */
+    KAFKA_MURMUR2("Kafka murmur2", "32 bit MurmurHash2 as used by Kafka's default partitioner.") {
+        @Override
+        long hash(byte[] bytes, int length) {
+            return Murmur2.hash(bytes, length);
+        }
+    };
+
+
+    /* --- Constants --- */
+
+    /** The value of the hash function property for using the default function of the distribution strategy. */
+    static final AllowableValue STRATEGY_DEFAULT = new AllowableValue("Strategy default", "Strategy default",
+            "The default hash function of the distribution strategy: Murmur3 128 for the jump consistent hash, " +
+                    "Kafka murmur2 for the Kafka partitioner and Murmur3 32 for the others.");
+
+
+    /* --- Data Members --- */
+
+    /** The value shown for this function on the processor's properties. */
+    private final AllowableValue allowableValue;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * @param displayName The display name of the function.
+     * @param description The description of the function.
+     */
+    HashFunction(String displayName, String description) {
+        allowableValue = new AllowableValue(displayName, displayName, description);
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * @param bytes The bytes to hash.
+     * @param length The number of bytes to hash, from the start of the array.
+     * @return The hash of the bytes.
+     */
+    abstract long hash(byte[] bytes, int length);
+
+    /**
+     * @return The value shown for this function on the processor's properties.
+     */
+    AllowableValue getAllowableValue() {
+        return allowableValue;
+    }
+
+    /**
+     * @return The values of all functions, preceded by {@link #STRATEGY_DEFAULT}.
+     */
+    static AllowableValue[] allowableValues() {
+        return Stream.concat(Stream.of(STRATEGY_DEFAULT), Arrays.stream(values()).map(HashFunction::getAllowableValue))
+                .toArray(AllowableValue[]::new);
+    }
+
+    /**
+     * @param value A value of the hash function property.
+     * @param strategy The selected distribution strategy.
+     * @return The matching function, or the strategy's default function for {@link #STRATEGY_DEFAULT}.
+     */
+    static HashFunction of(String value, DistributionStrategy strategy) {
+        if (STRATEGY_DEFAULT.getValue().equals(value)) {
+            return strategy.getHashFunction();
+        }
+
+        return Arrays.stream(values())
+                .filter(function -> function.allowableValue.getValue().equals(value))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown hash function: " + value));
+    }
+}
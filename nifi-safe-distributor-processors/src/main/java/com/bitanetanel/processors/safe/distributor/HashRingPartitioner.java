@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * Partitions keys over a consistent hash ring.
+ * Every relationship owns a fixed number of virtual nodes on a 64 bit ring, and a key belongs to the first virtual
+ * node at or after its position (wrapping around). Since the virtual nodes of a relationship don't depend on the
+ * number of relationships, adding or removing the n-th relationship moves only about 1/n of the keys.
+ * <p>
+ * The ring is kept as two sorted primitive arrays, and a lookup is a binary search over them.
+ *
+ * @author Netanel Bitan
+ */
+final class HashRingPartitioner implements Partitioner {
+
+
+    /* --- Data Members --- */
+
+    /** The sorted positions of the virtual nodes on the ring. */
+    private final long[] points;
+
+    /** The partition owning the virtual node at the same index of {@link #points}. */
+    private final int[] owners;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * Builds the ring.
+     *
+     * @param partitions The number of partitions.
+     * @param virtualNodes The number of virtual nodes of every partition.
+     */
+    HashRingPartitioner(int partitions, int virtualNodes) {
+        int size = partitions * virtualNodes;
+        long[] unsortedPoints = new long[size];
+
+        for (int partition = 0; partition < partitions; partition++) {
+            for (int node = 0; node < virtualNodes; node++) {
+                unsortedPoints[partition * virtualNodes + node] = Hashes.seed(partition, node);
+            }
+        }
+
+        Integer[] order = IntStream.range(0, size).boxed().toArray(Integer[]::new);
+        Arrays.sort(order, Comparator.<Integer>comparingLong(index -> unsortedPoints[index])
+                .thenComparingInt(index -> index));
+
+        points = new long[size];
+        owners = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            points[i] = unsortedPoints[order[i]];
+            owners[i] = order[i] / virtualNodes;
+        }
+    }
+
+
+    /* --- Partitioner Implementation --- */
+
+    @Override
+    public int partition(long hash) {
+        return owners[node(hash)];
+    }
+
+
+    /* --- Package Methods --- */
+
+    /**
+     * @param hash The hash of the key.
+     * @return The index of the first virtual node at or after the position of the key.
+     */
+    int node(long hash) {
+        int index = Arrays.binarySearch(points, Hashes.fmix64(hash));
+
+        if (index < 0) {
+            index = -index - 1;
+        }
+
+        return index == points.length ? 0 : index;
+    }
+
+    /**
+     * @param node The index of a virtual node, wrapping around the ring.
+     * @return The partition owning the virtual node.
+     */
+    int owner(int node) {
+        return owners[node % owners.length];
+    }
+
+    /**
+     * @return The number of virtual nodes on the ring.
+     */
+    int nodes() {
+        return owners.length;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import org.apache.nifi.components.AllowableValue;
+
+import java.util.Arrays;
+
+/**
+ * The versions of encoding the attribute value into the bytes that are hashed.
+ *
+ * @author Netanel Bitan
+ */
+enum HashScheme {
+
+
+    /* --- Values --- */
+
+    /** The original encoding, by the JVM's default charset. */
+    V1("1", "Hashes the attribute value encoded by the JVM's default charset, as the first versions did. " +
+            "Nodes with different default charsets may route the same value differently. Allocates on every flowfile.") {
+        @Override
+        KeyBuffer encode(String value, KeyBuffer buffer) {
+            return buffer.append(value.getBytes());
+        }
+    },
+
+    /** UTF-8 encoding into a reused buffer. */
+    V2("2", "Hashes the attribute value encoded as UTF-8, regardless of the JVM's default charset. " +
+            "Routes exactly as version 1 on JVMs whose default charset is UTF-8, and allocates nothing.") {
+        @Override
+        KeyBuffer encode(String value, KeyBuffer buffer) {
+            return buffer.appendUtf8(value);
+        }
+    };
+
+
+    /* --- Data Members --- */
+
+    /** The value shown for this scheme on the processor's properties. */
+    private final AllowableValue allowableValue;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * @param version The version of the scheme.
+     * @param description The description of the scheme.
+     */
+    HashScheme(String version, String description) {
+        allowableValue = new AllowableValue(version, version, description);
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * Appends the encoding of the given value to the buffer.
+     *
+     * @param value The attribute value.
+     * @param buffer The buffer to append to.
+     * @return The given buffer.
+     */
+    abstract KeyBuffer encode(String value, KeyBuffer buffer);
+
+    /**
+     * @return The value shown for this scheme on the processor's properties.
+     */
+    AllowableValue getAllowableValue() {
+        return allowableValue;
+    }
+
+    /**
+     * @return The values of all schemes.
+     */
+    static AllowableValue[] allowableValues() {
+        return Arrays.stream(values()).map(HashScheme::getAllowableValue).toArray(AllowableValue[]::new);
+    }
+
+    /**
+     * @param value A value of the hash scheme property.
+     * @return The matching scheme.
+     */
+    static HashScheme of(String value) {
+        return Arrays.stream(values())
+                .filter(scheme -> scheme.allowableValue.getValue().equals(value))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown hash scheme version: " + value));
+    }
+}
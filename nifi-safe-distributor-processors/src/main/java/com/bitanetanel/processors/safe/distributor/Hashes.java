@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+/**
+ * Hashing helpers shared by the partitioners.
+ *
+ * @author Netanel Bitan
+ */
+final class Hashes {
+
+
+    /* --- Constructors --- */
+
+    private Hashes() {
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * The 64 bit finalizer of MurmurHash3. A bijection that spreads every input bit over the whole result,
+     * used to turn key hashes of any width, and structured seeds, into uniform 64 bit positions.
+     *
+     * @param value The value to mix.
+     * @return The mixed value.
+     */
+    static long fmix64(long value) {
+        long mixed = value;
+        mixed ^= mixed >>> 33;
+        mixed *= 0xff51afd7ed558ccdL;
+        mixed ^= mixed >>> 33;
+        mixed *= 0xc4ceb9fe1a85ec53L;
+        mixed ^= mixed >>> 33;
+        return mixed;
+    }
+
+    /**
+     * Derives a stable 64 bit seed for a (relationship, index) pair, such as a virtual node of a relationship.
+     * The seed of a relationship never depends on the total number of relationships.
+     *
+     * @param partition The zero based partition of the relationship.
+     * @param index The index of the seed within the relationship.
+     * @return The seed.
+     */
+    static long seed(int partition, int index) {
+        return fmix64((((long) partition << 32) | (index & 0xffffffffL)) + 0x9e3779b97f4a7c15L);
+    }
+}
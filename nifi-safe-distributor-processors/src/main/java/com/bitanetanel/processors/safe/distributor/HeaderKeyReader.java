@@ -0,0 +1,388 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the key of a flowfile from the header of its content, the first bytes of it, by a {@link KeySource} that
+ * reads content. Reads at most the header size into a buffer reused by each thread, and stops as soon as the key
+ * is complete, so the content is never loaded as a whole.
+ * Thread safe.
+ *
+ * @author Netanel Bitan
+ */
+final class HeaderKeyReader {
+
+
+    /* --- Constants --- */
+
+    /** The JSON escapes of special characters, by the characters of {@link #UNESCAPED}. */
+    private static final String ESCAPED = "bfnrt";
+
+    /** The special characters of {@link #ESCAPED}. */
+    private static final String UNESCAPED = "\b\f\n\r\t";
+
+
+    /* --- Data Members --- */
+
+    /** The source of the key, one that reads content. */
+    private final KeySource source;
+
+    /** The maximal number of bytes read from the content. */
+    private final int headerSize;
+
+    /** The offset of the key in the header. */
+    private final int offset;
+
+    /** The length of the key, for {@link KeySource#HEADER_OFFSET}. */
+    private final int length;
+
+    /** The UTF-8 bytes of the delimiter that ends the key, for {@link KeySource#HEADER_DELIMITER}. */
+    private final byte[] delimiter;
+
+    /** The name of the JSON field that holds the key, for {@link KeySource#HEADER_JSON_FIELD}. */
+    private final String field;
+
+    /** A header buffer per thread, so reading keys allocates only the keys. */
+    private final ThreadLocal<byte[]> buffers;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * @param source The source of the key, one that reads content.
+     * @param headerSize The maximal number of bytes to read from the content.
+     * @param offset The offset of the key in the header.
+     * @param length The length of the key, for {@link KeySource#HEADER_OFFSET}.
+     * @param delimiter The delimiter that ends the key, for {@link KeySource#HEADER_DELIMITER}.
+     * @param field The name of the JSON field that holds the key, for {@link KeySource#HEADER_JSON_FIELD}.
+     */
+    HeaderKeyReader(KeySource source, int headerSize, int offset, int length, String delimiter, String field) {
+        this.source = source;
+        this.headerSize = source == KeySource.HEADER_OFFSET ? Math.min(headerSize, offset + length) : headerSize;
+        this.offset = offset;
+        this.length = length;
+        this.delimiter = delimiter == null ? null : delimiter.getBytes(StandardCharsets.UTF_8);
+        this.field = field;
+        this.buffers = ThreadLocal.withInitial(() -> new byte[this.headerSize]);
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * Reads the header of the content, up to the header size or until the key is complete.
+     *
+     * @param in The content.
+     * @return The key, or null if it isn't found in the header.
+     * @throws IOException If the content can't be read.
+     */
+    String read(InputStream in) throws IOException {
+        byte[] header = buffers.get();
+        int read = 0;
+        // The scan for the delimiter resumes where the previous read chunk left it, so small reads stay linear.
+        int scanned = offset;
+
+        while (read < header.length) {
+            int count = in.read(header, read, header.length - read);
+
+            if (count < 0) {
+                return extract(header, read, true);
+            }
+
+            read += count;
+
+            if (source == KeySource.HEADER_OFFSET && read >= offset + length) {
+                break;
+            }
+
+            if (source == KeySource.HEADER_DELIMITER) {
+                if (indexOfDelimiter(header, scanned, read) >= 0) {
+                    break;
+                }
+
+                scanned = Math.max(scanned, read - delimiter.length + 1);
+            }
+        }
+
+        return extract(header, read, false);
+    }
+
+    /**
+     * Extracts the key from a read header.
+     *
+     * @param header The bytes of the header.
+     * @param headerLength The number of read bytes of the header.
+     * @param whole Whether the header is the whole content. A delimited key then runs to the end of the content if no
+     * delimiter follows it.
+     * @return The key, or null if it isn't found in the header.
+     */
+    String extract(byte[] header, int headerLength, boolean whole) {
+        switch (source) {
+            case HEADER_OFFSET:
+                return offset + length <= headerLength
+                        ? new String(header, offset, length, StandardCharsets.UTF_8)
+                        : null;
+            case HEADER_DELIMITER:
+                int end = indexOfDelimiter(header, offset, headerLength);
+
+                if (end < 0 && whole && headerLength >= offset) {
+                    end = headerLength;
+                }
+
+                return end < 0 ? null : new String(header, offset, end - offset, StandardCharsets.UTF_8);
+            case HEADER_JSON_FIELD:
+                return jsonField(header, headerLength, whole);
+            default:
+                throw new IllegalStateException("Key source doesn't read content: " + source);
+        }
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * @param header The bytes of the header.
+     * @param from The index to start the scan at, at or after the offset.
+     * @param headerLength The number of read bytes of the header.
+     * @return The index of the first delimiter at or after the given index, or -1 if there is none.
+     */
+    private int indexOfDelimiter(byte[] header, int from, int headerLength) {
+        for (int index = from; index <= headerLength - delimiter.length; index++) {
+            int matched = 0;
+
+            while (matched < delimiter.length && header[index + matched] == delimiter[matched]) {
+                matched++;
+            }
+
+            if (matched == delimiter.length) {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Scans the header for the key field of the JSON object that starts at the offset. Only top level fields are
+     * matched, nested objects and arrays are skipped without building them.
+     *
+     * @param header The bytes of the header.
+     * @param headerLength The number of read bytes of the header.
+     * @param whole Whether the header is the whole content.
+     * @return The value of the field, or null if it isn't found or isn't a string, number or boolean.
+     */
+    private String jsonField(byte[] header, int headerLength, boolean whole) {
+        int index = skipWhitespace(header, offset, headerLength);
+
+        if (index == headerLength || header[index] != '{') {
+            return null;
+        }
+
+        int depth = 0;
+        boolean expectingName = false;
+
+        while (index < headerLength) {
+            byte current = header[index];
+
+            if (current == '{' || current == '[') {
+                depth++;
+                expectingName = depth == 1;
+                index++;
+            } else if (current == '}' || current == ']') {
+                if (--depth == 0) {
+                    return null;
+                }
+
+                index++;
+            } else if (current == ',') {
+                expectingName = depth == 1;
+                index++;
+            } else if (current == '"') {
+                int end = stringEnd(header, index + 1, headerLength);
+
+                if (end < 0) {
+                    return null;
+                }
+
+                if (!expectingName) {
+                    index = end + 1;
+                    continue;
+                }
+
+                expectingName = false;
+                String name = unescape(header, index + 1, end);
+                index = skipWhitespace(header, end + 1, headerLength);
+
+                if (index == headerLength || header[index] != ':') {
+                    return null;
+                }
+
+                if (name != null && name.equals(field)) {
+                    return jsonValue(header, skipWhitespace(header, index + 1, headerLength), headerLength, whole);
+                }
+
+                index++;
+            } else {
+                index++;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param header The bytes of the header.
+     * @param index The index of the first byte of the value.
+     * @param headerLength The number of read bytes of the header.
+     * @param whole Whether the header is the whole content.
+     * @return The value as a key, or null if it is cut by the header or isn't a string, number or boolean.
+     */
+    private static String jsonValue(byte[] header, int index, int headerLength, boolean whole) {
+        if (index == headerLength) {
+            return null;
+        }
+
+        if (header[index] == '"') {
+            int end = stringEnd(header, index + 1, headerLength);
+            return end < 0 ? null : unescape(header, index + 1, end);
+        }
+
+        int end = index;
+
+        while (end < headerLength && header[end] != ',' && header[end] != '}' && header[end] != ']' &&
+                !isWhitespace(header[end])) {
+            end++;
+        }
+
+        if (end == headerLength && !whole) {
+            return null;
+        }
+
+        String literal = new String(header, index, end - index, StandardCharsets.UTF_8);
+        return literal.isEmpty() || literal.equals("null") || literal.startsWith("{") || literal.startsWith("[")
+                ? null
+                : literal;
+    }
+
+    /**
+     * @param header The bytes of the header.
+     * @param index The index of the first byte after the opening quote.
+     * @param headerLength The number of read bytes of the header.
+     * @return The index of the closing quote, or -1 if the string is cut by the header.
+     */
+    private static int stringEnd(byte[] header, int index, int headerLength) {
+        while (index < headerLength) {
+            if (header[index] == '\\') {
+                index += 2;
+            } else if (header[index] == '"') {
+                return index;
+            } else {
+                index++;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param header The bytes of the header.
+     * @param start The index of the first byte of the string, after the opening quote.
+     * @param end The index of the closing quote.
+     * @return The unescaped string, or null if it has a malformed escape.
+     */
+    private static String unescape(byte[] header, int start, int end) {
+        String raw = new String(header, start, end - start, StandardCharsets.UTF_8);
+
+        if (raw.indexOf('\\') < 0) {
+            return raw;
+        }
+
+        StringBuilder unescaped = new StringBuilder(raw.length());
+
+        for (int index = 0; index < raw.length(); index++) {
+            char current = raw.charAt(index);
+
+            if (current != '\\') {
+                unescaped.append(current);
+                continue;
+            }
+
+            if (++index == raw.length()) {
+                return null;
+            }
+
+            char escaped = raw.charAt(index);
+            int special = ESCAPED.indexOf(escaped);
+
+            if (special >= 0) {
+                unescaped.append(UNESCAPED.charAt(special));
+            } else if (escaped != 'u') {
+                unescaped.append(escaped);
+            } else if (index + 4 < raw.length() && isHex(raw, index + 1, index + 5)) {
+                unescaped.append((char) Integer.parseInt(raw.substring(index + 1, index + 5), 16));
+                index += 4;
+            } else {
+                return null;
+            }
+        }
+
+        return unescaped.toString();
+    }
+
+    /**
+     * @param value A string.
+     * @param start The index of the first character to check.
+     * @param end The index after the last character to check.
+     * @return Whether the characters are all hexadecimal digits.
+     */
+    private static boolean isHex(String value, int start, int end) {
+        for (int index = start; index < end; index++) {
+            if (Character.digit(value.charAt(index), 16) < 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param header The bytes of the header.
+     * @param index The index to start at.
+     * @param headerLength The number of read bytes of the header.
+     * @return The index of the first non whitespace byte, or the header length if there is none.
+     */
+    private static int skipWhitespace(byte[] header, int index, int headerLength) {
+        while (index < headerLength && isWhitespace(header[index])) {
+            index++;
+        }
+
+        return index;
+    }
+
+    /**
+     * @param current A byte of the header.
+     * @return Whether the byte is JSON whitespace.
+     */
+    private static boolean isWhitespace(byte current) {
+        return current == ' ' || current == '\t' || current == '\n' || current == '\r';
+    }
+}
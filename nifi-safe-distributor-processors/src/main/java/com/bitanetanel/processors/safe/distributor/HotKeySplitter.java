@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Detects heavy hitter keys and spreads them over several partitions.
+ * <p>
+ * Key frequencies are estimated by a Count-Min Sketch, and the per partition loads are counted next to it. Whenever
+ * a window of flowfiles has been recorded, all counters are halved, so the estimates follow a decaying sliding window.
+ * A key whose estimated share of the traffic reaches the threshold is hot, and is routed to the less loaded of two
+ * random choices among its candidate partitions: its home partition and {@code spread - 1} other distinct partitions,
+ * the ones following it after an offset derived from its hash. Keys below the threshold always go to their home
+ * partition.
+ * <p>
+ * Counters are updated with atomic adds and halved without a lock, so concurrent tasks share the splitter and
+ * the estimates are approximate.
+ *
+ * @author Netanel Bitan
+ */
+final class HotKeySplitter {
+
+
+    /* --- Constants --- */
+
+    /** Marks a route of a hot key that was split. */
+    static final int SPLIT = Integer.MIN_VALUE;
+
+    /** The number of rows of the sketch. */
+    private static final int DEPTH = 4;
+
+    /** The number of counters of every row of the sketch, a power of two. */
+    private static final int WIDTH = 2048;
+
+
+    /* --- Data Members --- */
+
+    /** The sketch counters, {@link #WIDTH} counters per row. */
+    private final AtomicIntegerArray sketch = new AtomicIntegerArray(DEPTH * WIDTH);
+
+    /** The number of flowfiles routed to every partition in the window. */
+    private final AtomicLongArray loads;
+
+    /** The number of keys recorded in the window. */
+    private final AtomicLong total = new AtomicLong();
+
+    /** Set while a thread halves the counters. */
+    private final AtomicBoolean decaying = new AtomicBoolean();
+
+    /** The share of the traffic from which a key is hot. */
+    private final double threshold;
+
+    /** The number of partitions a hot key is spread over. */
+    private final int spread;
+
+    /** The number of recorded keys after which the counters are halved. */
+    private final long window;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * @param partitions The number of partitions.
+     * @param threshold The share of the traffic, in (0, 1), from which a key is hot.
+     * @param spread The number of partitions to spread a hot key over. Capped by the number of partitions.
+     * @param window The number of recorded keys after which the counters are halved.
+     */
+    HotKeySplitter(int partitions, double threshold, int spread, long window) {
+        this.loads = new AtomicLongArray(partitions);
+        this.threshold = threshold;
+        this.spread = Math.min(spread, partitions);
+        this.window = window;
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * Records a key and chooses its partition.
+     *
+     * @param key The attribute value.
+     * @param home The partition the key is routed to when it isn't hot.
+     * @return The home partition for a key below the threshold, otherwise the chosen partition marked by
+     * {@link #SPLIT}.
+     */
+    int route(String key, int home) {
+        int route = peek(key, home);
+        record(key, route);
+        return route;
+    }
+
+    /**
+     * Chooses the partition of a key without recording it.
+     *
+     * @param key The attribute value.
+     * @param home The partition the key is routed to when it isn't hot.
+     * @return The home partition for a key below the threshold, otherwise the chosen partition marked by
+     * {@link #SPLIT}.
+     */
+    int peek(String key, int home) {
+        long hash = Hashes.fmix64(key.hashCode());
+        long recorded = total.get() + 1;
+
+        if (spread < 2 || estimate(hash) + 1 < threshold * Math.max(recorded, window / 2)) {
+            return home;
+        }
+
+        int first = candidate(hash, home, ThreadLocalRandom.current().nextInt(spread));
+        int second = candidate(hash, home, ThreadLocalRandom.current().nextInt(spread));
+        return (loads.get(second) < loads.get(first) ? second : first) | SPLIT;
+    }
+
+    /**
+     * Records a key on the route {@link #peek(String, int)} chose for it.
+     *
+     * @param key The attribute value.
+     * @param route The route of the key.
+     */
+    void record(String key, int route) {
+        increment(Hashes.fmix64(key.hashCode()));
+        long recorded = total.incrementAndGet();
+        loads.getAndIncrement(route & ~SPLIT);
+
+        if (recorded >= window) {
+            decay();
+        }
+    }
+
+    /**
+     * @return The number of partitions a hot key is spread over.
+     */
+    int getSpread() {
+        return spread;
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * @param hash The mixed hash of the key.
+     * @return The estimated number of occurrences of the key in the window.
+     */
+    private int estimate(long hash) {
+        int estimate = Integer.MAX_VALUE;
+
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, sketch.get(counter(hash, row)));
+        }
+
+        return estimate;
+    }
+
+    /**
+     * Increments the sketch counters of a key.
+     *
+     * @param hash The mixed hash of the key.
+     */
+    private void increment(long hash) {
+        for (int row = 0; row < DEPTH; row++) {
+            sketch.getAndIncrement(counter(hash, row));
+        }
+    }
+
+    /**
+     * @param hash The mixed hash of the key.
+     * @param row A row of the sketch.
+     * @return The index of the key's counter in the row.
+     */
+    private static int counter(long hash, int row) {
+        return row * WIDTH + (((int) hash + row * (int) (hash >>> 32)) & (WIDTH - 1));
+    }
+
+    /**
+     * @param hash The mixed hash of the key.
+     * @param home The home partition of the key.
+     * @param index The index of the candidate, 0 for the home partition, lower than {@link #spread}.
+     * @return The candidate partition, distinct from the home partition and from the other candidates.
+     */
+    private int candidate(long hash, int home, int index) {
+        if (index == 0) {
+            return home;
+        }
+
+        int others = loads.length() - 1;
+        int offset = (int) Math.floorMod(Hashes.fmix64(hash), (long) others);
+        return (home + 1 + (offset + index - 1) % others) % loads.length();
+    }
+
+    /**
+     * Halves all counters, unless another thread is already doing so.
+     */
+    private void decay() {
+        if (!decaying.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            for (int i = 0; i < sketch.length(); i++) {
+                sketch.set(i, sketch.get(i) >>> 1);
+            }
+
+            for (int i = 0; i < loads.length(); i++) {
+                loads.set(i, loads.get(i) >>> 1);
+            }
+
+            total.set(total.get() >>> 1);
+        } finally {
+            decaying.set(false);
+        }
+    }
+}
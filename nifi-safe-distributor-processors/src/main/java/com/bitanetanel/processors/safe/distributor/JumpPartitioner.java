@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+/**
+ * Partitions keys by Lamping and Veach's Jump Consistent Hash.
+ * Needs no memory besides the number of partitions and computes a partition in O(ln n) arithmetic steps.
+ * When the number of partitions grows by one, only 1/n of the keys move, all of them to the new partition.
+ *
+ * @see <a href="https://arxiv.org/abs/1406.2294">A Fast, Minimal Memory, Consistent Hash Algorithm</a>
+ * @author Netanel Bitan
+ */
+final class JumpPartitioner implements Partitioner {
+
+
+    /* --- Constants --- */
+
+    /** The multiplier of the linear congruential generator of the algorithm. */
+    private static final long MULTIPLIER = 2862933555777941757L;
+
+    /** 2^31, the scale of a jump. */
+    private static final double JUMP_SCALE = (double) (1L << 31);
+
+
+    /* --- Data Members --- */
+
+    /** The number of partitions. */
+    private final int partitions;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * @param partitions The number of partitions.
+     */
+    JumpPartitioner(int partitions) {
+        this.partitions = partitions;
+    }
+
+
+    /* --- Partitioner Implementation --- */
+
+    @Override
+    public int partition(long hash) {
+        long key = hash;
+        long bucket = -1;
+        long jump = 0;
+
+        while (jump < partitions) {
+            bucket = jump;
+            key = key * MULTIPLIER + 1;
+            jump = (long) ((bucket + 1) * (JUMP_SCALE / (double) ((key >>> 33) + 1)));
+        }
+
+        return (int) bucket;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+/**
+ * Partitions keys as Kafka's default partitioner partitions keyed records: the hash masked to a positive int,
+ * modulo the number of partitions. Fed by {@link HashFunction#KAFKA_MURMUR2} over the UTF-8 key, partition k holds
+ * exactly the keys Kafka writes to partition k of a topic with the same number of partitions.
+ *
+ * @author Netanel Bitan
+ */
+final class KafkaPartitioner implements Partitioner {
+
+
+    /* --- Data Members --- */
+
+    /** The number of partitions. */
+    private final int partitions;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * @param partitions The number of partitions.
+     */
+    KafkaPartitioner(int partitions) {
+        this.partitions = partitions;
+    }
+
+
+    /* --- Partitioner Implementation --- */
+
+    @Override
+    public int partition(long hash) {
+        return ((int) hash & 0x7fffffff) % partitions;
+    }
+}
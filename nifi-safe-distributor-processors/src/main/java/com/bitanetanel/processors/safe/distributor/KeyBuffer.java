@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import java.util.Arrays;
+
+/**
+ * A reusable buffer holding the encoded bytes of a flowfile's key.
+ * Encodes characters to UTF-8 by itself, producing the same bytes as {@code String.getBytes(UTF_8)} without
+ * allocating, so a buffer kept per thread makes hashing keys allocation free.
+ * Not thread safe.
+ *
+ * @author Netanel Bitan
+ */
+final class KeyBuffer {
+
+
+    /* --- Constants --- */
+
+    /** The initial capacity of the buffer, enough for most keys. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** The byte encoded in place of a malformed surrogate, as done by the JDK's UTF-8 encoder. */
+    private static final byte REPLACEMENT = '?';
+
+
+    /* --- Data Members --- */
+
+    /** The encoded bytes. Only the first {@link #length} bytes are valid. */
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+
+    /** The number of encoded bytes. */
+    private int length;
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * Empties the buffer.
+     *
+     * @return This buffer.
+     */
+    KeyBuffer clear() {
+        length = 0;
+        return this;
+    }
+
+    /**
+     * Appends the UTF-8 encoding of the given characters.
+     *
+     * @param chars The characters to encode.
+     * @return This buffer.
+     */
+    KeyBuffer appendUtf8(CharSequence chars) {
+        int charsLength = chars.length();
+        ensureCapacity(length + charsLength * 3);
+
+        for (int i = 0; i < charsLength; i++) {
+            char c = chars.charAt(i);
+
+            if (c < 0x80) {
+                bytes[length++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[length++] = (byte) (0xc0 | (c >>> 6));
+                bytes[length++] = (byte) (0x80 | (c & 0x3f));
+            } else if (!Character.isSurrogate(c)) {
+                bytes[length++] = (byte) (0xe0 | (c >>> 12));
+                bytes[length++] = (byte) (0x80 | ((c >>> 6) & 0x3f));
+                bytes[length++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < charsLength
+                    && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                bytes[length++] = (byte) (0xf0 | (codePoint >>> 18));
+                bytes[length++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3f));
+                bytes[length++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3f));
+                bytes[length++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else {
+                bytes[length++] = REPLACEMENT;
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Appends the given bytes.
+     *
+     * @param source The bytes to append.
+     * @return This buffer.
+     */
+    KeyBuffer append(byte[] source) {
+        ensureCapacity(length + source.length);
+        System.arraycopy(source, 0, bytes, length, source.length);
+        length += source.length;
+        return this;
+    }
+
+    /**
+     * @return The buffer's array. Only the first {@link #length()} bytes are valid.
+     */
+    byte[] bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The number of encoded bytes.
+     */
+    int length() {
+        return length;
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * Grows the buffer to hold at least the given number of bytes.
+     *
+     * @param capacity The needed capacity.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+        }
+    }
+}
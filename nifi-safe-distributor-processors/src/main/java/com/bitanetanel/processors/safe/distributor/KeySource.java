@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import org.apache.nifi.components.AllowableValue;
+
+import java.util.Arrays;
+
+/**
+ * The sources of the key that routes a flowfile: attributes, an expression, or the first bytes of the flowfile's
+ * content.
+ *
+ * @author Netanel Bitan
+ */
+enum KeySource {
+
+
+    /* --- Values --- */
+
+    /** The value of the key attribute, or the values of the key attributes as separate fields. */
+    ATTRIBUTE("Attribute", "The value of the attribute named by the attribute name property. When the key " +
+            "attributes property is set, the values of its attributes are hashed one after the other as the fields " +
+            "of a composite key."),
+
+    /** The value of the key expression. */
+    EXPRESSION("Expression", "The value the key expression evaluates to against the flowfile."),
+
+    /** A fixed range of bytes of the content header. */
+    HEADER_OFFSET("Content header offset", "The UTF-8 decoded bytes of the content at the header key offset, " +
+            "of the header key length. Reads only the bytes up to the end of the key."),
+
+    /** The bytes of the content header up to a delimiter. */
+    HEADER_DELIMITER("Content header delimiter", "The UTF-8 decoded bytes of the content from the header key " +
+            "offset up to the first header key delimiter. The delimiter must be found within the header size, " +
+            "unless the whole content is shorter and the key runs to its end."),
+
+    /** A field of a JSON object at the start of the content. */
+    HEADER_JSON_FIELD("Content header JSON field", "The value of a top level field of the JSON object the content " +
+            "starts with. The field is found by a streaming scan of the header, without parsing the whole content. " +
+            "String, number and boolean values are keys, other values aren't.");
+
+
+    /* --- Data Members --- */
+
+    /** The value shown for this source on the processor's properties. */
+    private final AllowableValue allowableValue;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * @param displayName The name of the source.
+     * @param description The description of the source.
+     */
+    KeySource(String displayName, String description) {
+        allowableValue = new AllowableValue(displayName, displayName, description);
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * @return Whether the key is read from the content.
+     */
+    boolean readsContent() {
+        return this != ATTRIBUTE && this != EXPRESSION;
+    }
+
+    /**
+     * @return The value shown for this source on the processor's properties.
+     */
+    AllowableValue getAllowableValue() {
+        return allowableValue;
+    }
+
+    /**
+     * @return The values of all sources.
+     */
+    static AllowableValue[] allowableValues() {
+        return Arrays.stream(values()).map(KeySource::getAllowableValue).toArray(AllowableValue[]::new);
+    }
+
+    /**
+     * @param value A value of the key source property.
+     * @return The matching source.
+     */
+    static KeySource of(String value) {
+        return Arrays.stream(values())
+                .filter(source -> source.allowableValue.getValue().equals(value))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown key source: " + value));
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live statistics of the keys a {@link SafeDistributor} routes to every numbered relationship: the routed
+ * flowfiles, an estimate of the distinct keys by {@link HyperLogLog} and the heaviest keys by {@link SpaceSaving}.
+ * Collected since the last {@link #drain()}, so a hot relationship can be told apart as one of many keys or of one
+ * giant key. Keys recorded during a drain may be counted in the next one.
+ * Thread safe.
+ *
+ * @author Netanel Bitan
+ */
+final class KeyStatistics {
+
+
+    /* --- Constants --- */
+
+    /** The precision of the distinct key estimates, 1024 registers for an error of about 3%. */
+    private static final int PRECISION = 10;
+
+    /** The number of keys counted per heavy key reported, so the reported keys are counted accurately. */
+    private static final int COUNTERS_PER_TOP_KEY = 4;
+
+
+    /* --- Inner Classes --- */
+
+    /**
+     * The statistics of a single numbered relationship.
+     */
+    static final class RelationshipStatistics {
+
+        /** The number of the relationship. */
+        private final int relationship;
+
+        /** The number of flowfiles routed to the relationship. */
+        private final long routed;
+
+        /** The estimated number of distinct keys routed to the relationship. */
+        private final long distinctKeys;
+
+        /** The heaviest keys routed to the relationship with their estimated counts, heaviest first. */
+        private final List<Map.Entry<String, Long>> topKeys;
+
+        /**
+         * @param relationship The number of the relationship.
+         * @param routed The number of flowfiles routed to the relationship.
+         * @param distinctKeys The estimated number of distinct keys routed to the relationship.
+         * @param topKeys The heaviest keys routed to the relationship with their estimated counts, heaviest first.
+         */
+        private RelationshipStatistics(int relationship, long routed, long distinctKeys,
+                                       List<Map.Entry<String, Long>> topKeys) {
+            this.relationship = relationship;
+            this.routed = routed;
+            this.distinctKeys = distinctKeys;
+            this.topKeys = topKeys;
+        }
+
+        /**
+         * @return The number of the relationship.
+         */
+        int getRelationship() {
+            return relationship;
+        }
+
+        /**
+         * @return The number of flowfiles routed to the relationship.
+         */
+        long getRouted() {
+            return routed;
+        }
+
+        /**
+         * @return The estimated number of distinct keys routed to the relationship.
+         */
+        long getDistinctKeys() {
+            return distinctKeys;
+        }
+
+        /**
+         * @return The heaviest keys routed to the relationship with their estimated counts, heaviest first.
+         */
+        List<Map.Entry<String, Long>> getTopKeys() {
+            return topKeys;
+        }
+    }
+
+
+    /* --- Data Members --- */
+
+    /** The flowfiles routed to every partition. */
+    private final LongAdder[] routed;
+
+    /** The distinct keys routed to every partition. */
+    private final HyperLogLog[] distinctKeys;
+
+    /** The heaviest keys routed to every partition. */
+    private final SpaceSaving[] heavyKeys;
+
+    /** The number of heavy keys reported per partition. */
+    private final int topKeys;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * @param partitions The number of numbered relationships.
+     * @param topKeys The number of heavy keys reported per relationship.
+     */
+    KeyStatistics(int partitions, int topKeys) {
+        this.routed = new LongAdder[partitions];
+        this.distinctKeys = new HyperLogLog[partitions];
+        this.heavyKeys = new SpaceSaving[partitions];
+        this.topKeys = topKeys;
+
+        for (int partition = 0; partition < partitions; partition++) {
+            routed[partition] = new LongAdder();
+            distinctKeys[partition] = new HyperLogLog(PRECISION);
+            heavyKeys[partition] = new SpaceSaving(topKeys * COUNTERS_PER_TOP_KEY);
+        }
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * @param partition The partition a flowfile was routed to.
+     * @param key The key of the flowfile.
+     * @param buffer The buffer to encode the key into, to hash its UTF-8 bytes.
+     */
+    void record(int partition, String key, KeyBuffer buffer) {
+        buffer.clear().appendUtf8(key);
+        routed[partition].increment();
+        distinctKeys[partition].add(XxHash64.hash(buffer.bytes(), buffer.length()));
+        heavyKeys[partition].offer(key);
+    }
+
+    /**
+     * Returns the statistics collected since the last drain and starts collecting anew.
+     *
+     * @return The statistics of every numbered relationship, by relationship number.
+     */
+    List<RelationshipStatistics> drain() {
+        ImmutableList.Builder<RelationshipStatistics> statistics = ImmutableList.builder();
+
+        for (int partition = 0; partition < routed.length; partition++) {
+            long distinct = distinctKeys[partition].estimate();
+            distinctKeys[partition].reset();
+            statistics.add(new RelationshipStatistics(partition + 1, routed[partition].sumThenReset(), distinct,
+                    heavyKeys[partition].drain(topKeys)));
+        }
+
+        return statistics.build();
+    }
+}
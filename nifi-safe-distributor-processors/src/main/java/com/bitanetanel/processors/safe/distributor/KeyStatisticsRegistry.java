@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The key statistics of the running {@link SafeDistributor}s, by processor identifier, read by
+ * {@link SafeDistributorStatisticsReporter}. Static, so the reporting task reaches the processors of its NAR, which
+ * share the NAR's class loader.
+ * Thread safe.
+ *
+ * @author Netanel Bitan
+ */
+final class KeyStatisticsRegistry {
+
+
+    /* --- Data Members --- */
+
+    /** The statistics of every running distributor that collects them, by processor identifier. */
+    private static final Map<String, KeyStatistics> STATISTICS = new ConcurrentHashMap<>();
+
+
+    /* --- Constructors --- */
+
+    private KeyStatisticsRegistry() {
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * @param processorId The identifier of a scheduled distributor.
+     * @param statistics The statistics the distributor collects, replacing those of its previous schedule.
+     */
+    static void register(String processorId, KeyStatistics statistics) {
+        STATISTICS.put(processorId, statistics);
+    }
+
+    /**
+     * @param processorId The identifier of a stopped distributor, or of one that no longer collects statistics.
+     */
+    static void unregister(String processorId) {
+        STATISTICS.remove(processorId);
+    }
+
+    /**
+     * @return The statistics of every running distributor that collects them, by processor identifier.
+     */
+    static Map<String, KeyStatistics> registered() {
+        return ImmutableMap.copyOf(STATISTICS);
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of a stream into a reused buffer, keeping their bytes exactly as they are, line terminators
+ * included, so a line can be written out again unchanged. A line ends after the '\n' byte, or at the end of the
+ * stream, so the content must be in a character set that encodes ASCII as is.
+ * Lines are bounded by a maximal length, so content without line terminators isn't read whole into the heap, and can
+ * be decoded into a reused character buffer. Not thread safe.
+ *
+ * @author Netanel Bitan
+ */
+final class LineReader {
+
+
+    /* --- Constants --- */
+
+    /** The initial capacity of the line buffer, enough for most lines. */
+    private static final int INITIAL_LINE_CAPACITY = 256;
+
+
+    /* --- Data Members --- */
+
+    /** The stream to read the lines of. */
+    private final InputStream in;
+
+    /** The bytes read from the stream and not yet returned as a line. */
+    private final byte[] buffer;
+
+    /** The position of the next unread byte in the {@link #buffer}. */
+    private int position;
+
+    /** The number of valid bytes in the {@link #buffer}. */
+    private int limit;
+
+    /** The bytes of the current line. Only the first {@link #length} bytes are valid. */
+    private byte[] line = new byte[INITIAL_LINE_CAPACITY];
+
+    /** The number of bytes of the current line, its terminator included. */
+    private int length;
+
+    /** The maximal number of bytes of a line, its terminator included. */
+    private final int maxLineLength;
+
+    /** Wraps {@link #line} for decoding. Rewrapped whenever the line buffer grows. */
+    private ByteBuffer lineBytes = ByteBuffer.wrap(line);
+
+    /** The characters of the current line, decoded by {@link #decode(CharsetDecoder)}. */
+    private CharBuffer chars = CharBuffer.allocate(INITIAL_LINE_CAPACITY);
+
+
+    /* --- Constructors --- */
+
+    /**
+     * @param in            The stream to read the lines of.
+     * @param bufferSize    The number of bytes to read from the stream at once.
+     * @param maxLineLength The maximal number of bytes of a line, its terminator included.
+     */
+    LineReader(InputStream in, int bufferSize, int maxLineLength) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+        this.maxLineLength = maxLineLength;
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * Reads the next line into the line buffer, replacing the current one.
+     *
+     * @return Whether a line was read, false at the end of the stream.
+     * @throws IOException If the stream can't be read, or the line is longer than the maximal line length.
+     */
+    boolean next() throws IOException {
+        length = 0;
+
+        while (true) {
+            if (position == limit) {
+                limit = in.read(buffer);
+                position = 0;
+
+                if (limit <= 0) {
+                    limit = 0;
+                    return length > 0;
+                }
+            }
+
+            int start = position;
+
+            while (position < limit && buffer[position] != '\n') {
+                position++;
+            }
+
+            boolean terminated = position < limit;
+
+            if (terminated) {
+                position++;
+            }
+
+            append(start, position - start);
+
+            if (terminated) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return The bytes of the current line. Only the first {@link #length()} bytes are valid.
+     */
+    byte[] bytes() {
+        return line;
+    }
+
+    /**
+     * @return The number of bytes of the current line, its terminator included.
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * @return The number of bytes of the current line without its '\n' or "\r\n" terminator.
+     */
+    int contentLength() {
+        int contentLength = length;
+
+        if (contentLength > 0 && line[contentLength - 1] == '\n') {
+            contentLength--;
+
+            if (contentLength > 0 && line[contentLength - 1] == '\r') {
+                contentLength--;
+            }
+        }
+
+        return contentLength;
+    }
+
+    /**
+     * Decodes the current line, without its terminator, into a reused character buffer.
+     *
+     * @param decoder The decoder of the content's character set.
+     * @return The characters of the line, valid until the next call.
+     */
+    CharBuffer decode(CharsetDecoder decoder) {
+        int contentLength = contentLength();
+        int capacity = (int) Math.ceil(contentLength * (double) decoder.maxCharsPerByte());
+
+        if (chars.capacity() < capacity) {
+            chars = CharBuffer.allocate(Math.max(capacity, chars.capacity() * 2));
+        }
+
+        if (lineBytes.array() != line) {
+            lineBytes = ByteBuffer.wrap(line);
+        }
+
+        lineBytes.clear();
+        lineBytes.limit(contentLength);
+        chars.clear();
+        decoder.reset();
+        decoder.decode(lineBytes, chars, true);
+        decoder.flush(chars);
+        chars.flip();
+        return chars;
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * Appends bytes of the {@link #buffer} to the current line, growing the line buffer if needed.
+     *
+     * @param offset The offset of the bytes in the buffer.
+     * @param count  The number of bytes to append.
+     * @throws IOException If the line gets longer than the maximal line length.
+     */
+    private void append(int offset, int count) throws IOException {
+        if (length + count > maxLineLength) {
+            throw new IOException(String.format("A line is longer than the maximal line length of %d bytes",
+                    maxLineLength));
+        }
+
+        if (length + count > line.length) {
+            line = Arrays.copyOf(line, (int) Math.min(Math.max(line.length * 2L, length + count), maxLineLength));
+        }
+
+        System.arraycopy(buffer, offset, line, length, count);
+        length += count;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import java.util.Arrays;
+
+/**
+ * Partitions keys by Maglev hashing.
+ * Every partition walks its own permutation of a prime sized lookup table, and the partitions take turns claiming
+ * their next free entry until the table is full. This gives every partition an almost equal number of entries, and a
+ * lookup is a single array read. Changing the number of partitions moves only a small share of the entries.
+ *
+ * @see <a href="https://research.google/pubs/pub44824/">Maglev: A Fast and Reliable Software Network Load Balancer</a>
+ * @author Netanel Bitan
+ */
+final class MaglevPartitioner implements Partitioner {
+
+
+    /* --- Data Members --- */
+
+    /** The partition of every entry of the lookup table. */
+    private final int[] lookupTable;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * Populates the lookup table.
+     *
+     * @param partitions The number of partitions.
+     * @param tableSize The prime size of the lookup table, no smaller than the number of partitions.
+     */
+    MaglevPartitioner(int partitions, int tableSize) {
+        if (tableSize < partitions) {
+            throw new IllegalArgumentException(String.format(
+                    "Lookup table size %d is smaller than the %d partitions.", tableSize, partitions));
+        }
+
+        lookupTable = new int[tableSize];
+        Arrays.fill(lookupTable, -1);
+
+        long[] positions = new long[partitions];
+        long[] skips = new long[partitions];
+
+        for (int partition = 0; partition < partitions; partition++) {
+            positions[partition] = Math.floorMod(Hashes.seed(partition, 0), (long) tableSize);
+            skips[partition] = Math.floorMod(Hashes.seed(partition, 1), (long) tableSize - 1) + 1;
+        }
+
+        int filled = 0;
+
+        while (true) {
+            for (int partition = 0; partition < partitions; partition++) {
+                while (lookupTable[(int) positions[partition]] >= 0) {
+                    positions[partition] = (positions[partition] + skips[partition]) % tableSize;
+                }
+
+                lookupTable[(int) positions[partition]] = partition;
+                positions[partition] = (positions[partition] + skips[partition]) % tableSize;
+
+                if (++filled == tableSize) {
+                    return;
+                }
+            }
+        }
+    }
+
+
+    /* --- Partitioner Implementation --- */
+
+    @Override
+    public int partition(long hash) {
+        return lookupTable[(int) Math.floorMod(Hashes.fmix64(hash), (long) lookupTable.length)];
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Maps;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.components.state.StateManager;
+import org.apache.nifi.components.state.StateMap;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Drains the keys whose partition changed when the routing changed, such as on a change of the relationships number.
+ * <p>
+ * A moved key keeps going to its partition of the previous routing while flowfiles of it may still be in flight on
+ * that path, and switches to its new partition once it hasn't been seen for the idle time - its earlier flowfiles have
+ * had time to drain - or once the grace period passed since it was first seen draining. Keys not seen yet are idle
+ * since the migration started. Keys whose previous partition no longer exists switch immediately.
+ * <p>
+ * Only the moved keys seen draining are remembered, and they are evicted once they switch, at most an idle time after
+ * they may. No key starts draining after the first idle time, so the migration is over once the remembered keys are
+ * evicted, and at the latest after the idle time and the grace period. Safe for use by concurrent tasks.
+ * <p>
+ * Every change of the routing starts a new epoch, counted in the processor's cluster state, so consumers can tell the
+ * flowfiles routed before and after the handover apart.
+ *
+ * @author Netanel Bitan
+ */
+final class Migration {
+
+
+    /* --- Constants --- */
+
+    /** Marks a route to the previous partition of a moved key. Partitions are lower than this bit. */
+    static final int DRAINING = 1 << 30;
+
+    /** The state key of the routing epoch. */
+    static final String EPOCH_STATE_KEY = "routing.epoch";
+
+    /** The state key of the fingerprint of the routing properties of the epoch. */
+    static final String FINGERPRINT_STATE_KEY = "routing.fingerprint";
+
+    /** The number of times to retry storing the epoch when another node changed the state concurrently. */
+    private static final int STORE_ATTEMPTS = 10;
+
+
+    /* --- Data Members --- */
+
+    /** The previous routing. */
+    private final DistributionTable source;
+
+    /** The routing epoch of the previous routing. */
+    private final long sourceEpoch;
+
+    /** Reads the time, in nanoseconds. */
+    private final Ticker ticker;
+
+    /** The number of partitions of the new routing. */
+    private final int partitions;
+
+    /** The time the migration started at, by {@link #ticker}. */
+    private final long start;
+
+    /** The time a moved key must be unseen for to switch, in nanoseconds. */
+    private final long idleNanos;
+
+    /** The time after which a key switches even if it kept being seen, in nanoseconds since it was first seen. */
+    private final long graceNanos;
+
+    /** The first and last times every draining key was routed to its previous partition. */
+    private final ConcurrentMap<String, long[]> sightings = new ConcurrentHashMap<>();
+
+    /** The last time switched keys were evicted from the {@link #sightings}, by {@link #ticker}. */
+    private volatile long lastEviction;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * Starts a migration now.
+     *
+     * @param source The previous routing.
+     * @param sourceEpoch The routing epoch of the previous routing.
+     * @param partitions The number of partitions of the new routing.
+     * @param idleNanos The time a moved key must be unseen for to switch, in nanoseconds.
+     * @param graceNanos The time after which a key switches since it was first seen draining, in nanoseconds.
+     */
+    Migration(DistributionTable source, long sourceEpoch, int partitions, long idleNanos, long graceNanos) {
+        this(source, sourceEpoch, partitions, idleNanos, graceNanos, Ticker.systemTicker());
+    }
+
+    /**
+     * Starts a migration now, by the given ticker.
+     *
+     * @param source The previous routing.
+     * @param sourceEpoch The routing epoch of the previous routing.
+     * @param partitions The number of partitions of the new routing.
+     * @param idleNanos The time a moved key must be unseen for to switch, in nanoseconds.
+     * @param graceNanos The time after which a key switches since it was first seen draining, in nanoseconds.
+     * @param ticker Reads the time, in nanoseconds.
+     */
+    Migration(DistributionTable source, long sourceEpoch, int partitions, long idleNanos, long graceNanos,
+              Ticker ticker) {
+        this.source = source;
+        this.sourceEpoch = sourceEpoch;
+        this.ticker = ticker;
+        this.partitions = partitions;
+        this.start = ticker.read();
+        this.lastEviction = start;
+        this.idleNanos = idleNanos;
+        this.graceNanos = graceNanos;
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * @param key The attribute value.
+     * @param partition The partition of the key by the new routing.
+     * @param buffer The buffer to encode the key into for the previous routing.
+     * @return The new partition if the key may switch, otherwise its previous partition marked by {@link #DRAINING}.
+     */
+    int route(String key, int partition, KeyBuffer buffer) {
+        int route = peek(key, partition, buffer);
+        record(key, route);
+        return route;
+    }
+
+    /**
+     * Routes a key without recording it as seen.
+     *
+     * @param key The attribute value.
+     * @param partition The partition of the key by the new routing.
+     * @param buffer The buffer to encode the key into for the previous routing.
+     * @return The new partition if the key may switch, otherwise its previous partition marked by {@link #DRAINING}.
+     */
+    int peek(String key, int partition, KeyBuffer buffer) {
+        long now = ticker.read();
+
+        if (now - start >= idleNanos + graceNanos) {
+            return partition;
+        }
+
+        int previous = source.peek(key, buffer);
+
+        if (previous == partition || previous >= partitions) {
+            return partition;
+        }
+
+        long[] seen = sightings.get(key);
+        return (seen == null ? now - start >= idleNanos : isSwitched(seen, now)) ? partition : previous | DRAINING;
+    }
+
+    /**
+     * Records a key on the route {@link #peek(String, int, KeyBuffer)} returned for it: a draining key is seen now,
+     * first seen now too if it wasn't seen before, and a key that switched is forgotten.
+     *
+     * @param key The attribute value.
+     * @param route The route of the key.
+     */
+    void record(String key, int route) {
+        if ((route & DRAINING) != 0) {
+            long now = ticker.read();
+            sightings.compute(key, (draining, seen) -> new long[]{seen == null ? now : seen[0], now});
+        } else {
+            sightings.remove(key);
+        }
+    }
+
+    /**
+     * @return The routing epoch of the previous routing, which the draining keys are still routed by.
+     */
+    long getSourceEpoch() {
+        return sourceEpoch;
+    }
+
+    /**
+     * Evicts the remembered keys that switched, once per idle time.
+     *
+     * @return Whether no key drains anymore, nor can start draining.
+     */
+    boolean isOver() {
+        long now = ticker.read();
+
+        if (now - start >= idleNanos + graceNanos) {
+            return true;
+        }
+
+        if (now - lastEviction >= idleNanos) {
+            lastEviction = now;
+            sightings.values().removeIf(seen -> isSwitched(seen, now));
+        }
+
+        return now - start >= idleNanos && sightings.isEmpty();
+    }
+
+    /**
+     * Reads the routing epoch from the cluster state, starting a new epoch if the routing properties changed since
+     * the epoch was stored.
+     *
+     * @param stateManager The processor's state manager.
+     * @param fingerprint The fingerprint of the current routing properties.
+     * @return The current epoch, 1 for the first routing.
+     * @throws IOException If the state can't be read or written, or kept changing concurrently.
+     */
+    static long epoch(StateManager stateManager, String fingerprint) throws IOException {
+        for (int attempt = 0; attempt < STORE_ATTEMPTS; attempt++) {
+            StateMap state = stateManager.getState(Scope.CLUSTER);
+
+            if (state.get(EPOCH_STATE_KEY) != null && fingerprint.equals(state.get(FINGERPRINT_STATE_KEY))) {
+                return Long.parseLong(state.get(EPOCH_STATE_KEY));
+            }
+
+            Map<String, String> newState = Maps.newHashMap(state.toMap());
+            long epoch = advance(state, newState, fingerprint);
+
+            if (stateManager.replace(state, newState, Scope.CLUSTER)) {
+                return epoch;
+            }
+        }
+
+        throw new IOException("The routing epoch kept changing concurrently");
+    }
+
+    /**
+     * Starts a new routing epoch in a new cluster state, for changes of the routing stored along with other state.
+     *
+     * @param state The current cluster state.
+     * @param newState The cluster state to replace it with, to put the new epoch in.
+     * @param fingerprint The fingerprint of the new routing.
+     * @return The new epoch.
+     */
+    static long advance(StateMap state, Map<String, String> newState, String fingerprint) {
+        String storedEpoch = state.get(EPOCH_STATE_KEY);
+        long epoch = (storedEpoch == null ? 0 : Long.parseLong(storedEpoch)) + 1;
+        newState.put(EPOCH_STATE_KEY, String.valueOf(epoch));
+        newState.put(FINGERPRINT_STATE_KEY, fingerprint);
+        return epoch;
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * @param seen The first and last times a draining key was seen.
+     * @param now The current time, by {@link #ticker}.
+     * @return Whether the key wasn't seen for the idle time, or the grace period passed since it was first seen.
+     */
+    private boolean isSwitched(long[] seen, long now) {
+        return now - seen[1] >= idleNanos || now - seen[0] >= graceNanos;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+/**
+ * Partitions keys by the floor modulo of their hash.
+ * Cheap and perfectly balanced for uniform hashes, but changing the relationships number remaps almost every key.
+ *
+ * @author Netanel Bitan
+ */
+final class ModuloPartitioner implements Partitioner {
+
+
+    /* --- Data Members --- */
+
+    /** The number of partitions. */
+    private final long partitions;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * @param partitions The number of partitions.
+     */
+    ModuloPartitioner(int partitions) {
+        this.partitions = partitions;
+    }
+
+
+    /* --- Partitioner Implementation --- */
+
+    @Override
+    public int partition(long hash) {
+        return (int) Math.floorMod(hash, partitions);
+    }
+}
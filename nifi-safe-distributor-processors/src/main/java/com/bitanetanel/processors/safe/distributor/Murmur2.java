@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+/**
+ * 32 bit MurmurHash2 exactly as Kafka's {@code org.apache.kafka.common.utils.Utils.murmur2}, the hash of Kafka's
+ * default partitioner.
+ *
+ * @author Netanel Bitan
+ */
+final class Murmur2 {
+
+
+    /* --- Constants --- */
+
+    /** The seed Kafka uses. */
+    private static final int SEED = 0x9747b28c;
+
+    /** The mixing multiplier. */
+    private static final int M = 0x5bd1e995;
+
+    /** The mixing shift. */
+    private static final int R = 24;
+
+
+    /* --- Constructors --- */
+
+    private Murmur2() {
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * @param bytes The bytes to hash.
+     * @param length The number of bytes to hash, from the start of the array.
+     * @return The Kafka compatible 32 bit MurmurHash2 of the bytes.
+     */
+    static int hash(byte[] bytes, int length) {
+        int hash = SEED ^ length;
+        int blocksEnd = length & ~3;
+
+        for (int i = 0; i < blocksEnd; i += 4) {
+            int k = Bytes.intLittleEndian(bytes, i);
+            k *= M;
+            k ^= k >>> R;
+            k *= M;
+            hash *= M;
+            hash ^= k;
+        }
+
+        switch (length & 3) {
+            case 3:
+                hash ^= (bytes[blocksEnd + 2] & 0xff) << 16;
+            case 2:
+                hash ^= (bytes[blocksEnd + 1] & 0xff) << 8;
+            case 1:
+                hash ^= bytes[blocksEnd] & 0xff;
+                hash *= M;
+            default:
+        }
+
+        hash ^= hash >>> 13;
+        hash *= M;
+        hash ^= hash >>> 15;
+        return hash;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+/**
+ * Allocation free MurmurHash3 with a zero seed, giving the same values as Guava's {@code murmur3_32().hashBytes} and
+ * {@code murmur3_128().hashBytes(...).asLong()}.
+ *
+ * @author Netanel Bitan
+ */
+final class Murmur3 {
+
+
+    /* --- Constants --- */
+
+    /** The first multiplier of the 32 bit variant. */
+    private static final int C1_32 = 0xcc9e2d51;
+
+    /** The second multiplier of the 32 bit variant. */
+    private static final int C2_32 = 0x1b873593;
+
+    /** The first multiplier of the 128 bit variant. */
+    private static final long C1_128 = 0x87c37b91114253d5L;
+
+    /** The second multiplier of the 128 bit variant. */
+    private static final long C2_128 = 0x4cf5ad432745937fL;
+
+
+    /* --- Constructors --- */
+
+    private Murmur3() {
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * @param bytes The bytes to hash.
+     * @param length The number of bytes to hash, from the start of the array.
+     * @return The 32 bit MurmurHash3 (x86 variant) of the bytes.
+     */
+    static int hash32(byte[] bytes, int length) {
+        int h1 = 0;
+        int blocksEnd = length & ~3;
+
+        for (int i = 0; i < blocksEnd; i += 4) {
+            h1 ^= mixK1(Bytes.intLittleEndian(bytes, i));
+            h1 = Integer.rotateLeft(h1, 13);
+            h1 = h1 * 5 + 0xe6546b64;
+        }
+
+        int k1 = 0;
+
+        switch (length & 3) {
+            case 3:
+                k1 ^= (bytes[blocksEnd + 2] & 0xff) << 16;
+            case 2:
+                k1 ^= (bytes[blocksEnd + 1] & 0xff) << 8;
+            case 1:
+                k1 ^= bytes[blocksEnd] & 0xff;
+                h1 ^= mixK1(k1);
+            default:
+        }
+
+        h1 ^= length;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+        return h1;
+    }
+
+    /**
+     * @param bytes The bytes to hash.
+     * @param length The number of bytes to hash, from the start of the array.
+     * @return The first 64 bits of the 128 bit MurmurHash3 (x64 variant) of the bytes.
+     */
+    static long hash128(byte[] bytes, int length) {
+        long h1 = 0;
+        long h2 = 0;
+        int blocksEnd = length & ~15;
+
+        for (int i = 0; i < blocksEnd; i += 16) {
+            h1 ^= mixK1(Bytes.longLittleEndian(bytes, i));
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(Bytes.longLittleEndian(bytes, i + 8));
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+
+        switch (length & 15) {
+            case 15:
+                k2 ^= (long) (bytes[blocksEnd + 14] & 0xff) << 48;
+            case 14:
+                k2 ^= (long) (bytes[blocksEnd + 13] & 0xff) << 40;
+            case 13:
+                k2 ^= (long) (bytes[blocksEnd + 12] & 0xff) << 32;
+            case 12:
+                k2 ^= (long) (bytes[blocksEnd + 11] & 0xff) << 24;
+            case 11:
+                k2 ^= (long) (bytes[blocksEnd + 10] & 0xff) << 16;
+            case 10:
+                k2 ^= (long) (bytes[blocksEnd + 9] & 0xff) << 8;
+            case 9:
+                k2 ^= bytes[blocksEnd + 8] & 0xff;
+                h2 ^= mixK2(k2);
+            case 8:
+                k1 ^= (long) (bytes[blocksEnd + 7] & 0xff) << 56;
+            case 7:
+                k1 ^= (long) (bytes[blocksEnd + 6] & 0xff) << 48;
+            case 6:
+                k1 ^= (long) (bytes[blocksEnd + 5] & 0xff) << 40;
+            case 5:
+                k1 ^= (long) (bytes[blocksEnd + 4] & 0xff) << 32;
+            case 4:
+                k1 ^= (long) (bytes[blocksEnd + 3] & 0xff) << 24;
+            case 3:
+                k1 ^= (long) (bytes[blocksEnd + 2] & 0xff) << 16;
+            case 2:
+                k1 ^= (long) (bytes[blocksEnd + 1] & 0xff) << 8;
+            case 1:
+                k1 ^= bytes[blocksEnd] & 0xff;
+                h1 ^= mixK1(k1);
+            default:
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = Hashes.fmix64(h1);
+        h2 = Hashes.fmix64(h2);
+        return h1 + h2;
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * @param k1 A block of the 32 bit variant.
+     * @return The mixed block.
+     */
+    private static int mixK1(int k1) {
+        return Integer.rotateLeft(k1 * C1_32, 15) * C2_32;
+    }
+
+    /**
+     * @param k1 The first half of a block of the 128 bit variant.
+     * @return The mixed half block.
+     */
+    private static long mixK1(long k1) {
+        return Long.rotateLeft(k1 * C1_128, 31) * C2_128;
+    }
+
+    /**
+     * @param k2 The second half of a block of the 128 bit variant.
+     * @return The mixed half block.
+     */
+    private static long mixK2(long k2) {
+        return Long.rotateLeft(k2 * C2_128, 33) * C1_128;
+    }
+}
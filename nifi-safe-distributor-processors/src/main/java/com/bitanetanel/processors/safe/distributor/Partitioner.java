@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+/**
+ * Maps a key hash to one of the numbered relationships of a {@link DistributionTable}.
+ * Implementations are built once per schedule and must be safe for use by concurrent tasks.
+ *
+ * @author Netanel Bitan
+ */
+interface Partitioner {
+
+    /**
+     * @param hash The hash of the flowfile's key.
+     * @return The zero based partition of the key, lower than the number of relationships.
+     */
+    int partition(long hash);
+
+    /**
+     * Partitions a key hash without placing the key, for partitioners whose choice depends on the keys they placed.
+     * Such partitioners place the key only once {@link #place(int)} is called with the returned partition.
+     *
+     * @param hash The hash of the flowfile's key.
+     * @return The zero based partition the key would be placed on now.
+     */
+    default int peek(long hash) {
+        return partition(hash);
+    }
+
+    /**
+     * Places a key on the partition {@link #peek(long)} returned for it. Does nothing by default.
+     *
+     * @param partition The partition of the key.
+     */
+    default void place(int partition) {
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+/**
+ * Partitions keys by weighted rendezvous (highest random weight) hashing.
+ * Every partition scores the key by {@code -weight / ln(u)}, where {@code u} is a uniform value derived from the key
+ * hash and the partition's seed, and the key belongs to the partition with the highest score.
+ * Each partition receives a share of the keys proportional to its weight, and changing the weight of a single
+ * partition moves keys only to or from that partition.
+ * <p>
+ * A lookup scores every partition, so it costs O(n) but allocates nothing.
+ *
+ * @see <a href="https://doi.org/10.1007/978-3-662-48971-0_42">Weighted Distributed Hash Tables</a>
+ * @author Netanel Bitan
+ */
+final class RendezvousPartitioner implements Partitioner {
+
+
+    /* --- Constants --- */
+
+    /** 2^-53, scales the top 53 bits of a long to a double in [0, 1). */
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+
+    /* --- Data Members --- */
+
+    /** The seed of every partition. */
+    private final long[] seeds;
+
+    /** The weight of every partition. */
+    private final double[] weights;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * @param weights The positive weight of every partition.
+     */
+    RendezvousPartitioner(double[] weights) {
+        this.weights = weights.clone();
+        this.seeds = new long[weights.length];
+
+        for (int partition = 0; partition < weights.length; partition++) {
+            seeds[partition] = Hashes.seed(partition, 0);
+        }
+    }
+
+
+    /* --- Partitioner Implementation --- */
+
+    @Override
+    public int partition(long hash) {
+        int best = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+
+        for (int partition = 0; partition < seeds.length; partition++) {
+            double uniform = ((Hashes.fmix64(hash ^ seeds[partition]) >>> 11) + 0.5) * DOUBLE_UNIT;
+            double score = -weights[partition] / Math.log(uniform);
+
+            if (score > bestScore) {
+                best = partition;
+                bestScore = score;
+            }
+        }
+
+        return best;
+    }
+}
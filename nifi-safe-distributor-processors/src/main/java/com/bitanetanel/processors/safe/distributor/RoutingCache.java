@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded cache from attribute values to their partitions, for skewed traffic where a few hot keys produce most of
+ * the flowfiles.
+ * <p>
+ * The cache is set associative: a key may only live in one of at most {@link #WAYS} slots of the set its hash
+ * selects, and every set evicts by CLOCK (second chance). New entries start unreferenced, so keys seen once are
+ * evicted before keys that were hit. Entries are immutable and slots are replaced atomically, so concurrent tasks share the cache
+ * without locks, and a racing insert can at worst replace another fresh entry.
+ *
+ * @author Netanel Bitan
+ */
+final class RoutingCache {
+
+
+    /* --- Constants --- */
+
+    /** The number of slots of every set, unless the cache is smaller. */
+    private static final int WAYS = 4;
+
+    /** The partition returned for a key that isn't cached. */
+    static final int MISS = -1;
+
+
+    /* --- Inner Classes --- */
+
+    /**
+     * An immutable cached key.
+     */
+    private static final class Entry {
+
+        /** The attribute value. */
+        private final String key;
+
+        /** The spread hash code of {@link #key}. */
+        private final int hash;
+
+        /** The partition of {@link #key}. */
+        private final int partition;
+
+        /**
+         * @param key The attribute value.
+         * @param hash The spread hash code of the attribute value.
+         * @param partition The partition of the attribute value.
+         */
+        private Entry(String key, int hash, int partition) {
+            this.key = key;
+            this.hash = hash;
+            this.partition = partition;
+        }
+    }
+
+
+    /* --- Data Members --- */
+
+    /** The slots, {@link #ways} consecutive slots per set. */
+    private final AtomicReferenceArray<Entry> entries;
+
+    /** The CLOCK reference bit of every slot. */
+    private final AtomicIntegerArray referenced;
+
+    /** The number of slots of every set. */
+    private final int ways;
+
+    /** Masks a hash into a set index. */
+    private final int setMask;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * @param maxEntries The maximum number of cached keys. Rounded down to a power of two sets, so the cache never
+     *                   holds more keys than this.
+     */
+    RoutingCache(int maxEntries) {
+        ways = Math.max(1, Math.min(WAYS, maxEntries));
+        int sets = Integer.highestOneBit(Math.max(1, maxEntries / ways));
+        entries = new AtomicReferenceArray<>(sets * ways);
+        referenced = new AtomicIntegerArray(sets * ways);
+        setMask = sets - 1;
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * @param key The attribute value.
+     * @return The cached partition of the value, or {@link #MISS} if it isn't cached.
+     */
+    int get(String key) {
+        int hash = spread(key.hashCode());
+        int base = (hash & setMask) * ways;
+
+        for (int slot = base; slot < base + ways; slot++) {
+            Entry entry = entries.get(slot);
+
+            if (entry != null && entry.hash == hash && entry.key.equals(key)) {
+                if (referenced.get(slot) == 0) {
+                    referenced.lazySet(slot, 1);
+                }
+
+                return entry.partition;
+            }
+        }
+
+        return MISS;
+    }
+
+    /**
+     * Caches the partition of a value, evicting the first unreferenced entry of its set.
+     *
+     * @param key The attribute value.
+     * @param partition The partition of the value.
+     */
+    void put(String key, int partition) {
+        int hash = spread(key.hashCode());
+        int base = (hash & setMask) * ways;
+        int victim = base;
+
+        for (int slot = base; slot < base + ways; slot++) {
+            if (entries.get(slot) == null || referenced.get(slot) == 0) {
+                victim = slot;
+                break;
+            }
+
+            referenced.lazySet(slot, 0);
+        }
+
+        referenced.lazySet(victim, 0);
+        entries.set(victim, new Entry(key, hash, partition));
+    }
+
+    /**
+     * @return The number of slots of the cache.
+     */
+    int capacity() {
+        return entries.length();
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * Spreads the higher bits of a hash code to the lower bits that select the set.
+     *
+     * @param hashCode The hash code of a key.
+     * @return The spread hash.
+     */
+    private static int spread(int hashCode) {
+        int hash = hashCode * 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+}
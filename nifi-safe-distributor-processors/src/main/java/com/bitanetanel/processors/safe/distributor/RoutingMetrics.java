@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.Relationship;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes how the flowfiles are spread over the numbered relationships as NiFi counters: the flowfiles and bytes
+ * routed to every relationship, and the skew of the relationships over a tumbling window of routed flowfiles, as the
+ * max/mean load ratio and the coefficient of variation of the loads, in per mille.
+ * <p>
+ * Counters are adjusted once per batch and relationship, never per flowfile. The window loads are kept in striped
+ * {@link LongAdder}s, so concurrent tasks add to them without contention, and the task that completes a window
+ * publishes its skew. Loads added while a window is rolled may be counted in the next window, so the skew is
+ * approximate.
+ * Thread safe.
+ *
+ * @author Netanel Bitan
+ */
+final class RoutingMetrics {
+
+
+    /* --- Constants --- */
+
+    /** The scale of the published skew values. */
+    private static final int PER_MILLE = 1000;
+
+
+    /* --- Data Members --- */
+
+    /** The partition of every numbered relationship. */
+    private final Map<Relationship, Integer> partitions;
+
+    /** The name of the routed flowfiles counter of every partition. */
+    private final String[] flowFilesCounters;
+
+    /** The name of the routed bytes counter of every partition. */
+    private final String[] bytesCounters;
+
+    /** The flowfiles routed to every partition in the current window. */
+    private final LongAdder[] windowLoads;
+
+    /** The flowfiles routed in the current window. */
+    private final LongAdder windowFlowFiles = new LongAdder();
+
+    /** The number of flowfiles of a window. */
+    private final long window;
+
+    /** Whether a task is rolling the window, so only one task publishes its skew. */
+    private final AtomicBoolean rolling = new AtomicBoolean();
+
+    /** The max/mean ratio currently shown by its counter, shared by all metrics of the processor. */
+    private final AtomicLong publishedMaxToMean;
+
+    /** The coefficient of variation currently shown by its counter, shared by all metrics of the processor. */
+    private final AtomicLong publishedVariation;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * @param table The table whose relationships are measured.
+     * @param window The number of flowfiles the skew is measured over.
+     * @param publishedMaxToMean The max/mean ratio currently shown by its counter, kept across schedules.
+     * @param publishedVariation The coefficient of variation currently shown by its counter, kept across schedules.
+     */
+    RoutingMetrics(DistributionTable table, long window, AtomicLong publishedMaxToMean,
+                   AtomicLong publishedVariation) {
+        ImmutableMap.Builder<Relationship, Integer> builder = ImmutableMap.builder();
+        flowFilesCounters = new String[table.size()];
+        bytesCounters = new String[table.size()];
+        windowLoads = new LongAdder[table.size()];
+
+        for (int partition = 0; partition < table.size(); partition++) {
+            Relationship destination = table.destination(partition);
+            builder.put(destination, partition);
+            flowFilesCounters[partition] = SafeDistributor.ROUTED_FLOW_FILES_COUNTER + destination.getName();
+            bytesCounters[partition] = SafeDistributor.ROUTED_BYTES_COUNTER + destination.getName();
+            windowLoads[partition] = new LongAdder();
+        }
+
+        this.partitions = builder.build();
+        this.window = window;
+        this.publishedMaxToMean = publishedMaxToMean;
+        this.publishedVariation = publishedVariation;
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * Counts a routed batch, and publishes the skew if the batch completes a window.
+     *
+     * @param processSession The session the batch is transferred by.
+     * @param destinations The flowfiles of the batch, by their numbered relationship.
+     */
+    void flush(ProcessSession processSession, Map<Relationship, List<FlowFile>> destinations) {
+        long routed = 0;
+
+        for (Map.Entry<Relationship, List<FlowFile>> destination : destinations.entrySet()) {
+            int partition = partitions.get(destination.getKey());
+            List<FlowFile> batch = destination.getValue();
+            long bytes = 0;
+
+            for (int index = 0; index < batch.size(); index++) {
+                bytes += batch.get(index).getSize();
+            }
+
+            processSession.adjustCounter(flowFilesCounters[partition], batch.size(), false);
+            processSession.adjustCounter(bytesCounters[partition], bytes, false);
+            windowLoads[partition].add(batch.size());
+            routed += batch.size();
+        }
+
+        windowFlowFiles.add(routed);
+
+        if (windowFlowFiles.sum() >= window && rolling.compareAndSet(false, true)) {
+            try {
+                rollWindow(processSession);
+            } finally {
+                rolling.set(false);
+            }
+        }
+    }
+
+    /**
+     * @param loads The flowfiles routed to every partition.
+     * @return The ratio of the highest load to the mean load, or 0 if nothing was routed.
+     */
+    static double maxToMean(long[] loads) {
+        long max = 0;
+        long total = 0;
+
+        for (long load : loads) {
+            max = Math.max(max, load);
+            total += load;
+        }
+
+        return total == 0 ? 0 : (double) max * loads.length / total;
+    }
+
+    /**
+     * @param loads The flowfiles routed to every partition.
+     * @return The standard deviation of the loads divided by their mean, or 0 if nothing was routed.
+     */
+    static double coefficientOfVariation(long[] loads) {
+        double mean = 0;
+
+        for (long load : loads) {
+            mean += load;
+        }
+
+        mean /= loads.length;
+
+        if (mean == 0) {
+            return 0;
+        }
+
+        double variance = 0;
+
+        for (long load : loads) {
+            variance += (load - mean) * (load - mean);
+        }
+
+        return Math.sqrt(variance / loads.length) / mean;
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * Publishes the skew of the completed window and starts a new one.
+     *
+     * @param processSession The session of the task that completed the window.
+     */
+    private void rollWindow(ProcessSession processSession) {
+        long[] loads = new long[windowLoads.length];
+
+        for (int partition = 0; partition < loads.length; partition++) {
+            loads[partition] = windowLoads[partition].sumThenReset();
+        }
+
+        windowFlowFiles.reset();
+        publish(processSession, SafeDistributor.SKEW_MAX_TO_MEAN_COUNTER, publishedMaxToMean, maxToMean(loads));
+        publish(processSession, SafeDistributor.SKEW_VARIATION_COUNTER, publishedVariation,
+                coefficientOfVariation(loads));
+    }
+
+    /**
+     * Sets a counter to a value, by adjusting it immediately with the difference from its current value.
+     *
+     * @param processSession The current session.
+     * @param counter The name of the counter.
+     * @param published The value the counter currently shows.
+     * @param value The new value, published in per mille.
+     */
+    private static void publish(ProcessSession processSession, String counter, AtomicLong published, double value) {
+        long perMille = Math.round(value * PER_MILLE);
+        processSession.adjustCounter(counter, perMille - published.getAndSet(perMille), true);
+    }
+}
@@ -17,29 +17,72 @@
 
 package com.bitanetanel.processors.safe.distributor;
 
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
-import com.google.common.hash.Hashing;
-import org.apache.nifi.annotation.behavior.SideEffectFree;
+import org.apache.nifi.annotation.behavior.DynamicProperties;
+import org.apache.nifi.annotation.behavior.DynamicProperty;
+import org.apache.nifi.annotation.behavior.Stateful;
+import org.apache.nifi.annotation.behavior.TriggerWhenAnyDestinationAvailable;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.PropertyValue;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.components.Validator;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.expression.AttributeExpression;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.logging.ComponentLog;
 import org.apache.nifi.processor.*;
+import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.IntStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * @author Netanel Bitan
  */
-@SideEffectFree
+@TriggerWhenAnyDestinationAvailable
 @Tags({"distributor", "distribute"})
+@WritesAttributes({
+        @WritesAttribute(attribute = SafeDistributor.SPLIT_ATTRIBUTE, description = "Set on flowfiles of a hot key " +
+                "that were spread over several relationships, to the number of relationships the key is spread over."),
+        @WritesAttribute(attribute = SafeDistributor.EPOCH_ATTRIBUTE, description = "The routing epoch the " +
+                "flowfile was routed by, when the migration idle time is set. Flowfiles of a moved key that are " +
+                "still draining to its previous relationship carry the epoch of that previous routing."),
+        @WritesAttribute(attribute = SafeDistributor.PARTITION_ATTRIBUTE, description = "The zero based partition " +
+                "the flowfile was routed to, its relationship number minus one, when the migration idle time is set.")
+})
+@DynamicProperties({
+        @DynamicProperty(name = "weight.<relationship number>", value = "A positive number",
+                description = "The weight of a numbered relationship for the weighted rendezvous hash strategy. " +
+                        "Relationships without a weight property get a weight of 1."),
+        @DynamicProperty(name = "slots.<relationship number>", value = "Slots and slot ranges, like '0-99,512'",
+                description = "Moves slots to a numbered relationship for the slot table strategy. The move is " +
+                        "stored in the slot table and stays after the property is removed.")
+})
+@Stateful(scopes = Scope.CLUSTER, description = "The slot table strategy stores the relationship of every slot, " +
+        "so the table survives restarts and is shared by all nodes of the cluster. When the migration idle time is " +
+        "set, the routing epoch is stored too.")
 @CapabilityDescription("Safely distribute flowfiles between the out relationships. Flowfiles with the same" +
         "value in a selected attribute will always distribute to the same relationship.")
 public class SafeDistributor extends AbstractProcessor {
@@ -53,13 +96,126 @@ public class SafeDistributor extends AbstractProcessor {
     /** The desired attribute that we want to be based on for our safeness. */
     protected static final PropertyDescriptor ATTRIBUTE_NAME = new PropertyDescriptor.Builder()
             .name("Attribute name")
-            .required(true)
+            .description("The attribute that holds the key. Required when the key source is the attribute, unless " +
+                    "key attributes are set.")
+            .required(false)
             .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
             .build();
 
+    /** The attributes whose values are the fields of a composite key. */
+    protected static final PropertyDescriptor KEY_ATTRIBUTES = new PropertyDescriptor.Builder()
+            .name("Key attributes")
+            .description("A comma separated list of attributes whose values are the fields of a composite key, " +
+                    "like 'tenant,deviceId', for the attribute key source. Used instead of the attribute name " +
+                    "when set.")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+
+    /* --- Attributes --- */
+
+    /** Marks flowfiles of a hot key that were spread over several relationships. */
+    protected static final String SPLIT_ATTRIBUTE = "safe.distributor.split";
+
+    /** The routing epoch a flowfile was routed by. */
+    protected static final String EPOCH_ATTRIBUTE = "safe.distributor.epoch";
+
+    /** The zero based partition a flowfile was routed to. */
+    protected static final String PARTITION_ATTRIBUTE = "safe.distributor.partition";
+
 
     /* --- Properties --- */
 
+    /** Validates that a share is a number in [0, 1). */
+    private static final Validator SHARE_VALIDATOR = (subject, input, context) -> {
+        boolean valid;
+
+        try {
+            double share = Double.parseDouble(input);
+            valid = share >= 0 && share < 1;
+        } catch (NumberFormatException | NullPointerException e) {
+            valid = false;
+        }
+
+        return new ValidationResult.Builder().subject(subject).input(input).valid(valid)
+                .explanation("must be a number between 0 and 1").build();
+    };
+
+    /** Validates that a number is a prime. */
+    private static final Validator PRIME_VALIDATOR = (subject, input, context) -> {
+        boolean valid;
+
+        try {
+            valid = BigInteger.valueOf(Integer.parseInt(input)).isProbablePrime(32);
+        } catch (NumberFormatException e) {
+            valid = false;
+        }
+
+        return new ValidationResult.Builder().subject(subject).input(input).valid(valid)
+                .explanation("must be a prime number").build();
+    };
+
+    /** The prefix of the dynamic properties that set the weight of a numbered relationship. */
+    protected static final String WEIGHT_PROPERTY_PREFIX = "weight.";
+
+    /** Matches the names of the weight dynamic properties, capturing the relationship number. */
+    private static final Pattern WEIGHT_PROPERTY_PATTERN =
+            Pattern.compile(Pattern.quote(WEIGHT_PROPERTY_PREFIX) + "([1-9]\\d*)");
+
+    /** The prefix of the dynamic properties that move slots to a numbered relationship. */
+    protected static final String SLOTS_PROPERTY_PREFIX = "slots.";
+
+    /** Matches the names of the slots dynamic properties, capturing the relationship number. */
+    private static final Pattern SLOTS_PROPERTY_PATTERN =
+            Pattern.compile(Pattern.quote(SLOTS_PROPERTY_PREFIX) + "([1-9]\\d*)");
+
+    /** Validates that slot ranges are well formed and inside the slot space. */
+    private static final Validator SLOTS_VALIDATOR = (subject, input, context) -> {
+        boolean valid;
+
+        try {
+            SlotPartitioner.parseRanges(input);
+            valid = true;
+        } catch (IllegalArgumentException | NullPointerException e) {
+            valid = false;
+        }
+
+        return new ValidationResult.Builder().subject(subject).input(input).valid(valid)
+                .explanation("must be comma separated slots and slot ranges, like '0-99,512', of slots lower than " +
+                        SlotPartitioner.SLOTS).build();
+    };
+
+    /** Validates that a relationship weight is a finite positive number. */
+    private static final Validator WEIGHT_VALIDATOR = (subject, input, context) -> {
+        boolean valid;
+
+        try {
+            double weight = Double.parseDouble(input);
+            valid = weight > 0 && !Double.isInfinite(weight);
+        } catch (NumberFormatException | NullPointerException e) {
+            valid = false;
+        }
+
+        return new ValidationResult.Builder().subject(subject).input(input).valid(valid)
+                .explanation("a relationship weight must be a positive number").build();
+    };
+
+    /** Validates that a load bound is a finite number greater than 1. */
+    private static final Validator LOAD_BOUND_VALIDATOR = (subject, input, context) -> {
+        boolean valid;
+
+        try {
+            double loadBound = Double.parseDouble(input);
+            valid = loadBound > 1 && !Double.isInfinite(loadBound);
+        } catch (NumberFormatException | NullPointerException e) {
+            valid = false;
+        }
+
+        return new ValidationResult.Builder().subject(subject).input(input).valid(valid)
+                .explanation("must be a number greater than 1").build();
+    };
+
     /** The number of output relationships that we want to route to. */
     protected static final PropertyDescriptor RELATIONSHIPS_NUMBER = new PropertyDescriptor.Builder()
             .name("Relationships number")
@@ -68,14 +224,386 @@ public class SafeDistributor extends AbstractProcessor {
             .addValidator(StandardValidators.NUMBER_VALIDATOR)
             .build();
 
+    /** The maximum number of flowfiles that are pulled and distributed on a single trigger. */
+    protected static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("Batch size")
+            .description("The maximum number of flowfiles to distribute on a single trigger. Flowfiles are transferred " +
+                    "grouped by their destination, and flowfiles with the same destination keep their relative order.")
+            .required(true)
+            .defaultValue("100")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    /** An Expression Language expression that evaluates to the key of a flowfile. */
+    protected static final PropertyDescriptor KEY_EXPRESSION = new PropertyDescriptor.Builder()
+            .name("Key expression")
+            .description("An expression evaluated against every flowfile to its key, like '${tenant}-${device}', " +
+                    "for the expression key source. Flowfiles it evaluates to an empty key for are transferred to " +
+                    "failure.")
+            .required(false)
+            .expressionLanguageSupported(true)
+            .addValidator(StandardValidators.createAttributeExpressionLanguageValidator(
+                    AttributeExpression.ResultType.STRING))
+            .build();
+
+    /** Where the key of a flowfile is read from. */
+    protected static final PropertyDescriptor KEY_SOURCE = new PropertyDescriptor.Builder()
+            .name("Key source")
+            .description("Where the key of a flowfile is read from: the key attributes, the key expression, or " +
+                    "the header of the content. Content header keys read at most the header size of every " +
+                    "flowfile, and can't pull only the flowfiles whose relationship has room, since a key can't be " +
+                    "read before its flowfile is pulled.")
+            .required(true)
+            .allowableValues(KeySource.allowableValues())
+            .defaultValue(KeySource.ATTRIBUTE.getAllowableValue().getValue())
+            .build();
+
+    /** The maximal number of bytes read from the content to find the key. */
+    protected static final PropertyDescriptor HEADER_SIZE = new PropertyDescriptor.Builder()
+            .name("Header size")
+            .description("The maximal number of bytes read from the start of the content to find the key in. " +
+                    "Flowfiles whose key isn't found within the header are transferred to failure. A buffer of this " +
+                    "size is kept by each thread, so it is limited to 1 MB.")
+            .required(true)
+            .defaultValue("1 KB")
+            .addValidator(StandardValidators.createDataSizeBoundsValidator(1, 1024 * 1024))
+            .build();
+
+    /** The offset of the key in the content header. */
+    protected static final PropertyDescriptor HEADER_KEY_OFFSET = new PropertyDescriptor.Builder()
+            .name("Header key offset")
+            .description("The byte offset in the content where the key, its delimited field or its JSON object " +
+                    "starts.")
+            .required(true)
+            .defaultValue("0")
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    /** The length of the key in the content header. */
+    protected static final PropertyDescriptor HEADER_KEY_LENGTH = new PropertyDescriptor.Builder()
+            .name("Header key length")
+            .description("The number of bytes of the key, for the content header offset key source.")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    /** The delimiter that ends the key in the content header. */
+    protected static final PropertyDescriptor HEADER_KEY_DELIMITER = new PropertyDescriptor.Builder()
+            .name("Header key delimiter")
+            .description("The string that ends the key, for the content header delimiter key source. Content " +
+                    "shorter than the header size that has no delimiter after the offset is keyed by the rest of " +
+                    "the content, like a last line without a line terminator.")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    /** The JSON field that holds the key in the content header. */
+    protected static final PropertyDescriptor HEADER_KEY_JSON_FIELD = new PropertyDescriptor.Builder()
+            .name("Header key JSON field")
+            .description("The name of the top level field that holds the key, for the content header JSON field " +
+                    "key source.")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    /** The maximal load of a relationship, as a multiple of the average load, for the bounded loads strategy. */
+    protected static final PropertyDescriptor LOAD_BOUND = new PropertyDescriptor.Builder()
+            .name("Load bound")
+            .description("The maximal share of a relationship, as a multiple of the average share, over the load " +
+                    "window. Keys whose relationship is full spill to the next relationship on the ring. " +
+                    "Lower bounds balance better but move more keys off their relationship. " +
+                    "Used only by the consistent hash with bounded loads strategy.")
+            .required(true)
+            .defaultValue("1.25")
+            .addValidator(LOAD_BOUND_VALIDATOR)
+            .build();
+
+    /** The number of flowfiles of the decaying window over which the bounded loads strategy counts the loads. */
+    protected static final PropertyDescriptor LOAD_WINDOW = new PropertyDescriptor.Builder()
+            .name("Load window")
+            .description("The number of flowfiles after which the counted relationship loads are halved, making a " +
+                    "decaying sliding window. Used only by the consistent hash with bounded loads strategy.")
+            .required(true)
+            .defaultValue("10000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+
+    /** The strategy that maps the hash of the attribute value to a numbered relationship. */
+    protected static final PropertyDescriptor DISTRIBUTION_STRATEGY = new PropertyDescriptor.Builder()
+            .name("Distribution strategy")
+            .description("The strategy that maps the hash of the attribute value to a numbered relationship.")
+            .required(true)
+            .allowableValues(DistributionStrategy.allowableValues())
+            .defaultValue(DistributionStrategy.MODULO.getAllowableValue().getValue())
+            .build();
+
+    /** The number of virtual nodes of every relationship on the consistent hash ring. */
+    protected static final PropertyDescriptor VIRTUAL_NODES = new PropertyDescriptor.Builder()
+            .name("Virtual nodes")
+            .description("The number of virtual nodes of every relationship on the consistent hash ring. " +
+                    "More virtual nodes give a better balance at the cost of a larger ring. " +
+                    "Used only by the consistent hash ring strategies.")
+            .required(true)
+            .defaultValue("100")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+
+    /** The prime size of the Maglev lookup table. */
+    protected static final PropertyDescriptor LOOKUP_TABLE_SIZE = new PropertyDescriptor.Builder()
+            .name("Lookup table size")
+            .description("The size of the Maglev lookup table. Must be a prime number no smaller than the " +
+                    "relationships number, and should be much larger than it for a good balance. " +
+                    "Used only by the Maglev strategy.")
+            .required(true)
+            .defaultValue("65537")
+            .addValidator(PRIME_VALIDATOR)
+            .build();
+
+
+    /** The version of encoding the attribute value into the hashed bytes. */
+    protected static final PropertyDescriptor HASH_SCHEME = new PropertyDescriptor.Builder()
+            .name("Hash scheme version")
+            .description("The version of encoding the attribute value into the hashed bytes. Version 1 uses the " +
+                    "JVM's default charset, version 2 always uses UTF-8 and allocates nothing. Both route the same " +
+                    "on JVMs whose default charset is UTF-8.")
+            .required(true)
+            .allowableValues(HashScheme.allowableValues())
+            .defaultValue(HashScheme.V2.getAllowableValue().getValue())
+            .build();
+
+
+    /** The function that hashes the encoded attribute value. */
+    protected static final PropertyDescriptor HASH_FUNCTION = new PropertyDescriptor.Builder()
+            .name("Hash function")
+            .description("The function that hashes the encoded attribute value. Changing the function remaps the keys.")
+            .required(true)
+            .allowableValues(HashFunction.allowableValues())
+            .defaultValue(HashFunction.STRATEGY_DEFAULT.getValue())
+            .build();
+
+
+    /** The maximum number of attribute values to cache the destinations of. */
+    protected static final PropertyDescriptor ROUTING_CACHE_SIZE = new PropertyDescriptor.Builder()
+            .name("Routing cache size")
+            .description("The maximum number of attribute values to cache the destinations of, or 0 to disable the " +
+                    "cache. Worth enabling for skewed traffic where a few values produce most of the flowfiles, " +
+                    "mainly with strategies that cost more than a hash, such as the weighted rendezvous hash. " +
+                    "The cache is emptied whenever the processor is scheduled. The cache is sized to a power of two " +
+                    "sets of up to 4 values, so it may hold as few as half of the configured values, but never more.")
+            .required(true)
+            .defaultValue("0")
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+
+    /** The share of the traffic from which a key is hot and spread over several relationships. */
+    protected static final PropertyDescriptor HOT_KEY_SHARE = new PropertyDescriptor.Builder()
+            .name("Hot key share")
+            .description("The share of the traffic, between 0 and 1, from which a key is hot and spread over " +
+                    "several relationships, or 0 to always keep every key on its relationship. Flowfiles of hot keys " +
+                    "lose the key affinity and are marked by the '" + SPLIT_ATTRIBUTE + "' attribute.")
+            .required(true)
+            .defaultValue("0")
+            .addValidator(SHARE_VALIDATOR)
+            .build();
+
+    /** The number of relationships a hot key is spread over. */
+    protected static final PropertyDescriptor HOT_KEY_SPREAD = new PropertyDescriptor.Builder()
+            .name("Hot key spread")
+            .description("The number of relationships a hot key is spread over. Every flowfile of the key goes to " +
+                    "the less loaded of two random choices among them. Used only when the hot key share is set.")
+            .required(true)
+            .defaultValue("2")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    /** The number of flowfiles of the sliding window over which key frequencies are estimated. */
+    protected static final PropertyDescriptor HOT_KEY_WINDOW = new PropertyDescriptor.Builder()
+            .name("Hot key window")
+            .description("The number of flowfiles after which the estimated key frequencies and relationship loads " +
+                    "are halved, making a decaying sliding window. Used only when the hot key share is set.")
+            .required(true)
+            .defaultValue("100000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    /** The number of routed flowfiles the skew of the relationships is measured over. */
+    protected static final PropertyDescriptor SKEW_WINDOW = new PropertyDescriptor.Builder()
+            .name("Skew window")
+            .description("The number of routed flowfiles over which the skew of the relationships is measured and " +
+                    "published, as the max/mean load ratio and the coefficient of variation of the loads, in the " +
+                    "'Routing skew' counters. The flowfiles and bytes routed to every relationship are counted as " +
+                    "well. 0 disables all these counters.")
+            .required(true)
+            .defaultValue("100000")
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    /** Whether to collect the key statistics of the relationships for the statistics reporting task. */
+    protected static final PropertyDescriptor KEY_STATISTICS = new PropertyDescriptor.Builder()
+            .name("Key statistics")
+            .description("Whether to collect, for every relationship, the routed flowfiles, an estimate of the " +
+                    "distinct keys and the heaviest keys, reported by the SafeDistributorStatisticsReporter " +
+                    "reporting task. Costs a lock per flowfile, shared by the tasks routing to the same relationship.")
+            .required(true)
+            .allowableValues("true", "false")
+            .defaultValue("false")
+            .build();
+
+    /** The number of heaviest keys reported per relationship. */
+    protected static final PropertyDescriptor TOP_KEYS = new PropertyDescriptor.Builder()
+            .name("Top keys")
+            .description("The number of heaviest keys reported per relationship, at most 100. Used only when key " +
+                    "statistics are collected.")
+            .required(true)
+            .defaultValue("10")
+            .addValidator(StandardValidators.createLongValidator(1, 100, true))
+            .build();
+
+    /** The time a moved key must be unseen for to switch to its new relationship when the routing changes. */
+    protected static final PropertyDescriptor MIGRATION_IDLE_TIME = new PropertyDescriptor.Builder()
+            .name("Migration idle time")
+            .description("When the routing changes, such as on a change of the relationships number, keys whose " +
+                    "relationship changed keep going to their previous relationship until they weren't seen for this " +
+                    "long, so their flowfiles in flight drain first, or for at most the migration grace period. " +
+                    "Also marks every flowfile with its routing epoch and partition. " +
+                    "0 sec switches keys immediately and marks nothing.")
+            .required(true)
+            .defaultValue("0 sec")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    /** The time after which a moved key switches to its new relationship, even if it kept being seen. */
+    protected static final PropertyDescriptor MIGRATION_GRACE_PERIOD = new PropertyDescriptor.Builder()
+            .name("Migration grace period")
+            .description("The time after a moved key was first seen going to its previous relationship by which it " +
+                    "switches to its new relationship, even if it kept being seen. A migration ends at the latest " +
+                    "after the idle time and this period. Used only when the migration idle time is set.")
+            .required(true)
+            .defaultValue("5 min")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    /** How often the slot table strategy moves slots away from back pressured relationships. */
+    protected static final PropertyDescriptor REBALANCE_INTERVAL = new PropertyDescriptor.Builder()
+            .name("Rebalance interval")
+            .description("How often to move slots away from the relationships that were back pressured more than " +
+                    "others, or 0 sec to never move slots automatically. Every move is stored as a new epoch of " +
+                    "the slot table and a new routing epoch, and the keys of the moved slots drain by the migration " +
+                    "idle time like on any other change of the routing. No slots move while the keys of a previous " +
+                    "change still drain, and slots pinned by a 'slots.<number>' property never move. Used only by " +
+                    "the slot table strategy.")
+            .required(true)
+            .defaultValue("0 sec")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    /** The minimal gap between the back pressured shares of two relationships to move slots between them. */
+    protected static final PropertyDescriptor REBALANCE_THRESHOLD = new PropertyDescriptor.Builder()
+            .name("Rebalance threshold")
+            .description("The minimal gap, between 0 and 1, between the shares of triggers in which the hottest and " +
+                    "coolest relationships were back pressured, to move slots from the hottest to the coolest. " +
+                    "Higher thresholds move slots less often. Used only by the slot table strategy.")
+            .required(true)
+            .defaultValue("0.2")
+            .addValidator(SHARE_VALIDATOR)
+            .build();
+
+    /** The maximal number of slots moved on a rebalance interval. */
+    protected static final PropertyDescriptor REBALANCE_MAX_MOVES = new PropertyDescriptor.Builder()
+            .name("Rebalance max moves")
+            .description("The maximal number of slots to move on a rebalance interval. Used only by the slot " +
+                    "table strategy.")
+            .required(true)
+            .defaultValue("64")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+
+    /** The properties that decide the partition of a key, next to the dynamic properties. */
+    private static final Set<PropertyDescriptor> ROUTING_PROPERTIES = ImmutableSet.of(RELATIONSHIPS_NUMBER,
+            DISTRIBUTION_STRATEGY, VIRTUAL_NODES, LOOKUP_TABLE_SIZE, HASH_SCHEME, HASH_FUNCTION, LOAD_BOUND,
+            KEY_SOURCE, ATTRIBUTE_NAME, KEY_ATTRIBUTES, KEY_EXPRESSION, HEADER_SIZE, HEADER_KEY_OFFSET,
+            HEADER_KEY_LENGTH, HEADER_KEY_DELIMITER, HEADER_KEY_JSON_FIELD);
+
+
+    /* --- Counters --- */
+
+    /** Counts the flowfiles whose destination was found in the routing cache. */
+    protected static final String CACHE_HITS_COUNTER = "Routing cache hits";
+
+    /** Counts the flowfiles whose destination wasn't found in the routing cache. */
+    protected static final String CACHE_MISSES_COUNTER = "Routing cache misses";
+
+    /** Counts the flowfiles routed to a numbered relationship, followed by the relationship's number. */
+    protected static final String ROUTED_FLOW_FILES_COUNTER = "Routed flowfiles to relationship ";
+
+    /** Counts the content bytes routed to a numbered relationship, followed by the relationship's number. */
+    protected static final String ROUTED_BYTES_COUNTER = "Routed bytes to relationship ";
+
+    /** Shows the max/mean load ratio of the relationships over the last skew window, in per mille. */
+    protected static final String SKEW_MAX_TO_MEAN_COUNTER = "Routing skew max/mean (per mille)";
+
+    /** Shows the coefficient of variation of the relationship loads over the last skew window, in per mille. */
+    protected static final String SKEW_VARIATION_COUNTER = "Routing skew coefficient of variation (per mille)";
+
 
     /* --- Data Members --- */
 
+    /** A key buffer per thread, so encoding keys allocates nothing. */
+    private static final ThreadLocal<KeyBuffer> KEY_BUFFERS = ThreadLocal.withInitial(KeyBuffer::new);
+
+
     /** The processor's static relationships. */
-    private final Set<Relationship> staticRelationships = Sets.newHashSet();
+    private final Set<Relationship> staticRelationships = ImmutableSet.of(FAILURE);
+
+    /**
+     * Snapshot of the processor's relationships and partitioner. Replaced as a whole whenever
+     * {@link #RELATIONSHIPS_NUMBER} changes or the processor is scheduled,
+     * so concurrent tasks always see a complete table.
+     */
+    private volatile DistributionTable distributionTable;
+
+    /** Moves slots of the slot table strategy away from back pressured relationships, or null if disabled. */
+    private volatile SlotRebalancer slotRebalancer;
+
+    /** The table of the last schedule, the previous routing of the next migration. */
+    private volatile DistributionTable scheduledTable;
+
+    /** The fingerprint of the routing properties of the last schedule. */
+    private volatile String scheduledFingerprint;
+
+    /** The attributes of the key, or null if the key isn't read from attributes. */
+    private volatile String[] keyAttributes;
+
+    /** The compiled key expression, or null if the key isn't an expression. */
+    private volatile PropertyValue keyExpression;
+
+    /** Reads the keys from the content header, or null if the keys aren't read from the content. */
+    private volatile HeaderKeyReader headerKeyReader;
+
+    /** Names the key in the warnings on flowfiles without it. */
+    private volatile String keyDescription;
 
-    /** The processor's dynamic relationships. Changed whenever {@link #RELATIONSHIPS_NUMBER} changes. */
-    private final Map<String, Relationship> dynamicRelationships = Maps.newHashMap();
+    /** Drains the keys moved by the last change of the routing, or null if no migration is running. */
+    private volatile Migration migration;
+
+    /** The current routing epoch, when the migration idle time is set. */
+    private volatile long routingEpoch;
+
+    /** Publishes how the flowfiles are spread over the relationships, or null if the skew window is 0. */
+    private volatile RoutingMetrics routingMetrics;
+
+    /** Collects the key statistics of the relationships, or null if they aren't collected. */
+    private volatile KeyStatistics keyStatistics;
+
+    /** The max/mean load ratio the skew counter shows, kept across schedules like the counter itself. */
+    private final AtomicLong publishedMaxToMean = new AtomicLong();
+
+    /** The coefficient of variation the skew counter shows, kept across schedules like the counter itself. */
+    private final AtomicLong publishedVariation = new AtomicLong();
 
     /** The processor's properties. */
     private final List<PropertyDescriptor> properties = Lists.newArrayList();
@@ -90,24 +618,49 @@ public class SafeDistributor extends AbstractProcessor {
      */
     @Override
     protected void init(ProcessorInitializationContext context) {
-        dynamicRelationships.put("1", createRelationship(1));
-        staticRelationships.add(FAILURE);
+        distributionTable = new DistributionTable(1, staticRelationships);
         properties.add(ATTRIBUTE_NAME);
+        properties.add(KEY_ATTRIBUTES);
+        properties.add(KEY_SOURCE);
+        properties.add(KEY_EXPRESSION);
+        properties.add(HEADER_SIZE);
+        properties.add(HEADER_KEY_OFFSET);
+        properties.add(HEADER_KEY_LENGTH);
+        properties.add(HEADER_KEY_DELIMITER);
+        properties.add(HEADER_KEY_JSON_FIELD);
         properties.add(RELATIONSHIPS_NUMBER);
+        properties.add(BATCH_SIZE);
+        properties.add(DISTRIBUTION_STRATEGY);
+        properties.add(VIRTUAL_NODES);
+        properties.add(LOAD_BOUND);
+        properties.add(LOAD_WINDOW);
+        properties.add(LOOKUP_TABLE_SIZE);
+        properties.add(HASH_SCHEME);
+        properties.add(HASH_FUNCTION);
+        properties.add(ROUTING_CACHE_SIZE);
+        properties.add(HOT_KEY_SHARE);
+        properties.add(HOT_KEY_SPREAD);
+        properties.add(HOT_KEY_WINDOW);
+        properties.add(SKEW_WINDOW);
+        properties.add(KEY_STATISTICS);
+        properties.add(TOP_KEYS);
+        properties.add(MIGRATION_IDLE_TIME);
+        properties.add(MIGRATION_GRACE_PERIOD);
+        properties.add(REBALANCE_INTERVAL);
+        properties.add(REBALANCE_THRESHOLD);
+        properties.add(REBALANCE_MAX_MOVES);
     }
 
     /**
      * Get all relationships of the processor.
-     * Merges the built-in relationships (such as {@link #FAILURE} and the dynamic created relationships.
+     * The built-in relationships (such as {@link #FAILURE}) and the numbered relationships of the current
+     * {@link #distributionTable}.
      *
      * @return All relationships of the processor.
      */
     @Override
     public Set<Relationship> getRelationships() {
-        Set<Relationship> relationships = Sets.newHashSet();
-        relationships.addAll(staticRelationships);
-        relationships.addAll(dynamicRelationships.values());
-        return relationships;
+        return distributionTable.getRelationships();
     }
 
     /**
@@ -119,7 +672,7 @@ public class SafeDistributor extends AbstractProcessor {
     }
 
     /**
-     * Creates the {@link #dynamicRelationships} according to the value at {@link #RELATIONSHIPS_NUMBER}.
+     * Rebuilds the {@link #distributionTable} according to the value at {@link #RELATIONSHIPS_NUMBER}.
      *
      * @param descriptor The changed property.
      * @param oldValue Old value of the property.
@@ -128,64 +681,595 @@ public class SafeDistributor extends AbstractProcessor {
     @Override
     public void onPropertyModified(PropertyDescriptor descriptor, String oldValue, String newValue) {
         if (descriptor.equals(RELATIONSHIPS_NUMBER)) {
-            dynamicRelationships.clear();
-            IntStream.rangeClosed(1, Integer.parseInt(newValue))
-                    .forEach(number -> dynamicRelationships.put(String.valueOf(number), createRelationship(number)));
+            distributionTable = new DistributionTable(Integer.parseInt(newValue), staticRelationships);
         }
     }
 
 
+    /**
+     * Validates the routing properties, that the bounded loads strategy isn't cached, and that the selected key
+     * source is configured.
+     *
+     * @param validationContext The context of the validation.
+     * @return The validation failures.
+     */
+    @Override
+    protected Collection<ValidationResult> customValidate(ValidationContext validationContext) {
+        List<ValidationResult> results = validateRouting(validationContext);
+        KeySource keySource = KeySource.of(validationContext.getProperty(KEY_SOURCE).getValue());
+        PropertyDescriptor keyProperty = keySource == KeySource.ATTRIBUTE
+                ? validationContext.getProperty(KEY_ATTRIBUTES).isSet() ? KEY_ATTRIBUTES : ATTRIBUTE_NAME
+                : keySource == KeySource.EXPRESSION ? KEY_EXPRESSION
+                : keySource == KeySource.HEADER_OFFSET ? HEADER_KEY_LENGTH
+                : keySource == KeySource.HEADER_DELIMITER ? HEADER_KEY_DELIMITER
+                : HEADER_KEY_JSON_FIELD;
+
+        if (!validationContext.getProperty(keyProperty).isSet()) {
+            results.add(new ValidationResult.Builder().subject(keyProperty.getName()).valid(false)
+                    .explanation("it is required by the key source " +
+                            keySource.getAllowableValue().getDisplayName()).build());
+        }
+
+        if (keySource == KeySource.ATTRIBUTE && validationContext.getProperty(KEY_ATTRIBUTES).isSet() &&
+                keyAttributes(validationContext.getProperty(KEY_ATTRIBUTES).getValue()).length == 0) {
+            results.add(new ValidationResult.Builder().subject(KEY_ATTRIBUTES.getName())
+                    .input(validationContext.getProperty(KEY_ATTRIBUTES).getValue()).valid(false)
+                    .explanation("it must name at least one attribute").build());
+        }
+
+        if (keySource == KeySource.HEADER_OFFSET && validationContext.getProperty(HEADER_KEY_LENGTH).isSet()) {
+            long keyEnd = validationContext.getProperty(HEADER_KEY_OFFSET).asLong() +
+                    validationContext.getProperty(HEADER_KEY_LENGTH).asLong();
+
+            if (keyEnd > validationContext.getProperty(HEADER_SIZE).asDataSize(DataUnit.B)) {
+                results.add(new ValidationResult.Builder().subject(HEADER_KEY_LENGTH.getName())
+                        .input(validationContext.getProperty(HEADER_KEY_LENGTH).getValue()).valid(false)
+                        .explanation("the key must end within the header size").build());
+            }
+        }
+        DistributionStrategy strategy =
+                DistributionStrategy.of(validationContext.getProperty(DISTRIBUTION_STRATEGY).getValue());
+
+        if (strategy == DistributionStrategy.BOUNDED_LOAD_HASH_RING) {
+            Integer cacheSize = validationContext.getProperty(ROUTING_CACHE_SIZE).asInteger();
+
+            if (cacheSize != null && cacheSize > 0) {
+                results.add(new ValidationResult.Builder().subject(ROUTING_CACHE_SIZE.getName())
+                        .input(String.valueOf(cacheSize)).valid(false)
+                        .explanation("bounded loads route by the current loads, so their partitions can't be cached")
+                        .build());
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Supports the 'weight.&lt;relationship number&gt;' and 'slots.&lt;relationship number&gt;' dynamic properties.
+     *
+     * @param propertyDescriptorName The name of the dynamic property.
+     * @return The descriptor of a weight or slots property, or null if the name isn't one.
+     */
+    @Override
+    protected PropertyDescriptor getSupportedDynamicPropertyDescriptor(String propertyDescriptorName) {
+        return routingDynamicPropertyDescriptor(propertyDescriptorName);
+    }
+
+
+    /* --- Lifecycle Methods --- */
+
+    /**
+     * Builds the partitioner of the selected {@link #DISTRIBUTION_STRATEGY} once, before any trigger.
+     *
+     * @param processContext The context of the process.
+     */
+    @OnScheduled
+    public void onScheduled(ProcessContext processContext) {
+        DistributionTable table = distributionTable;
+        DistributionStrategy strategy =
+                DistributionStrategy.of(processContext.getProperty(DISTRIBUTION_STRATEGY).getValue());
+
+        int cacheSize = processContext.getProperty(ROUTING_CACHE_SIZE).asInteger();
+        RoutingCache routingCache = cacheSize > 0 ? new RoutingCache(cacheSize) : null;
+
+        double hotKeyShare = processContext.getProperty(HOT_KEY_SHARE).asDouble();
+        HotKeySplitter hotKeySplitter = hotKeyShare > 0 ? new HotKeySplitter(table.size(), hotKeyShare,
+                processContext.getProperty(HOT_KEY_SPREAD).asInteger(),
+                processContext.getProperty(HOT_KEY_WINDOW).asInteger()) : null;
+
+        long rebalanceInterval = processContext.getProperty(REBALANCE_INTERVAL).asTimePeriod(TimeUnit.NANOSECONDS);
+        slotRebalancer = strategy == DistributionStrategy.SLOT_TABLE && rebalanceInterval > 0
+                ? new SlotRebalancer(table.size(), rebalanceInterval,
+                        processContext.getProperty(REBALANCE_THRESHOLD).asDouble(),
+                        processContext.getProperty(REBALANCE_MAX_MOVES).asInteger(),
+                        SlotPartitioner.pinnedSlots(DistributionStrategy.pins(table.size(), processContext)))
+                : null;
+
+        KeySource keySource = KeySource.of(processContext.getProperty(KEY_SOURCE).getValue());
+        Integer headerKeyLength = processContext.getProperty(HEADER_KEY_LENGTH).asInteger();
+        headerKeyReader = keySource.readsContent()
+                ? new HeaderKeyReader(keySource,
+                        processContext.getProperty(HEADER_SIZE).asDataSize(DataUnit.B).intValue(),
+                        processContext.getProperty(HEADER_KEY_OFFSET).asInteger(),
+                        headerKeyLength == null ? 0 : headerKeyLength,
+                        processContext.getProperty(HEADER_KEY_DELIMITER).getValue(),
+                        processContext.getProperty(HEADER_KEY_JSON_FIELD).getValue())
+                : null;
+        boolean composite = processContext.getProperty(KEY_ATTRIBUTES).isSet();
+        keyAttributes = keySource != KeySource.ATTRIBUTE ? null
+                : composite ? keyAttributes(processContext.getProperty(KEY_ATTRIBUTES).getValue())
+                : new String[] {processContext.getProperty(ATTRIBUTE_NAME).getValue()};
+        keyExpression = keySource == KeySource.EXPRESSION ? processContext.getProperty(KEY_EXPRESSION) : null;
+        keyDescription = keySource == KeySource.EXPRESSION
+                ? "Key expression '" + processContext.getProperty(KEY_EXPRESSION).getValue() + "'"
+                : keySource != KeySource.ATTRIBUTE ? "The content header key"
+                : composite ? "Key attributes '" + processContext.getProperty(KEY_ATTRIBUTES).getValue() + "'"
+                : "Attribute '" + processContext.getProperty(ATTRIBUTE_NAME).getValue() + "'";
+
+        DistributionTable newTable =
+                partitionedTable(table, processContext, getLogger(), routingCache, hotKeySplitter);
+        startMigration(processContext, newTable);
+
+        long skewWindow = processContext.getProperty(SKEW_WINDOW).asLong();
+        routingMetrics = skewWindow > 0
+                ? new RoutingMetrics(newTable, skewWindow, publishedMaxToMean, publishedVariation)
+                : null;
+
+        if (processContext.getProperty(KEY_STATISTICS).asBoolean()) {
+            keyStatistics = new KeyStatistics(newTable.size(), processContext.getProperty(TOP_KEYS).asInteger());
+            KeyStatisticsRegistry.register(getIdentifier(), keyStatistics);
+        } else {
+            keyStatistics = null;
+            KeyStatisticsRegistry.unregister(getIdentifier());
+        }
+
+        distributionTable = newTable;
+    }
+
+
+    /**
+     * Stops reporting the key statistics of the processor.
+     */
+    @OnStopped
+    public void onStopped() {
+        KeyStatisticsRegistry.unregister(getIdentifier());
+    }
+
+
     /* --- AbstractProcessor Implementation --- */
 
     /**
-     * Gets a flowfile and distribute it to one of the {@link #dynamicRelationships}.
-     * Always transfer flowfiles with the same value in the selected {@link #ATTRIBUTE_NAME}.
+     * Gets a batch of up to {@link #BATCH_SIZE} flowfiles and distribute them to the numbered relationships.
+     * Always transfer flowfiles with the same key, from the selected {@link #KEY_SOURCE}, to the same relationship.
+     * Flowfiles are transferred with a single call per destination, in the order they were pulled from the queue.
+     * When some destinations are back pressured, pulls only flowfiles whose destination has room and leaves the
+     * others queued in order.
      *
      * @param processContext The context of the process
      * @param processSession The current process session.
      */
     @Override
     public void onTrigger(ProcessContext processContext, ProcessSession processSession) {
-        FlowFile flowFile = processSession.get();
+        DistributionTable table = distributionTable;
+        int batchSize = processContext.getProperty(BATCH_SIZE).asInteger();
+        HeaderKeyReader keyReader = headerKeyReader;
+        KeyStatistics statistics = keyStatistics;
+        Migration migration = runningMigration();
+        long epoch = routingEpoch;
+        KeyBuffer keyBuffer = KEY_BUFFERS.get();
+        BatchRouter router = router(table, processSession, keyReader, keyBuffer, migration, statistics != null);
+        Set<Relationship> available = processContext.getAvailableRelationships();
+
+        List<FlowFile> flowFiles = keyReader == null && available.size() < table.getRelationships().size()
+                ? processSession.get(router.availableDestinationsFilter(available, batchSize, FAILURE))
+                : processSession.get(batchSize);
 
-        if (flowFile == null) {
+        if (flowFiles.isEmpty()) {
             return;
         }
 
-        String attributeName = processContext.getProperty(ATTRIBUTE_NAME).getValue();
-        String attributeValue = flowFile.getAttribute(attributeName);
+        Map<Relationship, List<FlowFile>> destinations = Maps.newLinkedHashMap();
+        List<FlowFile> failures = Lists.newArrayList();
+        HotKeySplitter splitter = table.getHotKeySplitter();
+        String spread = splitter == null ? null : String.valueOf(splitter.getSpread());
+        SlotRebalancer rebalancer = slotRebalancer;
+        int[] transferred = rebalancer == null ? null : new int[table.size()];
+        boolean marked = processContext.getProperty(MIGRATION_IDLE_TIME).asTimePeriod(TimeUnit.NANOSECONDS) > 0;
 
-        if (attributeValue == null) {
-            getLogger().warn(String.format("Attribute '%s' wasn't found in the flow file.", attributeName));
-            processSession.transfer(flowFile, FAILURE);
-            return;
+        for (int index = 0; index < flowFiles.size(); index++) {
+            FlowFile flowFile = flowFiles.get(index);
+            int route = router.route(flowFile, index);
+
+            if (route == BatchRouter.NO_KEY) {
+                failures.add(flowFile);
+                continue;
+            }
+
+            int partition = BatchRouter.partitionOf(route);
+
+            if (statistics != null) {
+                statistics.record(partition, router.getRoutedKey(), keyBuffer);
+            }
+
+            if (BatchRouter.isSplit(route)) {
+                flowFile = processSession.putAttribute(flowFile, SPLIT_ATTRIBUTE, spread);
+            }
+
+            if (marked) {
+                flowFile = processSession.putAllAttributes(flowFile, ImmutableMap.of(
+                        EPOCH_ATTRIBUTE, String.valueOf(BatchRouter.isDraining(route)
+                                ? migration.getSourceEpoch() : epoch),
+                        PARTITION_ATTRIBUTE, String.valueOf(partition)));
+            }
+
+            destinations.computeIfAbsent(table.destination(partition), relationship -> Lists.newArrayList())
+                    .add(flowFile);
+
+            if (transferred != null) {
+                transferred[partition]++;
+            }
+        }
+
+        if (table.getRoutingCache() != null) {
+            processSession.adjustCounter(CACHE_HITS_COUNTER, router.getCacheHits(), false);
+            processSession.adjustCounter(CACHE_MISSES_COUNTER, router.getCacheMisses(), false);
+        }
+
+        destinations.forEach((destination, batch) -> processSession.transfer(batch, destination));
+        RoutingMetrics metrics = routingMetrics;
+
+        if (metrics != null) {
+            metrics.flush(processSession, destinations);
+        }
+
+        if (!failures.isEmpty()) {
+            getLogger().warn(String.format("%s wasn't found in %d flow files.", keyDescription, failures.size()));
+            processSession.transfer(failures, FAILURE);
+        }
+
+        if (rebalancer != null) {
+            rebalance(processContext, table, rebalancer, transferred, available);
+        }
+    }
+
+
+    /* --- Package Methods --- */
+
+    /**
+     * @param propertyName The name of a property.
+     * @return The relationship number of a weight property, or null if the property isn't a weight property.
+     */
+    static Integer weightedRelationshipNumber(String propertyName) {
+        Matcher matcher = WEIGHT_PROPERTY_PATTERN.matcher(propertyName);
+        return matcher.matches() ? Integer.valueOf(matcher.group(1)) : null;
+    }
+
+    /**
+     * @param propertyName The name of a property.
+     * @return The relationship number of a slots property, or null if the property isn't a slots property.
+     */
+    static Integer slotsRelationshipNumber(String propertyName) {
+        Matcher matcher = SLOTS_PROPERTY_PATTERN.matcher(propertyName);
+        return matcher.matches() ? Integer.valueOf(matcher.group(1)) : null;
+    }
+
+    /**
+     * Validates the routing properties shared by the distributors: that the Maglev lookup table can hold every
+     * numbered relationship, that the slot table has a slot for each of them, and that the Kafka partitioner hashes
+     * exactly as Kafka does.
+     *
+     * @param validationContext The context of the validation.
+     * @return The validation failures.
+     */
+    static List<ValidationResult> validateRouting(ValidationContext validationContext) {
+        List<ValidationResult> results = Lists.newArrayList();
+        DistributionStrategy strategy =
+                DistributionStrategy.of(validationContext.getProperty(DISTRIBUTION_STRATEGY).getValue());
+
+        if (strategy == DistributionStrategy.MAGLEV) {
+            Integer tableSize = validationContext.getProperty(LOOKUP_TABLE_SIZE).asInteger();
+            Integer relationshipsNumber = validationContext.getProperty(RELATIONSHIPS_NUMBER).asInteger();
+
+            if (tableSize != null && relationshipsNumber != null && tableSize < relationshipsNumber) {
+                results.add(new ValidationResult.Builder().subject(LOOKUP_TABLE_SIZE.getName())
+                        .input(String.valueOf(tableSize)).valid(false)
+                        .explanation("the lookup table must be no smaller than the relationships number").build());
+            }
+        }
+
+        if (strategy == DistributionStrategy.SLOT_TABLE) {
+            Integer relationshipsNumber = validationContext.getProperty(RELATIONSHIPS_NUMBER).asInteger();
+
+            if (relationshipsNumber != null && relationshipsNumber > SlotPartitioner.SLOTS) {
+                results.add(new ValidationResult.Builder().subject(RELATIONSHIPS_NUMBER.getName())
+                        .input(String.valueOf(relationshipsNumber)).valid(false)
+                        .explanation("the slot table can't have more relationships than slots").build());
+            }
+        }
+
+        if (strategy == DistributionStrategy.KAFKA_PARTITIONER) {
+            String hashFunction = validationContext.getProperty(HASH_FUNCTION).getValue();
+            String hashScheme = validationContext.getProperty(HASH_SCHEME).getValue();
+
+            if (HashFunction.of(hashFunction, strategy) != HashFunction.KAFKA_MURMUR2) {
+                results.add(new ValidationResult.Builder().subject(HASH_FUNCTION.getName()).input(hashFunction)
+                        .valid(false).explanation("the Kafka partitioner must hash by Kafka murmur2").build());
+            }
+
+            if (HashScheme.of(hashScheme) != HashScheme.V2) {
+                results.add(new ValidationResult.Builder().subject(HASH_SCHEME.getName()).input(hashScheme)
+                        .valid(false).explanation("the Kafka partitioner must hash the UTF-8 attribute value").build());
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * @param propertyDescriptorName The name of a dynamic property.
+     * @return The descriptor of a weight or slots property, or null if the name isn't one.
+     */
+    static PropertyDescriptor routingDynamicPropertyDescriptor(String propertyDescriptorName) {
+        if (slotsRelationshipNumber(propertyDescriptorName) != null) {
+            return new PropertyDescriptor.Builder()
+                    .name(propertyDescriptorName)
+                    .description("The slots to move to relationship " +
+                            slotsRelationshipNumber(propertyDescriptorName) + " for the slot table strategy.")
+                    .dynamic(true)
+                    .addValidator(SLOTS_VALIDATOR)
+                    .build();
+        }
+
+        if (weightedRelationshipNumber(propertyDescriptorName) == null) {
+            return null;
         }
 
-        processSession.transfer(flowFile, calculatedDestination(attributeValue));
+        return new PropertyDescriptor.Builder()
+                .name(propertyDescriptorName)
+                .description("The weight of relationship " + weightedRelationshipNumber(propertyDescriptorName) +
+                        " for the weighted rendezvous hash strategy.")
+                .dynamic(true)
+                .addValidator(WEIGHT_VALIDATOR)
+                .build();
+    }
+
+    /**
+     * Builds the partitioner of the selected {@link #DISTRIBUTION_STRATEGY} and the hashing it routes by.
+     *
+     * @param table          The distribution table to route by.
+     * @param processContext The context of the process.
+     * @param logger         The logger of the processor.
+     * @param routingCache   The cache of the partitions of recent keys, or null if they aren't cached.
+     * @param hotKeySplitter The splitter of heavy hitter keys, or null if they aren't split.
+     * @return The distribution table with the new partitioner.
+     */
+    static DistributionTable partitionedTable(DistributionTable table, ProcessContext processContext,
+                                              ComponentLog logger, RoutingCache routingCache,
+                                              HotKeySplitter hotKeySplitter) {
+        DistributionStrategy strategy =
+                DistributionStrategy.of(processContext.getProperty(DISTRIBUTION_STRATEGY).getValue());
+
+        long start = System.nanoTime();
+        Partitioner partitioner = strategy.createPartitioner(table.size(), processContext);
+        logger.debug(String.format("Built the %s partitioner of %d relationships in %d ms.",
+                strategy.getAllowableValue().getDisplayName(), table.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+
+        HashScheme hashScheme = HashScheme.of(processContext.getProperty(HASH_SCHEME).getValue());
+        HashFunction hashFunction = HashFunction.of(processContext.getProperty(HASH_FUNCTION).getValue(), strategy);
+        return table.withPartitioner(hashScheme, hashFunction, partitioner, routingCache, hotKeySplitter);
+    }
+
+
+    /**
+     * @param keyAttributes The value of the key attributes property.
+     * @return The names of the key attributes, separated by commas in the value.
+     */
+    static String[] keyAttributes(String keyAttributes) {
+        return Splitter.on(',').trimResults().omitEmptyStrings().splitToList(keyAttributes).toArray(new String[0]);
     }
 
 
     /* --- Private Methods --- */
 
     /**
-     * Calculates the relationship destination of the flowfile according to the given attribute value.
+     * Creates the router of a trigger, by the key source of the schedule. A single key attribute routes by its value
+     * as is, several key attributes route by their values as the fields of a composite key.
      *
-     * @param attributeValue The attribute value.
-     * @return The calculated destination relationship.
+     * @param table The snapshot to route by.
+     * @param processSession The current process session.
+     * @param keyReader The reader of the content header keys, or null if the keys aren't read from the content.
+     * @param keyBuffer The buffer of the thread to encode the keys into.
+     * @param migration The running migration, or null if none is running.
+     * @param keepKeys Whether the router keeps the routed keys, for the key statistics.
+     * @return The router of the trigger.
+     */
+    private BatchRouter router(DistributionTable table, ProcessSession processSession, HeaderKeyReader keyReader,
+                               KeyBuffer keyBuffer, Migration migration, boolean keepKeys) {
+        if (keyReader != null) {
+            return new BatchRouter(table, keyBuffer, flowFile -> headerKey(processSession, keyReader, flowFile),
+                    migration, keepKeys);
+        }
+
+        PropertyValue expression = keyExpression;
+
+        if (expression != null) {
+            return new BatchRouter(table, keyBuffer, flowFile -> expressionKey(expression, flowFile), migration,
+                    keepKeys);
+        }
+
+        String[] attributes = keyAttributes;
+
+        if (attributes.length > 1) {
+            return new BatchRouter(table, keyBuffer, attributes, migration, keepKeys);
+        }
+
+        String attributeName = attributes[0];
+        return new BatchRouter(table, keyBuffer, flowFile -> flowFile.getAttribute(attributeName), migration,
+                keepKeys);
+    }
+
+    /**
+     * @param expression The compiled key expression.
+     * @param flowFile A flowfile.
+     * @return The value the expression evaluates to against the flowfile, or null if it is empty.
+     */
+    private static String expressionKey(PropertyValue expression, FlowFile flowFile) {
+        String key = expression.evaluateAttributeExpressions(flowFile).getValue();
+        return key == null || key.isEmpty() ? null : key;
+    }
+
+    /**
+     * @param processSession The current process session.
+     * @param keyReader The reader of the content header keys.
+     * @param flowFile A flowfile of the session.
+     * @return The key in the flowfile's content header, or null if it isn't found or the content can't be read.
      */
-    private Relationship calculatedDestination(String attributeValue) {
-        int hash = Hashing.murmur3_32().hashBytes(attributeValue.getBytes()).asInt();
-        int destinationNumber = Math.floorMod(hash, dynamicRelationships.size()) + 1;
-        return dynamicRelationships.get(String.valueOf(destinationNumber));
+    private String headerKey(ProcessSession processSession, HeaderKeyReader keyReader, FlowFile flowFile) {
+        try (InputStream in = processSession.read(flowFile)) {
+            return keyReader.read(in);
+        } catch (IOException e) {
+            getLogger().warn(String.format("Failed to read the content header of %s.", flowFile), e);
+            return null;
+        }
     }
 
     /**
-     * Creates and returns a new dynamic relationship of the given number.
+     * Starts a migration from the table of the last schedule if the routing properties changed since, and the
+     * migration idle time is set. Advances the routing epoch on every change of the routing properties.
      *
-     * @param number The number of the new dynamic relationship.
-     * @return The new created relationship.
+     * @param processContext The context of the process.
+     * @param table The new table.
      */
-    private Relationship createRelationship(int number) {
-        return new Relationship.Builder().name(String.valueOf(number)).build();
+    private void startMigration(ProcessContext processContext, DistributionTable table) {
+        DistributionTable previous = scheduledTable;
+        migration = null;
+
+        try {
+            String fingerprint = routingFingerprint(processContext);
+            migrate(processContext, fingerprint.equals(scheduledFingerprint) ? null : previous, table, fingerprint);
+        } catch (IOException e) {
+            throw new ProcessException("Failed to read the routing epoch from the cluster state", e);
+        }
+    }
+
+    /**
+     * Makes a table the previous routing of the next migration. When the migration idle time is set, reads the
+     * routing epoch of the table, and starts draining the keys moved from the given previous table.
+     *
+     * @param processContext The context of the process.
+     * @param previous The table routed by until now, or null to start no migration.
+     * @param table The new table.
+     * @param fingerprint The fingerprint of the routing of the new table.
+     * @throws IOException If the routing epoch can't be read or stored.
+     */
+    private void migrate(ProcessContext processContext, DistributionTable previous, DistributionTable table,
+                         String fingerprint) throws IOException {
+        long idleNanos = processContext.getProperty(MIGRATION_IDLE_TIME).asTimePeriod(TimeUnit.NANOSECONDS);
+
+        if (idleNanos > 0) {
+            long previousEpoch = routingEpoch;
+            routingEpoch = Migration.epoch(processContext.getStateManager(), fingerprint);
+
+            if (previous != null) {
+                migration = new Migration(previous, previousEpoch, table.size(), idleNanos,
+                        processContext.getProperty(MIGRATION_GRACE_PERIOD).asTimePeriod(TimeUnit.NANOSECONDS));
+                getLogger().info(String.format("Migrating to routing epoch %d.", routingEpoch));
+            }
+        }
+
+        scheduledTable = table;
+        scheduledFingerprint = fingerprint;
+    }
+
+    /**
+     * @return The running migration, or null if none is running. Drops a migration whose keys all switched.
+     */
+    private Migration runningMigration() {
+        Migration running = migration;
+
+        if (running != null && running.isOver()) {
+            migration = null;
+            getLogger().info(String.format("Finished migrating to routing epoch %d.", routingEpoch));
+            return null;
+        }
+
+        return running;
+    }
+
+    /**
+     * @param processContext The context of the process.
+     * @return A fingerprint of the properties that decide the partition of a key, and of the epoch of the stored slot
+     * table for the slot table strategy.
+     * @throws IOException If the epoch of the slot table can't be read.
+     */
+    private static String routingFingerprint(ProcessContext processContext) throws IOException {
+        return routingFingerprint(processContext,
+                SlotRebalancer.epoch(processContext.getStateManager().getState(Scope.CLUSTER)));
+    }
+
+    /**
+     * @param processContext The context of the process.
+     * @param slotEpoch The epoch of the slot table.
+     * @return A fingerprint of the properties that decide the partition of a key, and of the given epoch of the slot
+     * table for the slot table strategy.
+     */
+    private static String routingFingerprint(ProcessContext processContext, long slotEpoch) {
+        Map<String, String> routingProperties = Maps.newTreeMap();
+
+        processContext.getProperties().forEach((descriptor, value) -> {
+            if (descriptor.isDynamic() || ROUTING_PROPERTIES.contains(descriptor)) {
+                routingProperties.put(descriptor.getName(), value);
+            }
+        });
+
+        if (DistributionStrategy.of(processContext.getProperty(DISTRIBUTION_STRATEGY).getValue()) ==
+                DistributionStrategy.SLOT_TABLE) {
+            routingProperties.put(SlotRebalancer.EPOCH_STATE_KEY, String.valueOf(slotEpoch));
+        }
+
+        return routingProperties.toString();
+    }
+
+    /**
+     * Records a trigger on the slot rebalancer, and publishes a new table if the rebalancer moved slots or adopted
+     * a table moved by another node. The keys of the moved slots drain like on any other change of the routing, so
+     * the rebalancer waits while a migration is running rather than replacing it.
+     *
+     * @param processContext The context of the process.
+     * @param table The table the trigger routed by, partitioned by a {@link SlotPartitioner}.
+     * @param rebalancer The slot rebalancer.
+     * @param transferred The number of flowfiles transferred to every partition.
+     * @param available The relationships that weren't back pressured.
+     */
+    private void rebalance(ProcessContext processContext, DistributionTable table, SlotRebalancer rebalancer,
+                           int[] transferred, Set<Relationship> available) {
+        boolean[] backPressured = new boolean[table.size()];
+
+        for (int partition = 0; partition < backPressured.length; partition++) {
+            backPressured[partition] = !available.contains(table.destination(partition));
+        }
+
+        rebalancer.record(transferred, backPressured);
+
+        if (runningMigration() != null) {
+            return;
+        }
+
+        SlotPartitioner current = (SlotPartitioner) table.getPartitioner();
+
+        try {
+            SlotPartitioner next = rebalancer.rebalance(current, processContext.getStateManager(),
+                    slotEpoch -> routingFingerprint(processContext, slotEpoch));
+
+            if (next != current) {
+                DistributionTable rebalanced = table.withPartitioner(next);
+                migrate(processContext, table, rebalanced, routingFingerprint(processContext));
+                distributionTable = rebalanced;
+                getLogger().info("Routing by a rebalanced slot table.");
+            }
+        } catch (IOException e) {
+            getLogger().warn("Failed to rebalance the slot table.", e);
+        }
     }
 }
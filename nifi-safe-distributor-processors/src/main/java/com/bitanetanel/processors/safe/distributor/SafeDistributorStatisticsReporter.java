@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.controller.status.ProcessGroupStatus;
+import org.apache.nifi.controller.status.ProcessorStatus;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.reporting.AbstractReportingTask;
+import org.apache.nifi.reporting.ReportingContext;
+import org.apache.nifi.reporting.Severity;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Reports the key statistics of the running {@link SafeDistributor}s that collect them: per relationship, the
+ * flowfiles routed since the last report, an estimate of their distinct keys and their heaviest keys. Tells whether
+ * a hot relationship carries many keys or one giant key, without a provenance export.
+ * The statistics are read from {@link KeyStatisticsRegistry} and start anew after every report, so a single task
+ * should report them.
+ *
+ * @author Netanel Bitan
+ */
+@Tags({"safe", "distributor", "statistics", "keys", "cardinality", "heavy hitters"})
+@CapabilityDescription("Reports, for every relationship of the running SafeDistributors that collect key " +
+        "statistics, the flowfiles routed since the last report, an estimate of their distinct keys (HyperLogLog) " +
+        "and their heaviest keys (Space-Saving), as bulletins and/or lines appended to a metrics file.")
+public class SafeDistributorStatisticsReporter extends AbstractReportingTask {
+
+
+    /* --- Values --- */
+
+    /** Reports by a bulletin per distributor. */
+    private static final AllowableValue BULLETIN = new AllowableValue("Bulletin", "Bulletin",
+            "Reports by an info bulletin per distributor.");
+
+    /** Reports by appending to the metrics file. */
+    private static final AllowableValue METRICS_FILE_OUTPUT = new AllowableValue("Metrics file", "Metrics file",
+            "Reports by appending a line per relationship to the metrics file.");
+
+    /** Reports by both a bulletin and the metrics file. */
+    private static final AllowableValue BOTH = new AllowableValue("Bulletin and metrics file",
+            "Bulletin and metrics file", "Reports by both a bulletin and the metrics file.");
+
+
+    /* --- Constants --- */
+
+    /** The category of the bulletins. */
+    private static final String BULLETIN_CATEGORY = "SafeDistributor Statistics";
+
+
+    /* --- Properties --- */
+
+    /** Where the statistics are reported. */
+    protected static final PropertyDescriptor OUTPUT = new PropertyDescriptor.Builder()
+            .name("Output")
+            .description("Where the statistics are reported.")
+            .required(true)
+            .allowableValues(BULLETIN, METRICS_FILE_OUTPUT, BOTH)
+            .defaultValue(BULLETIN.getValue())
+            .build();
+
+    /** The file the statistics are appended to. */
+    protected static final PropertyDescriptor METRICS_FILE = new PropertyDescriptor.Builder()
+            .name("Metrics file")
+            .description("The file a tab separated line is appended to per relationship and report, with the report " +
+                    "time in milliseconds, the processor identifier and name, the relationship number, the routed " +
+                    "flowfiles, the estimated distinct keys and the heaviest keys as key=count pairs. Required when " +
+                    "reporting to a metrics file.")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+
+    /* --- Data Members --- */
+
+    /** The reporting task's properties. */
+    private final List<PropertyDescriptor> properties = ImmutableList.of(OUTPUT, METRICS_FILE);
+
+
+    /* --- Override Methods --- */
+
+    /**
+     * @return All properties of the reporting task.
+     */
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    /**
+     * Requires the metrics file when reporting to it.
+     *
+     * @param validationContext The context of the validation.
+     * @return The validation failures.
+     */
+    @Override
+    protected Collection<ValidationResult> customValidate(ValidationContext validationContext) {
+        List<ValidationResult> results = Lists.newArrayList();
+
+        if (!BULLETIN.getValue().equals(validationContext.getProperty(OUTPUT).getValue()) &&
+                !validationContext.getProperty(METRICS_FILE).isSet()) {
+            results.add(new ValidationResult.Builder().subject(METRICS_FILE.getName()).valid(false)
+                    .explanation("a metrics file is required when reporting to it").build());
+        }
+
+        return results;
+    }
+
+    /**
+     * Drains the statistics of every registered distributor and reports them.
+     *
+     * @param context The context of the reporting task.
+     */
+    @Override
+    public void onTrigger(ReportingContext context) {
+        Map<String, KeyStatistics> registered = KeyStatisticsRegistry.registered();
+
+        if (registered.isEmpty()) {
+            return;
+        }
+
+        String output = context.getProperty(OUTPUT).getValue();
+        Map<String, String> names = Maps.newHashMap();
+        processorNames(context.getEventAccess().getControllerStatus(), names);
+        long timestamp = System.currentTimeMillis();
+        List<String> lines = Lists.newArrayList();
+
+        for (Map.Entry<String, KeyStatistics> distributor : registered.entrySet()) {
+            String processorId = distributor.getKey();
+            String name = names.getOrDefault(processorId, processorId);
+            List<KeyStatistics.RelationshipStatistics> statistics = distributor.getValue().drain();
+
+            if (!output.equals(METRICS_FILE_OUTPUT.getValue())) {
+                context.getBulletinRepository().addBulletin(
+                        context.createBulletin(BULLETIN_CATEGORY, Severity.INFO, bulletin(name, statistics)));
+            }
+
+            for (KeyStatistics.RelationshipStatistics relationship : statistics) {
+                lines.add(String.join("\t", String.valueOf(timestamp), processorId, sanitize(name),
+                        String.valueOf(relationship.getRelationship()), String.valueOf(relationship.getRouted()),
+                        String.valueOf(relationship.getDistinctKeys()), topKeys(relationship)));
+            }
+        }
+
+        if (!output.equals(BULLETIN.getValue())) {
+            String metricsFile = context.getProperty(METRICS_FILE).getValue();
+
+            try {
+                Files.write(Paths.get(metricsFile), lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                getLogger().error(String.format("Failed to append the statistics to %s.", metricsFile), e);
+            }
+        }
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * Collects the names of all processors of a process group and its descendants.
+     *
+     * @param group The status of the process group.
+     * @param names The names, by processor identifier, to add to.
+     */
+    private static void processorNames(ProcessGroupStatus group, Map<String, String> names) {
+        for (ProcessorStatus processor : group.getProcessorStatus()) {
+            names.put(processor.getId(), processor.getName());
+        }
+
+        for (ProcessGroupStatus child : group.getProcessGroupStatus()) {
+            processorNames(child, names);
+        }
+    }
+
+    /**
+     * @param name The name of the distributor.
+     * @param statistics The statistics of its relationships.
+     * @return The bulletin of the distributor, its busiest relationships first, skipping those that routed nothing.
+     */
+    private static String bulletin(String name, List<KeyStatistics.RelationshipStatistics> statistics) {
+        String relationships = statistics.stream()
+                .filter(relationship -> relationship.getRouted() > 0)
+                .sorted(Comparator.comparingLong(KeyStatistics.RelationshipStatistics::getRouted).reversed())
+                .map(relationship -> String.format("relationship %d: %d flowfiles, ~%d distinct keys, top keys: %s",
+                        relationship.getRelationship(), relationship.getRouted(), relationship.getDistinctKeys(),
+                        topKeys(relationship)))
+                .collect(Collectors.joining("; "));
+        return String.format("SafeDistributor '%s' since the last report: %s", name,
+                relationships.isEmpty() ? "nothing routed" : relationships);
+    }
+
+    /**
+     * @param relationship The statistics of a relationship.
+     * @return The heaviest keys of the relationship as comma separated key=count pairs.
+     */
+    private static String topKeys(KeyStatistics.RelationshipStatistics relationship) {
+        return relationship.getTopKeys().stream()
+                .map(key -> sanitize(key.getKey()) + "=" + key.getValue())
+                .collect(Collectors.joining(", "));
+    }
+
+    /**
+     * @param value A key or a name.
+     * @return The value with its control characters replaced by spaces, so it fits a line of the metrics file.
+     */
+    private static String sanitize(String value) {
+        return value.replaceAll("\\p{Cntrl}", " ");
+    }
+}
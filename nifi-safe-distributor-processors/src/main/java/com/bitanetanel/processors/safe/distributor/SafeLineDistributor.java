@@ -0,0 +1,385 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.nifi.annotation.behavior.DynamicProperties;
+import org.apache.nifi.annotation.behavior.DynamicProperty;
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.Stateful;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.*;
+import org.apache.nifi.processor.util.StandardValidators;
+
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Partitions the lines of a flowfile between the numbered relationships by a capture group of a regular expression,
+ * with the same routing as {@link SafeDistributor}. Lines are streamed in a single pass into a buffered output
+ * stream per non-empty relationship, unchanged and in their original order.
+ *
+ * @author Netanel Bitan
+ */
+@InputRequirement(InputRequirement.Requirement.INPUT_REQUIRED)
+@Tags({"distributor", "distribute", "text", "line", "regex"})
+@WritesAttributes({
+        @WritesAttribute(attribute = SafeLineDistributor.LINE_COUNT_ATTRIBUTE,
+                description = "The number of lines in the output flowfile."),
+        @WritesAttribute(attribute = SafeDistributor.PARTITION_ATTRIBUTE, description = "The zero based partition " +
+                "the lines of the output flowfile were routed to, its relationship number minus one.")
+})
+@DynamicProperties({
+        @DynamicProperty(name = "weight.<relationship number>", value = "A positive number",
+                description = "The weight of a numbered relationship for the weighted rendezvous hash strategy. " +
+                        "Relationships without a weight property get a weight of 1."),
+        @DynamicProperty(name = "slots.<relationship number>", value = "Slots and slot ranges, like '0-99,512'",
+                description = "Moves slots to a numbered relationship for the slot table strategy. The move is " +
+                        "stored in the slot table and stays after the property is removed.")
+})
+@Stateful(scopes = Scope.CLUSTER, description = "The slot table strategy stores the relationship of every slot, " +
+        "so the table survives restarts and is shared by all nodes of the cluster.")
+@CapabilityDescription("Safely distribute the lines of a flowfile between the out relationships. Lines whose key, " +
+        "a capture group of a regular expression, has the same value will always distribute to the same " +
+        "relationship, and to the same relationship SafeDistributor routes a flowfile with that attribute value " +
+        "to. Each input flowfile is split into at most one output flowfile per relationship.")
+public class SafeLineDistributor extends AbstractContentDistributor {
+
+
+    /* --- Attributes --- */
+
+    /** The number of lines in an output flowfile. */
+    protected static final String LINE_COUNT_ATTRIBUTE = "text.line.count";
+
+
+    /* --- Properties --- */
+
+    /** The regular expression that finds the key of a line. */
+    protected static final PropertyDescriptor KEY_PATTERN = new PropertyDescriptor.Builder()
+            .name("Key pattern")
+            .description("A regular expression to find in every line. The value of its key capture group routes " +
+                    "the line. Lines it isn't found in are written to a flowfile of the failure relationship.")
+            .required(true)
+            .addValidator(StandardValidators.REGULAR_EXPRESSION_VALIDATOR)
+            .build();
+
+    /** The capture group of the key pattern that holds the key. */
+    protected static final PropertyDescriptor KEY_GROUP = new PropertyDescriptor.Builder()
+            .name("Key capture group")
+            .description("The number of the capture group of the key pattern that holds the key. " +
+                    "0 is the whole match.")
+            .required(true)
+            .defaultValue("1")
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    /** The character set of the content. */
+    protected static final PropertyDescriptor CHARACTER_SET = new PropertyDescriptor.Builder()
+            .name("Character set")
+            .description("The character set of the content, to match the key pattern by. The lines are written " +
+                    "out as they are, without decoding. Lines are split on the '\\n' byte, so the character set " +
+                    "must encode ASCII as is, like UTF-8 or ISO-8859-1, and not like UTF-16.")
+            .required(true)
+            .defaultValue("UTF-8")
+            .addValidator(StandardValidators.CHARACTER_SET_VALIDATOR)
+            .build();
+
+    /** The size of the read buffer and of the buffer of every output. */
+    protected static final PropertyDescriptor BUFFER_SIZE = new PropertyDescriptor.Builder()
+            .name("Buffer size")
+            .description("The size of the buffer the content is read by, and of the buffer of the output of every " +
+                    "relationship, up to 16 MB. A flowfile takes at most this size times the relationships number " +
+                    "plus two, next to the longest line.")
+            .required(true)
+            .defaultValue("64 KB")
+            .addValidator(StandardValidators.createDataSizeBoundsValidator(1, 16 * 1024 * 1024))
+            .build();
+
+    /** The maximal length of a line. */
+    protected static final PropertyDescriptor MAX_LINE_LENGTH = new PropertyDescriptor.Builder()
+            .name("Maximum line length")
+            .description("The maximal length of a line, its terminator included, up to 256 MB. A flowfile with a " +
+                    "longer line, such as content without line terminators, is transferred to failure as is.")
+            .required(true)
+            .defaultValue("1 MB")
+            .addValidator(StandardValidators.createDataSizeBoundsValidator(1, 256 * 1024 * 1024))
+            .build();
+
+
+    /* --- Data Members --- */
+
+    /** The compiled {@link #KEY_PATTERN}. */
+    private volatile Pattern keyPattern;
+
+
+    /* --- Override Methods --- */
+
+    /**
+     * @return The key pattern, its capture group, the character set, the buffer size and the maximal line length.
+     */
+    @Override
+    protected List<PropertyDescriptor> getContentPropertyDescriptors() {
+        return ImmutableList.of(KEY_PATTERN, KEY_GROUP, CHARACTER_SET, BUFFER_SIZE, MAX_LINE_LENGTH);
+    }
+
+    /**
+     * Validates the routing properties, that the key pattern has the key capture group, and that the character set
+     * encodes ASCII as is, so a '\n' byte always ends a line.
+     *
+     * @param validationContext The context of the validation.
+     * @return The validation failures.
+     */
+    @Override
+    protected Collection<ValidationResult> customValidate(ValidationContext validationContext) {
+        List<ValidationResult> results = Lists.newArrayList(super.customValidate(validationContext));
+        String pattern = validationContext.getProperty(KEY_PATTERN).getValue();
+        Integer group = validationContext.getProperty(KEY_GROUP).asInteger();
+
+        if (pattern != null && group != null) {
+            try {
+                if (Pattern.compile(pattern).matcher("").groupCount() < group) {
+                    results.add(new ValidationResult.Builder().subject(KEY_GROUP.getName())
+                            .input(String.valueOf(group)).valid(false)
+                            .explanation("the key pattern has no capture group " + group).build());
+                }
+            } catch (PatternSyntaxException e) {
+                // Reported by the validator of the key pattern.
+            }
+        }
+
+        String characterSet = validationContext.getProperty(CHARACTER_SET).getValue();
+
+        try {
+            if (characterSet != null && !isAsciiCompatible(Charset.forName(characterSet))) {
+                results.add(new ValidationResult.Builder().subject(CHARACTER_SET.getName()).input(characterSet)
+                        .valid(false).explanation("lines are split on the '\\n' byte, so the character set must " +
+                                "encode ASCII as is").build());
+            }
+        } catch (IllegalArgumentException e) {
+            // Reported by the validator of the character set.
+        }
+
+        return results;
+    }
+
+
+    /* --- Lifecycle Methods --- */
+
+    /**
+     * Compiles the {@link #KEY_PATTERN} once, before any trigger.
+     *
+     * @param processContext The context of the process.
+     */
+    @OnScheduled
+    public void compileKeyPattern(ProcessContext processContext) {
+        keyPattern = Pattern.compile(processContext.getProperty(KEY_PATTERN).getValue());
+    }
+
+
+    /* --- AbstractProcessor Implementation --- */
+
+    /**
+     * Streams the lines of a flowfile to one output flowfile per numbered relationship that gets any of them.
+     * Always writes lines with the same key to the same relationship. Lines without a key are written to a
+     * flowfile of the failure relationship. If the flowfile can't be read or has a line longer than the
+     * {@link #MAX_LINE_LENGTH}, the outputs are dropped and the flowfile is transferred to failure as is.
+     *
+     * @param processContext The context of the process
+     * @param processSession The current process session.
+     */
+    @Override
+    public void onTrigger(ProcessContext processContext, ProcessSession processSession) {
+        FlowFile flowFile = processSession.get();
+
+        if (flowFile == null) {
+            return;
+        }
+
+        DistributionTable table = getDistributionTable();
+        KeyBuffer keyBuffer = keyBuffer();
+        Matcher matcher = keyPattern.matcher("");
+        int group = processContext.getProperty(KEY_GROUP).asInteger();
+        CharsetDecoder decoder = Charset.forName(processContext.getProperty(CHARACTER_SET).getValue()).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        int bufferSize = processContext.getProperty(BUFFER_SIZE).asDataSize(DataUnit.B).intValue();
+        int maxLineLength = processContext.getProperty(MAX_LINE_LENGTH).asDataSize(DataUnit.B).intValue();
+
+        // Partition -1 holds the lines without a key.
+        Map<Integer, LineOutput> outputs = Maps.newHashMap();
+
+        try (InputStream in = processSession.read(flowFile)) {
+            LineReader lines = new LineReader(in, bufferSize, maxLineLength);
+
+            while (lines.next()) {
+                String key = matcher.reset(lines.decode(decoder)).find() ? matcher.group(group) : null;
+                int partition = key == null ? BatchRouter.NO_KEY : table.partition(key, keyBuffer);
+                LineOutput output = outputs.get(partition);
+
+                if (output == null) {
+                    output = new LineOutput(processSession, flowFile, bufferSize);
+                    outputs.put(partition, output);
+                }
+
+                output.write(lines.bytes(), lines.length());
+            }
+
+            for (LineOutput output : outputs.values()) {
+                output.close();
+            }
+        } catch (IOException e) {
+            getLogger().error(String.format("Failed to distribute the lines of %s.", flowFile), e);
+            outputs.values().forEach(output -> {
+                output.closeQuietly();
+                processSession.remove(output.flowFile);
+            });
+            processSession.transfer(flowFile, SafeDistributor.FAILURE);
+            return;
+        }
+
+        outputs.forEach((partition, output) -> {
+            if (partition == BatchRouter.NO_KEY) {
+                getLogger().warn(String.format("Key pattern '%s' wasn't found in %d lines of %s.",
+                        keyPattern.pattern(), output.lineCount, flowFile));
+                processSession.transfer(output.complete(processSession, null), SafeDistributor.FAILURE);
+            } else {
+                processSession.transfer(output.complete(processSession, partition), table.destination(partition));
+            }
+        });
+
+        processSession.transfer(flowFile, ORIGINAL);
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * @param charset A character set.
+     * @return Whether the character set encodes every ASCII character as its own single byte.
+     */
+    private static boolean isAsciiCompatible(Charset charset) {
+        byte[] ascii = new byte[128];
+
+        for (int character = 0; character < ascii.length; character++) {
+            ascii[character] = (byte) character;
+        }
+
+        return charset.canEncode()
+                && Arrays.equals(new String(ascii, StandardCharsets.US_ASCII).getBytes(charset), ascii);
+    }
+
+
+    /* --- Inner Classes --- */
+
+    /**
+     * An output flowfile of a single partition and the buffered stream of its lines.
+     */
+    private static final class LineOutput {
+
+        /** The output flowfile. */
+        private FlowFile flowFile;
+
+        /** The buffered stream of the output flowfile's content. */
+        private final OutputStream out;
+
+        /** The number of lines written. */
+        private int lineCount;
+
+        /**
+         * Creates a child of the input flowfile and opens its content.
+         *
+         * @param processSession The current process session.
+         * @param parent         The input flowfile.
+         * @param bufferSize     The size of the output buffer.
+         */
+        LineOutput(ProcessSession processSession, FlowFile parent, int bufferSize) {
+            flowFile = processSession.create(parent);
+            out = new BufferedOutputStream(processSession.write(flowFile), bufferSize);
+        }
+
+        /**
+         * @param bytes  The bytes of a line.
+         * @param length The number of bytes of the line.
+         * @throws IOException If the line can't be written.
+         */
+        void write(byte[] bytes, int length) throws IOException {
+            out.write(bytes, 0, length);
+            lineCount++;
+        }
+
+        /**
+         * Flushes and closes the output.
+         *
+         * @throws IOException If the output can't be flushed.
+         */
+        void close() throws IOException {
+            out.close();
+        }
+
+        /**
+         * Closes the output, ignoring failures, after the flowfile failed.
+         */
+        void closeQuietly() {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                // The output is removed anyway.
+            }
+        }
+
+        /**
+         * @param processSession The current process session.
+         * @param partition      The partition of the lines, or null for the lines without a key.
+         * @return The output flowfile with the attributes of its lines.
+         */
+        FlowFile complete(ProcessSession processSession, Integer partition) {
+            flowFile = partition == null
+                    ? processSession.putAttribute(flowFile, LINE_COUNT_ATTRIBUTE, String.valueOf(lineCount))
+                    : processSession.putAllAttributes(flowFile, ImmutableMap.of(
+                            LINE_COUNT_ATTRIBUTE, String.valueOf(lineCount),
+                            SafeDistributor.PARTITION_ATTRIBUTE, String.valueOf(partition)));
+            return flowFile;
+        }
+    }
+}
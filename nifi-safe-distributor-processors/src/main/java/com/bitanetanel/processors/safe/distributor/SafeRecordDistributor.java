@@ -0,0 +1,368 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.apache.nifi.annotation.behavior.DynamicProperties;
+import org.apache.nifi.annotation.behavior.DynamicProperty;
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.Stateful;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.processor.*;
+import org.apache.nifi.record.path.FieldValue;
+import org.apache.nifi.record.path.RecordPath;
+import org.apache.nifi.record.path.validation.RecordPathValidator;
+import org.apache.nifi.schema.access.SchemaNotFoundException;
+import org.apache.nifi.serialization.MalformedRecordException;
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.RecordReaderFactory;
+import org.apache.nifi.serialization.RecordSetWriter;
+import org.apache.nifi.serialization.RecordSetWriterFactory;
+import org.apache.nifi.serialization.WriteResult;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordSchema;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Partitions the records of a flowfile between the numbered relationships by the value of a record field, with the
+ * same routing as {@link SafeDistributor}. Records are streamed from the reader into one open writer per non-empty
+ * relationship, so the record set is never held in memory.
+ *
+ * @author Netanel Bitan
+ */
+@InputRequirement(InputRequirement.Requirement.INPUT_REQUIRED)
+@Tags({"distributor", "distribute", "record", "partition"})
+@WritesAttributes({
+        @WritesAttribute(attribute = "record.count", description = "The number of records in the output flowfile."),
+        @WritesAttribute(attribute = "mime.type", description = "The mime type of the record writer."),
+        @WritesAttribute(attribute = SafeDistributor.PARTITION_ATTRIBUTE, description = "The zero based partition " +
+                "the records of the output flowfile were routed to, its relationship number minus one.")
+})
+@DynamicProperties({
+        @DynamicProperty(name = "weight.<relationship number>", value = "A positive number",
+                description = "The weight of a numbered relationship for the weighted rendezvous hash strategy. " +
+                        "Relationships without a weight property get a weight of 1."),
+        @DynamicProperty(name = "slots.<relationship number>", value = "Slots and slot ranges, like '0-99,512'",
+                description = "Moves slots to a numbered relationship for the slot table strategy. The move is " +
+                        "stored in the slot table and stays after the property is removed.")
+})
+@Stateful(scopes = Scope.CLUSTER, description = "The slot table strategy stores the relationship of every slot, " +
+        "so the table survives restarts and is shared by all nodes of the cluster.")
+@CapabilityDescription("Safely distribute the records of a flowfile between the out relationships. Records with " +
+        "the same value in the selected record field will always distribute to the same relationship, and to the " +
+        "same relationship SafeDistributor routes a flowfile with that attribute value to. Each input flowfile is " +
+        "split into at most one output flowfile per relationship.")
+public class SafeRecordDistributor extends AbstractContentDistributor {
+
+
+    /* --- Properties --- */
+
+    /** Reads the records of the input flowfiles. */
+    protected static final PropertyDescriptor RECORD_READER = new PropertyDescriptor.Builder()
+            .name("Record reader")
+            .description("The record reader to read the input flowfiles by.")
+            .identifiesControllerService(RecordReaderFactory.class)
+            .required(true)
+            .build();
+
+    /** Writes the records of the output flowfiles. */
+    protected static final PropertyDescriptor RECORD_WRITER = new PropertyDescriptor.Builder()
+            .name("Record writer")
+            .description("The record writer to write the output flowfiles by.")
+            .identifiesControllerService(RecordSetWriterFactory.class)
+            .required(true)
+            .build();
+
+    /** The record field that we want to be based on for our safeness. */
+    protected static final PropertyDescriptor KEY_RECORD_PATH = new PropertyDescriptor.Builder()
+            .name("Key record path")
+            .description("A record path to the field whose value routes the record. Records without the field, or " +
+                    "with a null, array, map or record value, are written to a flowfile of the failure relationship.")
+            .required(true)
+            .addValidator(new RecordPathValidator())
+            .build();
+
+
+    /* --- Data Members --- */
+
+    /** The compiled {@link #KEY_RECORD_PATH}. */
+    private volatile RecordPath keyRecordPath;
+
+
+    /* --- Override Methods --- */
+
+    /**
+     * @return The record reader, the record writer and the key record path.
+     */
+    @Override
+    protected List<PropertyDescriptor> getContentPropertyDescriptors() {
+        return ImmutableList.of(RECORD_READER, RECORD_WRITER, KEY_RECORD_PATH);
+    }
+
+
+    /* --- Lifecycle Methods --- */
+
+    /**
+     * Compiles the {@link #KEY_RECORD_PATH} once, before any trigger.
+     *
+     * @param processContext The context of the process.
+     */
+    @OnScheduled
+    public void compileKeyRecordPath(ProcessContext processContext) {
+        keyRecordPath = RecordPath.compile(processContext.getProperty(KEY_RECORD_PATH).getValue());
+    }
+
+
+    /* --- AbstractProcessor Implementation --- */
+
+    /**
+     * Streams the records of a flowfile to one output flowfile per numbered relationship that gets any of them.
+     * Always writes records with the same value in the {@link #KEY_RECORD_PATH} field to the same relationship.
+     * Records without a scalar key are written to a flowfile of the failure relationship. If the flowfile can't be
+     * read or its records can't be written, the outputs are closed and dropped and the flowfile is transferred to
+     * failure as is.
+     *
+     * @param processContext The context of the process
+     * @param processSession The current process session.
+     */
+    @Override
+    public void onTrigger(ProcessContext processContext, ProcessSession processSession) {
+        FlowFile flowFile = processSession.get();
+
+        if (flowFile == null) {
+            return;
+        }
+
+        DistributionTable table = getDistributionTable();
+        RecordPath recordPath = keyRecordPath;
+        KeyBuffer keyBuffer = keyBuffer();
+        RecordReaderFactory readerFactory =
+                processContext.getProperty(RECORD_READER).asControllerService(RecordReaderFactory.class);
+        RecordSetWriterFactory writerFactory =
+                processContext.getProperty(RECORD_WRITER).asControllerService(RecordSetWriterFactory.class);
+
+        // Partition -1 holds the records without a key.
+        Map<Integer, PartitionOutput> outputs = Maps.newHashMap();
+        boolean distributed = false;
+
+        try (InputStream in = processSession.read(flowFile);
+             RecordReader reader = readerFactory.createRecordReader(flowFile, in, getLogger())) {
+            RecordSchema writeSchema = writerFactory.getSchema(flowFile.getAttributes(), reader.getSchema());
+            Record record;
+
+            while ((record = reader.nextRecord()) != null) {
+                String key = key(recordPath, record);
+                int partition = key == null ? BatchRouter.NO_KEY : table.partition(key, keyBuffer);
+                PartitionOutput output = outputs.get(partition);
+
+                if (output == null) {
+                    output = new PartitionOutput(processSession, flowFile, writerFactory, writeSchema, getLogger());
+                    outputs.put(partition, output);
+                }
+
+                output.writer.write(record);
+            }
+
+            for (PartitionOutput output : outputs.values()) {
+                output.finish();
+            }
+
+            distributed = true;
+        } catch (SchemaNotFoundException | MalformedRecordException | IOException | RuntimeException e) {
+            getLogger().error(String.format("Failed to distribute the records of %s.", flowFile), e);
+        } finally {
+            if (!distributed) {
+                outputs.values().forEach(output -> output.discard(processSession));
+            }
+        }
+
+        if (!distributed) {
+            processSession.transfer(flowFile, SafeDistributor.FAILURE);
+            return;
+        }
+
+        outputs.forEach((partition, output) -> {
+            if (partition == BatchRouter.NO_KEY) {
+                getLogger().warn(String.format("Field '%s' wasn't found or isn't a scalar in %d records of %s.",
+                        recordPath.getPath(), output.recordCount, flowFile));
+                processSession.transfer(output.complete(processSession, null), SafeDistributor.FAILURE);
+            } else {
+                processSession.transfer(output.complete(processSession, partition), table.destination(partition));
+            }
+        });
+
+        processSession.transfer(flowFile, ORIGINAL);
+    }
+
+
+    /* --- Package Methods --- */
+
+    /**
+     * @param recordPath The record path to the key field.
+     * @param record     The record.
+     * @return The value of the first field the record path selects, or null if it selects none, a null value, or a
+     * value without a stable string form: an array, a map or a record.
+     */
+    static String key(RecordPath recordPath, Record record) {
+        Object value = recordPath.evaluate(record).getSelectedFields()
+                .findFirst()
+                .map(FieldValue::getValue)
+                .orElse(null);
+
+        if (value == null || value instanceof Record || value instanceof Map || value instanceof Collection ||
+                value.getClass().isArray()) {
+            return null;
+        }
+
+        return value.toString();
+    }
+
+
+    /* --- Inner Classes --- */
+
+    /**
+     * An output flowfile of a single partition and the open writer of its records.
+     */
+    private static final class PartitionOutput {
+
+        /** The output flowfile. */
+        private FlowFile flowFile;
+
+        /** The open writer of the output flowfile's content. */
+        private final RecordSetWriter writer;
+
+        /** The attributes the writer reported when the record set was finished. */
+        private Map<String, String> writeAttributes;
+
+        /** The number of records written. */
+        private int recordCount;
+
+        /** Whether the writer was closed. */
+        private boolean closed;
+
+        /**
+         * Creates a child of the input flowfile and begins its record set. Removes the child if the record set can't
+         * be begun.
+         *
+         * @param processSession The current process session.
+         * @param parent         The input flowfile.
+         * @param writerFactory  The factory of the record writers.
+         * @param writeSchema    The schema to write the records by.
+         * @param logger         The logger of the processor.
+         * @throws SchemaNotFoundException If the writer's schema can't be found.
+         * @throws IOException If the record set can't be begun.
+         */
+        PartitionOutput(ProcessSession processSession, FlowFile parent, RecordSetWriterFactory writerFactory,
+                        RecordSchema writeSchema, ComponentLog logger) throws SchemaNotFoundException, IOException {
+            flowFile = processSession.create(parent);
+            OutputStream out = null;
+            RecordSetWriter created = null;
+
+            try {
+                out = processSession.write(flowFile);
+                created = writerFactory.createWriter(logger, writeSchema, out);
+                created.beginRecordSet();
+            } catch (SchemaNotFoundException | IOException | RuntimeException e) {
+                closeQuietly(created != null ? created : out);
+                processSession.remove(flowFile);
+                throw e;
+            }
+
+            writer = created;
+        }
+
+        /**
+         * Finishes the record set and closes the writer.
+         *
+         * @throws IOException If the record set can't be finished.
+         */
+        void finish() throws IOException {
+            WriteResult writeResult = writer.finishRecordSet();
+            closed = true;
+            writer.close();
+            recordCount = writeResult.getRecordCount();
+            writeAttributes = writeResult.getAttributes();
+        }
+
+        /**
+         * Closes the writer, unless already closed, and removes the output flowfile, after the input flowfile failed.
+         *
+         * @param processSession The current process session.
+         */
+        void discard(ProcessSession processSession) {
+            if (!closed) {
+                closed = true;
+                closeQuietly(writer);
+            }
+
+            processSession.remove(flowFile);
+        }
+
+        /**
+         * Closes a writer or a stream, ignoring failures, since its output is removed anyway.
+         *
+         * @param closeable The writer or stream to close, or null.
+         */
+        private static void closeQuietly(AutoCloseable closeable) {
+            if (closeable == null) {
+                return;
+            }
+
+            try {
+                closeable.close();
+            } catch (Exception ignored) {
+                // The output is removed anyway.
+            }
+        }
+
+        /**
+         * @param processSession The current process session.
+         * @param partition      The partition of the records, or null for the records without a key.
+         * @return The output flowfile with the attributes of its records.
+         */
+        FlowFile complete(ProcessSession processSession, Integer partition) {
+            Map<String, String> attributes = Maps.newHashMap(writeAttributes);
+            attributes.put("record.count", String.valueOf(recordCount));
+            attributes.put(CoreAttributes.MIME_TYPE.key(), writer.getMimeType());
+
+            if (partition != null) {
+                attributes.put(SafeDistributor.PARTITION_ATTRIBUTE, String.valueOf(partition));
+            }
+
+            flowFile = processSession.putAllAttributes(flowFile, attributes);
+            return flowFile;
+        }
+    }
+}
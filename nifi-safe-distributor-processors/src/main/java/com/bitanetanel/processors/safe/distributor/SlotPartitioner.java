@@ -0,0 +1,336 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.components.state.StateManager;
+import org.apache.nifi.components.state.StateMap;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Partitions keys over a fixed space of virtual slots, like Redis Cluster.
+ * A key belongs to the slot of the low bits of its hash, and every slot is assigned to a partition by a slot table.
+ * Slots can be moved one by one to another partition without touching the rest, so the table is persisted in the
+ * processor's cluster state and survives restarts, and every node of the cluster routes by the same table.
+ * <p>
+ * Instances are immutable; every change returns a new table. A lookup is a mask and a single {@code short[]} read.
+ *
+ * @author Netanel Bitan
+ */
+final class SlotPartitioner implements Partitioner {
+
+
+    /* --- Constants --- */
+
+    /** The number of slots, a power of two. */
+    static final int SLOTS = 16384;
+
+    /** The state key of the encoded slot table. */
+    static final String TABLE_STATE_KEY = "slot.table";
+
+    /** The state key of the number of partitions the slot table was built for. */
+    static final String PARTITIONS_STATE_KEY = "slot.partitions";
+
+    /** The number of times to retry storing the table when another node changed it concurrently. */
+    private static final int STORE_ATTEMPTS = 10;
+
+
+    /* --- Data Members --- */
+
+    /** The partition of every slot. */
+    private final short[] owners;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * @param owners The partition of every slot. Owned by the new instance.
+     */
+    private SlotPartitioner(short[] owners) {
+        this.owners = owners;
+    }
+
+    /**
+     * Creates a table that assigns contiguous and even ranges of slots to the partitions.
+     *
+     * @param partitions The number of partitions, no greater than {@link #SLOTS}.
+     * @return The new table.
+     */
+    static SlotPartitioner balanced(int partitions) {
+        short[] owners = new short[SLOTS];
+
+        for (int slot = 0; slot < SLOTS; slot++) {
+            owners[slot] = (short) ((long) slot * partitions / SLOTS);
+        }
+
+        return new SlotPartitioner(owners);
+    }
+
+    /**
+     * @param encoded A table encoded by {@link #encode()}.
+     * @return The decoded table.
+     * @throws IllegalArgumentException If the encoded table is malformed or doesn't assign every slot.
+     */
+    static SlotPartitioner decode(String encoded) {
+        short[] owners = new short[SLOTS];
+        Arrays.fill(owners, (short) -1);
+
+        for (String run : encoded.split(",")) {
+            int separator = run.lastIndexOf(':');
+
+            if (separator < 0) {
+                throw new IllegalArgumentException("Malformed slot table run: " + run);
+            }
+
+            int relationshipNumber = Integer.parseInt(run.substring(separator + 1));
+
+            if (relationshipNumber < 1 || relationshipNumber > Short.MAX_VALUE + 1) {
+                throw new IllegalArgumentException("Invalid relationship number in slot table run: " + run);
+            }
+
+            for (int[] range : parseRanges(run.substring(0, separator))) {
+                Arrays.fill(owners, range[0], range[1] + 1, (short) (relationshipNumber - 1));
+            }
+        }
+
+        for (short owner : owners) {
+            if (owner < 0) {
+                throw new IllegalArgumentException("The slot table doesn't assign every slot");
+            }
+        }
+
+        return new SlotPartitioner(owners);
+    }
+
+
+    /* --- Partitioner Implementation --- */
+
+    @Override
+    public int partition(long hash) {
+        return owners[(int) hash & (SLOTS - 1)];
+    }
+
+
+    /* --- Package Methods --- */
+
+    /**
+     * @param slot A slot.
+     * @return The partition the slot is assigned to.
+     */
+    int owner(int slot) {
+        return owners[slot];
+    }
+
+    /**
+     * Moves a range of slots to a partition.
+     *
+     * @param firstSlot The first slot of the range.
+     * @param lastSlot The last slot of the range, inclusive.
+     * @param partition The partition to move the slots to.
+     * @return A table with the range moved, or this table if the range is already assigned to the partition.
+     */
+    SlotPartitioner assign(int firstSlot, int lastSlot, int partition) {
+        boolean moved = false;
+
+        for (int slot = firstSlot; slot <= lastSlot && !moved; slot++) {
+            moved = owners[slot] != partition;
+        }
+
+        if (!moved) {
+            return this;
+        }
+
+        short[] newOwners = owners.clone();
+        Arrays.fill(newOwners, firstSlot, lastSlot + 1, (short) partition);
+        return new SlotPartitioner(newOwners);
+    }
+
+    /**
+     * Fits the table to a new number of partitions, moving as few slots as possible.
+     * Every partition keeps its slots up to its even share, and the slots of removed partitions and the slots beyond
+     * the shares are handed, in order, to the partitions below their share.
+     *
+     * @param partitions The new number of partitions, no greater than {@link #SLOTS}.
+     * @return The resized table.
+     */
+    SlotPartitioner resize(int partitions) {
+        short[] newOwners = owners.clone();
+        int[] counts = new int[partitions];
+        boolean[] free = new boolean[SLOTS];
+
+        for (int slot = 0; slot < SLOTS; slot++) {
+            int owner = owners[slot];
+
+            if (owner < partitions && counts[owner] < share(owner, partitions)) {
+                counts[owner]++;
+            } else {
+                free[slot] = true;
+            }
+        }
+
+        int partition = 0;
+
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (free[slot]) {
+                while (counts[partition] >= share(partition, partitions)) {
+                    partition++;
+                }
+
+                newOwners[slot] = (short) partition;
+                counts[partition]++;
+            }
+        }
+
+        return new SlotPartitioner(newOwners);
+    }
+
+    /**
+     * Encodes the table as comma separated runs of 'first-last:relationship number', where the relationship number
+     * is the partition plus one.
+     *
+     * @return The encoded table.
+     */
+    String encode() {
+        StringBuilder builder = new StringBuilder();
+        int first = 0;
+
+        for (int slot = 1; slot <= SLOTS; slot++) {
+            if (slot == SLOTS || owners[slot] != owners[first]) {
+                if (builder.length() > 0) {
+                    builder.append(',');
+                }
+
+                builder.append(first);
+
+                if (slot - 1 > first) {
+                    builder.append('-').append(slot - 1);
+                }
+
+                builder.append(':').append(owners[first] + 1);
+                first = slot;
+            }
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Loads the slot table from the cluster state, fits it to the partitions, applies the pinned slots and stores it
+     * back if it changed. A change of a stored table is stored as a new epoch of the table with a record of the moved
+     * slots, like a move of the {@link SlotRebalancer}. Builds a balanced table if the state has none. Retries if
+     * another node of the cluster changed the table concurrently, so all nodes end up with the same table.
+     *
+     * @param stateManager The processor's state manager.
+     * @param partitions The number of partitions.
+     * @param pins Slot ranges, as parsed by {@link #parseRanges(String)}, to move to the partition of their key.
+     * @return The stored table.
+     * @throws IOException If the state can't be read or written, or kept changing concurrently.
+     */
+    static SlotPartitioner load(StateManager stateManager, int partitions, Map<Integer, String> pins)
+            throws IOException {
+        for (int attempt = 0; attempt < STORE_ATTEMPTS; attempt++) {
+            StateMap state = stateManager.getState(Scope.CLUSTER);
+            String stored = state.get(TABLE_STATE_KEY);
+            SlotPartitioner table = stored == null ? balanced(partitions) : decode(stored);
+
+            if (stored != null && !String.valueOf(partitions).equals(state.get(PARTITIONS_STATE_KEY))) {
+                table = table.resize(partitions);
+            }
+
+            for (Map.Entry<Integer, String> pin : pins.entrySet()) {
+                for (int[] range : parseRanges(pin.getValue())) {
+                    table = table.assign(range[0], range[1], pin.getKey());
+                }
+            }
+
+            Map<String, String> newState = Maps.newHashMap(state.toMap());
+            newState.put(TABLE_STATE_KEY, table.encode());
+            newState.put(PARTITIONS_STATE_KEY, String.valueOf(partitions));
+
+            if (stored != null && !stored.equals(table.encode())) {
+                SlotRebalancer.recordMove(state, newState, decode(stored), table);
+            }
+
+            if (newState.equals(state.toMap()) || stateManager.replace(state, newState, Scope.CLUSTER)) {
+                return table;
+            }
+        }
+
+        throw new IOException("The slot table kept changing concurrently");
+    }
+
+    /**
+     * @param pins Slot ranges, as parsed by {@link #parseRanges(String)}, pinned to partitions.
+     * @return The pinned slots.
+     */
+    static BitSet pinnedSlots(Map<Integer, String> pins) {
+        BitSet pinned = new BitSet(SLOTS);
+
+        for (String ranges : pins.values()) {
+            for (int[] range : parseRanges(ranges)) {
+                pinned.set(range[0], range[1] + 1);
+            }
+        }
+
+        return pinned;
+    }
+
+    /**
+     * Parses comma separated slots and inclusive slot ranges, like '0-99,512'.
+     *
+     * @param ranges The slot ranges.
+     * @return The first and last slot of every range.
+     * @throws IllegalArgumentException If the ranges are malformed or out of the slot space.
+     */
+    static List<int[]> parseRanges(String ranges) {
+        List<int[]> result = Lists.newArrayList();
+
+        for (String range : ranges.split(",")) {
+            String[] bounds = range.trim().split("-", 2);
+            int first = Integer.parseInt(bounds[0].trim());
+            int last = bounds.length == 1 ? first : Integer.parseInt(bounds[1].trim());
+
+            if (first < 0 || last < first || last >= SLOTS) {
+                throw new IllegalArgumentException("Invalid slot range: " + range);
+            }
+
+            result.add(new int[]{first, last});
+        }
+
+        return result;
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * @param partition A partition.
+     * @param partitions The number of partitions.
+     * @return The even number of slots of the partition. The first partitions get one more slot each when the slots
+     * don't divide evenly.
+     */
+    private static int share(int partition, int partitions) {
+        return SLOTS / partitions + (partition < SLOTS % partitions ? 1 : 0);
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Maps;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.components.state.StateManager;
+import org.apache.nifi.components.state.StateMap;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongFunction;
+
+/**
+ * Moves slots of a {@link SlotPartitioner} away from back pressured relationships.
+ * <p>
+ * Every trigger records how many flowfiles were transferred to every relationship and which relationships were
+ * back pressured. Once per interval the rebalancer compares the share of triggers in which every relationship was
+ * back pressured, and if the hottest relationship exceeds the coolest by the threshold, moves some of its slots to the
+ * coolest. Ties between cool relationships go to the one that received fewer flowfiles. The number of moved slots
+ * grows with the gap and is capped per interval, and a relationship that just received slots isn't drained in the next
+ * interval, so slots don't flap between two relationships. Slots pinned to a relationship never move.
+ * <p>
+ * Every move is stored in the cluster state as a new epoch of the slot table, next to a record of the moved slots,
+ * and starts a new routing epoch in the same write. Before deciding, the rebalancer adopts a newer table stored by
+ * another node, so all nodes converge on one table.
+ *
+ * @author Netanel Bitan
+ */
+final class SlotRebalancer {
+
+
+    /* --- Constants --- */
+
+    /** The state key of the epoch of the slot table, incremented on every move. */
+    static final String EPOCH_STATE_KEY = "slot.epoch";
+
+    /** The prefix of the state keys recording the moves, followed by the epoch of the move. */
+    static final String MOVE_STATE_KEY_PREFIX = "slot.move.";
+
+    /** The number of latest moves kept in the state. */
+    private static final int KEPT_MOVES = 64;
+
+
+    /* --- Data Members --- */
+
+    /** The number of flowfiles transferred to every partition in the interval. */
+    private final AtomicLongArray transfers;
+
+    /** The number of triggers in the interval in which every partition was back pressured. */
+    private final AtomicLongArray pressured;
+
+    /** The number of triggers recorded in the interval. */
+    private final AtomicLong triggers = new AtomicLong();
+
+    /** Set while a thread rebalances. */
+    private final AtomicBoolean rebalancing = new AtomicBoolean();
+
+    /** The length of an interval in nanoseconds. */
+    private final long intervalNanos;
+
+    /** The minimal gap between the back pressured shares of the hottest and coolest partitions to move slots. */
+    private final double threshold;
+
+    /** The maximal number of slots to move in an interval. */
+    private final int maxMoves;
+
+    /** The slots pinned to a partition, which never move. */
+    private final BitSet pinned;
+
+    /** The time the next interval ends at, by {@link System#nanoTime()}. */
+    private volatile long nextRebalance;
+
+    /** The partition that received slots on the move of the previous interval, or -1. Not drained this interval. */
+    private int lastTarget = -1;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * @param partitions The number of partitions.
+     * @param intervalNanos The length of an interval in nanoseconds.
+     * @param threshold The minimal gap between the back pressured shares of the hottest and coolest partitions.
+     * @param maxMoves The maximal number of slots to move in an interval.
+     * @param pinned The slots pinned to a partition, which never move.
+     */
+    SlotRebalancer(int partitions, long intervalNanos, double threshold, int maxMoves, BitSet pinned) {
+        this.transfers = new AtomicLongArray(partitions);
+        this.pressured = new AtomicLongArray(partitions);
+        this.intervalNanos = intervalNanos;
+        this.threshold = threshold;
+        this.maxMoves = maxMoves;
+        this.pinned = pinned;
+        this.nextRebalance = System.nanoTime() + intervalNanos;
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * Records a trigger.
+     *
+     * @param transferred The number of flowfiles transferred to every partition.
+     * @param backPressured Whether every partition was back pressured.
+     */
+    void record(int[] transferred, boolean[] backPressured) {
+        for (int partition = 0; partition < transferred.length; partition++) {
+            if (transferred[partition] > 0) {
+                transfers.getAndAdd(partition, transferred[partition]);
+            }
+
+            if (backPressured[partition]) {
+                pressured.getAndIncrement(partition);
+            }
+        }
+
+        triggers.getAndIncrement();
+    }
+
+    /**
+     * Ends the interval if it is due and moves slots if the relationships are out of balance. Only one thread
+     * rebalances at a time; the others keep the current table.
+     *
+     * @param current The table currently routed by.
+     * @param stateManager The processor's state manager.
+     * @param fingerprint The fingerprint of the routing by the slot table of a given epoch, stored with the new
+     * routing epoch of a move.
+     * @return The table to route by, the current one unless it was moved or another node stored a newer one.
+     * @throws IOException If the state can't be read or written.
+     */
+    SlotPartitioner rebalance(SlotPartitioner current, StateManager stateManager, LongFunction<String> fingerprint)
+            throws IOException {
+        if (System.nanoTime() - nextRebalance < 0 || !rebalancing.compareAndSet(false, true)) {
+            return current;
+        }
+
+        try {
+            nextRebalance = System.nanoTime() + intervalNanos;
+            StateMap state = stateManager.getState(Scope.CLUSTER);
+            String stored = state.get(SlotPartitioner.TABLE_STATE_KEY);
+            String partitions = String.valueOf(transfers.length());
+            boolean newer = stored != null && partitions.equals(state.get(SlotPartitioner.PARTITIONS_STATE_KEY))
+                    && !stored.equals(current.encode());
+            SlotPartitioner table = newer ? SlotPartitioner.decode(stored) : current;
+
+            int[] move = plan(table, lastTarget);
+            lastTarget = -1;
+
+            if (move == null) {
+                return table;
+            }
+
+            SlotPartitioner moved = move(table, move[0], move[1], move[2]);
+            Map<String, String> newState = Maps.newHashMap(state.toMap());
+            newState.put(SlotPartitioner.TABLE_STATE_KEY, moved.encode());
+            newState.put(SlotPartitioner.PARTITIONS_STATE_KEY, partitions);
+            long epoch = recordMove(state, newState, table, moved);
+            Migration.advance(state, newState, fingerprint.apply(epoch));
+
+            if (!stateManager.replace(state, newState, Scope.CLUSTER)) {
+                // Another node changed the table in the meantime; adopt it on the next interval.
+                return table;
+            }
+
+            lastTarget = move[1];
+            return moved;
+        } finally {
+            rebalancing.set(false);
+        }
+    }
+
+    /**
+     * @param state The processor's cluster state.
+     * @return The epoch of the stored slot table, 0 if it was never moved.
+     */
+    static long epoch(StateMap state) {
+        String epoch = state.get(EPOCH_STATE_KEY);
+        return epoch == null ? 0 : Long.parseLong(epoch);
+    }
+
+
+    /**
+     * Stores a change of the slot table as a new epoch of the table in a new cluster state, next to a record of the
+     * moved slots, and drops the record of the move {@link #KEPT_MOVES} epochs earlier. The record groups the moved
+     * slot ranges by their source and target relationship numbers, like '0-9,512:1>2;100:3>1'.
+     *
+     * @param state The current cluster state.
+     * @param newState The cluster state to replace it with.
+     * @param from The table before the change.
+     * @param to The table after the change.
+     * @return The new epoch of the slot table.
+     */
+    static long recordMove(StateMap state, Map<String, String> newState, SlotPartitioner from, SlotPartitioner to) {
+        Map<String, StringBuilder> moves = Maps.newLinkedHashMap();
+        int slot = 0;
+
+        while (slot < SlotPartitioner.SLOTS) {
+            int source = from.owner(slot);
+            int target = to.owner(slot);
+
+            if (source == target) {
+                slot++;
+                continue;
+            }
+
+            int first = slot;
+
+            while (slot < SlotPartitioner.SLOTS && from.owner(slot) == source && to.owner(slot) == target) {
+                slot++;
+            }
+
+            String move = (source + 1) + ">" + (target + 1);
+            StringBuilder ranges = moves.computeIfAbsent(move, ignored -> new StringBuilder());
+            ranges.append(ranges.length() > 0 ? "," : "").append(first);
+
+            if (slot - 1 > first) {
+                ranges.append('-').append(slot - 1);
+            }
+        }
+
+        long epoch = epoch(state) + 1;
+        newState.put(EPOCH_STATE_KEY, String.valueOf(epoch));
+        newState.put(MOVE_STATE_KEY_PREFIX + epoch, Joiner.on(';').join(moves.entrySet().stream()
+                .map(move -> move.getValue() + ":" + move.getKey())
+                .iterator()));
+        newState.remove(MOVE_STATE_KEY_PREFIX + (epoch - KEPT_MOVES));
+        return epoch;
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * Ends the interval and decides whether to move slots.
+     *
+     * @param table The table to move slots of.
+     * @param blocked The partition that received slots in the previous interval, which isn't drained, or -1.
+     * @return The source partition, target partition and number of slots to move, or null to move nothing.
+     */
+    private int[] plan(SlotPartitioner table, int blocked) {
+        int partitions = transfers.length();
+        long[] transferred = new long[partitions];
+        long[] pressuredTriggers = new long[partitions];
+        long intervalTriggers = triggers.getAndSet(0);
+        int[] slots = new int[partitions];
+
+        for (int partition = 0; partition < partitions; partition++) {
+            transferred[partition] = transfers.getAndSet(partition, 0);
+            pressuredTriggers[partition] = pressured.getAndSet(partition, 0);
+        }
+
+        for (int slot = pinned.nextClearBit(0); slot < SlotPartitioner.SLOTS; slot = pinned.nextClearBit(slot + 1)) {
+            slots[table.owner(slot)]++;
+        }
+
+        if (intervalTriggers == 0 || partitions < 2) {
+            return null;
+        }
+
+        int hot = 0;
+        int cool = 0;
+
+        for (int partition = 1; partition < partitions; partition++) {
+            if (pressuredTriggers[partition] > pressuredTriggers[hot]) {
+                hot = partition;
+            }
+
+            if (pressuredTriggers[partition] < pressuredTriggers[cool] || pressuredTriggers[partition] ==
+                    pressuredTriggers[cool] && transferred[partition] < transferred[cool]) {
+                cool = partition;
+            }
+        }
+
+        double gap = (double) (pressuredTriggers[hot] - pressuredTriggers[cool]) / intervalTriggers;
+
+        if (hot == cool || hot == blocked || gap < threshold || slots[hot] < 2) {
+            return null;
+        }
+
+        int count = (int) Math.min(Math.min(maxMoves, slots[hot] - 1), Math.max(1, Math.round(slots[hot] * gap / 2)));
+        return new int[]{hot, cool, count};
+    }
+
+    /**
+     * Moves the last unpinned slots of a partition to another partition.
+     *
+     * @param table The table to move slots of.
+     * @param source The partition to move slots from.
+     * @param target The partition to move slots to.
+     * @param count The number of slots to move, at most the number of unpinned slots of the source.
+     * @return The moved table.
+     */
+    private SlotPartitioner move(SlotPartitioner table, int source, int target, int count) {
+        SlotPartitioner moved = table;
+        int slot = SlotPartitioner.SLOTS - 1;
+
+        while (count > 0) {
+            while (table.owner(slot) != source || pinned.get(slot)) {
+                slot--;
+            }
+
+            int last = slot;
+
+            while (count > 0 && slot >= 0 && table.owner(slot) == source && !pinned.get(slot)) {
+                slot--;
+                count--;
+            }
+
+            moved = moved.assign(slot + 1, last, target);
+        }
+
+        return moved;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Finds the heaviest keys of a stream by the Space-Saving algorithm: keeps counters for a bounded number of keys, and
+ * a key without a counter takes over the smallest counter, inheriting its count. Every key more frequent than one
+ * over the capacity is guaranteed a counter, and a count overestimates its key by at most the inherited count.
+ * The counters are kept in a min-heap indexed by key, so offering a key takes logarithmic time in the capacity.
+ * Guarded by its own lock.
+ * Thread safe.
+ *
+ * @author Netanel Bitan
+ */
+final class SpaceSaving {
+
+
+    /* --- Data Members --- */
+
+    /** The counted keys, a min-heap by their counts. */
+    private final String[] keys;
+
+    /** The count of every key of {@link #keys}, at the same heap position. */
+    private final long[] counts;
+
+    /** The heap position of every counted key. */
+    private final Map<String, Integer> positions;
+
+    /** The number of counted keys. */
+    private int size;
+
+
+    /* --- Constructors --- */
+
+    /**
+     * @param capacity The maximal number of counted keys, a few times the number of heavy keys looked for.
+     */
+    SpaceSaving(int capacity) {
+        this.keys = new String[capacity];
+        this.counts = new long[capacity];
+        this.positions = Maps.newHashMapWithExpectedSize(capacity);
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * @param key A key of the stream.
+     */
+    synchronized void offer(String key) {
+        Integer position = positions.get(key);
+
+        if (position != null) {
+            counts[position]++;
+            siftDown(position);
+            return;
+        }
+
+        if (size < keys.length) {
+            keys[size] = key;
+            counts[size] = 1;
+            positions.put(key, size);
+            siftUp(size++);
+            return;
+        }
+
+        // The smallest counter is the root of the heap.
+        positions.remove(keys[0]);
+        keys[0] = key;
+        counts[0]++;
+        positions.put(key, 0);
+        siftDown(0);
+    }
+
+    /**
+     * Returns the heaviest keys and forgets all keys.
+     *
+     * @param limit The maximal number of returned keys.
+     * @return The heaviest keys with their estimated counts, heaviest first.
+     */
+    synchronized List<Map.Entry<String, Long>> drain(int limit) {
+        List<Map.Entry<String, Long>> heaviest = IntStream.range(0, size)
+                .mapToObj(position -> Maps.immutableEntry(keys[position], counts[position]))
+                .sorted(Comparator.comparingLong((Map.Entry<String, Long> entry) -> entry.getValue()).reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+        Arrays.fill(keys, 0, size, null);
+        positions.clear();
+        size = 0;
+        return heaviest;
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * Moves a counter up the heap until its parent isn't larger.
+     *
+     * @param position The heap position of the counter.
+     */
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+
+            if (counts[parent] <= counts[position]) {
+                return;
+            }
+
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    /**
+     * Moves a counter down the heap until none of its children is smaller.
+     *
+     * @param position The heap position of the counter.
+     */
+    private void siftDown(int position) {
+        while (true) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+
+            if (left < size && counts[left] < counts[smallest]) {
+                smallest = left;
+            }
+
+            if (right < size && counts[right] < counts[smallest]) {
+                smallest = right;
+            }
+
+            if (smallest == position) {
+                return;
+            }
+
+            swap(position, smallest);
+            position = smallest;
+        }
+    }
+
+    /**
+     * @param first A heap position.
+     * @param second Another heap position.
+     */
+    private void swap(int first, int second) {
+        String key = keys[first];
+        long count = counts[first];
+        keys[first] = keys[second];
+        counts[first] = counts[second];
+        keys[second] = key;
+        counts[second] = count;
+        positions.put(keys[first], first);
+        positions.put(keys[second], second);
+    }
+}
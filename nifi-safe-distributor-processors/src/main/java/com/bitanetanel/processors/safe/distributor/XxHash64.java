@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+/**
+ * Allocation free 64 bit xxHash with a zero seed.
+ *
+ * @see <a href="https://github.com/Cyan4973/xxHash/blob/dev/doc/xxhash_spec.md">xxHash specification</a>
+ * @author Netanel Bitan
+ */
+final class XxHash64 {
+
+
+    /* --- Constants --- */
+
+    /** The first prime of xxHash64. */
+    private static final long PRIME_1 = 0x9e3779b185ebca87L;
+    /** The second prime of xxHash64. */
+    private static final long PRIME_2 = 0xc2b2ae3d27d4eb4fL;
+    /** The third prime of xxHash64. */
+    private static final long PRIME_3 = 0x165667b19e3779f9L;
+    /** The fourth prime of xxHash64. */
+    private static final long PRIME_4 = 0x85ebca77c2b2ae63L;
+    /** The fifth prime of xxHash64. */
+    private static final long PRIME_5 = 0x27d4eb2f165667c5L;
+
+
+    /* --- Constructors --- */
+
+    private XxHash64() {
+    }
+
+
+    /* --- Public Methods --- */
+
+    /**
+     * @param bytes The bytes to hash.
+     * @param length The number of bytes to hash, from the start of the array.
+     * @return The 64 bit xxHash of the bytes.
+     */
+    static long hash(byte[] bytes, int length) {
+        int offset = 0;
+        long hash;
+
+        if (length >= 32) {
+            long v1 = PRIME_1 + PRIME_2;
+            long v2 = PRIME_2;
+            long v3 = 0;
+            long v4 = -PRIME_1;
+
+            for (int stripesEnd = length & ~31; offset < stripesEnd; offset += 32) {
+                v1 = round(v1, Bytes.longLittleEndian(bytes, offset));
+                v2 = round(v2, Bytes.longLittleEndian(bytes, offset + 8));
+                v3 = round(v3, Bytes.longLittleEndian(bytes, offset + 16));
+                v4 = round(v4, Bytes.longLittleEndian(bytes, offset + 24));
+            }
+
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = PRIME_5;
+        }
+
+        hash += length;
+
+        for (; offset + 8 <= length; offset += 8) {
+            hash ^= round(0, Bytes.longLittleEndian(bytes, offset));
+            hash = Long.rotateLeft(hash, 27) * PRIME_1 + PRIME_4;
+        }
+
+        if (offset + 4 <= length) {
+            hash ^= (Bytes.intLittleEndian(bytes, offset) & 0xffffffffL) * PRIME_1;
+            hash = Long.rotateLeft(hash, 23) * PRIME_2 + PRIME_3;
+            offset += 4;
+        }
+
+        for (; offset < length; offset++) {
+            hash ^= (bytes[offset] & 0xff) * PRIME_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME_1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME_3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * @param accumulator The accumulator of a lane.
+     * @param input The next input of the lane.
+     * @return The new accumulator.
+     */
+    private static long round(long accumulator, long input) {
+        return Long.rotateLeft(accumulator + input * PRIME_2, 31) * PRIME_1;
+    }
+
+    /**
+     * @param hash The hash being merged into.
+     * @param accumulator The accumulator of a lane.
+     * @return The hash with the lane merged.
+     */
+    private static long mergeRound(long hash, long accumulator) {
+        return (hash ^ round(0, accumulator)) * PRIME_1 + PRIME_4;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.FlowFileFilter;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.util.MockFlowFile;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link BatchRouter}.
+ *
+ * @author Netanel Bitan
+ */
+public class BatchRouterTest {
+
+
+    /* --- Constants --- */
+
+    private static final Relationship FAILURE = new Relationship.Builder().name("failure").build();
+
+
+    /* --- Data Members --- */
+
+    private final KeyBuffer keyBuffer = new KeyBuffer();
+
+    private final Map<FlowFile, String> keys = Maps.newIdentityHashMap();
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldPlaceOnlyAcceptedFlowFiles() {
+        AtomicInteger placed = new AtomicInteger();
+        Partitioner modulo = new ModuloPartitioner(2);
+        DistributionTable table = new DistributionTable(2, ImmutableSet.of(FAILURE))
+                .withPartitioner(HashScheme.V2, HashFunction.MURMUR3_32, new Partitioner() {
+
+                    @Override
+                    public int partition(long hash) {
+                        placed.incrementAndGet();
+                        return modulo.partition(hash);
+                    }
+
+                    @Override
+                    public int peek(long hash) {
+                        return modulo.partition(hash);
+                    }
+
+                    @Override
+                    public void place(int partition) {
+                        placed.incrementAndGet();
+                    }
+                }, new RoutingCache(16), null);
+        List<FlowFile> queue = Lists.newArrayList(flowFile(keyOf(table, 1)), flowFile(keyOf(table, 0)),
+                flowFile(keyOf(table, 1)));
+
+        BatchRouter first = new BatchRouter(table, keyBuffer, keys::get, null, false);
+        assertEquals(1, pull(queue, first, ImmutableSet.of(table.destination(0), FAILURE)));
+        assertEquals(1, placed.get());
+        assertEquals(1, first.getCacheMisses());
+
+        for (int trigger = 0; trigger < 3; trigger++) {
+            BatchRouter router = new BatchRouter(table, keyBuffer, keys::get, null, false);
+            assertEquals(0, pull(queue, router, ImmutableSet.of(table.destination(0), FAILURE)));
+            assertEquals(0, router.getCacheMisses());
+        }
+
+        assertEquals(1, placed.get());
+    }
+
+    @Test
+    public void shouldNotHeatUpKeysLeftQueued() {
+        DistributionTable table = new DistributionTable(2, ImmutableSet.of(FAILURE)).withPartitioner(HashScheme.V2,
+                HashFunction.MURMUR3_32, new ModuloPartitioner(2), null, new HotKeySplitter(2, 0.5, 2, 1_000));
+        List<FlowFile> queue = Lists.newArrayList(flowFile(keyOf(table, 1)));
+
+        for (int trigger = 0; trigger < 1_000; trigger++) {
+            BatchRouter router = new BatchRouter(table, keyBuffer, keys::get, null, false);
+            assertEquals(0, pull(queue, router, ImmutableSet.of(table.destination(0), FAILURE)));
+        }
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * Pulls the flowfiles the filter of a router accepts out of a queue.
+     *
+     * @return The number of pulled flowfiles.
+     */
+    private static int pull(List<FlowFile> queue, BatchRouter router, Set<Relationship> available) {
+        FlowFileFilter filter = router.availableDestinationsFilter(available, queue.size(), FAILURE);
+        int pulled = 0;
+
+        for (Iterator<FlowFile> iterator = queue.iterator(); iterator.hasNext(); ) {
+            FlowFileFilter.FlowFileFilterResult result = filter.filter(iterator.next());
+
+            if (result.isAccept()) {
+                iterator.remove();
+                pulled++;
+            }
+
+            if (!result.isContinue()) {
+                break;
+            }
+        }
+
+        return pulled;
+    }
+
+    private FlowFile flowFile(String key) {
+        FlowFile flowFile = new MockFlowFile(keys.size());
+        keys.put(flowFile, key);
+        return flowFile;
+    }
+
+    private String keyOf(DistributionTable table, int partition) {
+        for (int i = 0; ; i++) {
+            if (table.peek("key " + i, keyBuffer) == partition) {
+                return "key " + i;
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link BoundedLoadPartitioner}.
+ *
+ * @author Netanel Bitan
+ */
+public class BoundedLoadPartitionerTest {
+
+
+    /* --- Constants --- */
+
+    /** The number of random keys to partition. */
+    private static final int KEYS_NUMBER = 100_000;
+
+    /** The number of virtual nodes of every partition. */
+    private static final int VIRTUAL_NODES = 100;
+
+    /** The maximal load of a partition, as a multiple of the average load. */
+    private static final double LOAD_BOUND = 1.25;
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldKeepKeysHomeUnderEvenLoad() {
+        HashRingPartitioner ring = new HashRingPartitioner(8, VIRTUAL_NODES);
+        BoundedLoadPartitioner partitioner = new BoundedLoadPartitioner(8, VIRTUAL_NODES, LOAD_BOUND, KEYS_NUMBER);
+        Random random = new Random(0);
+        int home = 0;
+
+        for (int i = 0; i < KEYS_NUMBER; i++) {
+            long hash = random.nextLong();
+
+            if (partitioner.partition(hash) == ring.partition(hash)) {
+                home++;
+            }
+        }
+
+        assertTrue(home > KEYS_NUMBER * 0.95);
+    }
+
+    @Test
+    public void shouldBoundLoadOfHotPartition() {
+        BoundedLoadPartitioner partitioner = new BoundedLoadPartitioner(4, VIRTUAL_NODES, LOAD_BOUND, 2 * KEYS_NUMBER);
+        Random random = new Random(0);
+        int[] counts = new int[4];
+
+        for (int i = 0; i < KEYS_NUMBER; i++) {
+            long hash = i % 2 == 0 ? 42 : random.nextLong();
+            counts[partitioner.partition(hash)]++;
+        }
+
+        for (int count : counts) {
+            assertTrue(count <= Math.ceil(LOAD_BOUND * KEYS_NUMBER / 4));
+        }
+    }
+
+    @Test
+    public void shouldSpillToNextPartitionOnTheRing() {
+        BoundedLoadPartitioner partitioner = new BoundedLoadPartitioner(2, 1, LOAD_BOUND, KEYS_NUMBER);
+        int home = partitioner.partition(42);
+
+        // The capacity is ceil(1.25 * placed / 2): 2 for the second key, still 2 for the third.
+        assertEquals(home, partitioner.partition(42));
+        assertEquals(1 - home, partitioner.partition(42));
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Statistical tests of the routing quality of every {@link DistributionStrategy}: how evenly millions of keys are
+ * spread over the relationships, by a chi-squared test and by the max/mean load ratio, how Zipf distributed traffic
+ * is spread, and which share of the keys moves when the relationships number grows or shrinks by one.
+ * Keys are routed end to end through a {@link DistributionTable} built by the processor from its default properties,
+ * the way it is built when the processor is scheduled. The keys are fixed, so the tests are deterministic and fail
+ * only on a routing regression.
+ *
+ * @author Netanel Bitan
+ */
+public class DistributionQualityTest {
+
+
+    /* --- Constants --- */
+
+    /** The number of distinct synthetic keys routed by the uniformity tests. */
+    private static final int KEYS_NUMBER = 1_000_000;
+
+    /** The number of flowfiles routed by the Zipf tests. */
+    private static final int ZIPF_FLOW_FILES = 1_000_000;
+
+    /** The number of distinct keys of the Zipf tests. */
+    private static final int ZIPF_KEYS = 100_000;
+
+    /** The exponent of the Zipf distribution, the usual web traffic skew. */
+    private static final double ZIPF_EXPONENT = 1.0;
+
+    /** The number of keys routed by the remap tests. */
+    private static final int REMAP_KEYS = 200_000;
+
+    /** The relationship numbers of the balance tests, a prime and a power of two. */
+    private static final int[] RELATIONSHIPS = {7, 32};
+
+    /** The relationships number the remap tests grow and shrink by one. */
+    private static final int REMAP_RELATIONSHIPS = 16;
+
+    /** The standard normal quantile of the chi-squared tests' significance level, 0.0001. */
+    private static final double CHI_SQUARED_Z = 3.719;
+
+    /** The highest max/mean load ratio of a strategy that spreads keys uniformly. */
+    private static final double MAX_IMBALANCE = 1.05;
+
+    /** The highest max/mean load ratio of a hash ring, whose arcs vary by about one over the root of the nodes. */
+    private static final double MAX_RING_IMBALANCE = 1.3;
+
+    /** The tolerance of the load bound, which is enforced over a decaying window rather than exactly. */
+    private static final double BOUND_TOLERANCE = 1.02;
+
+    /** The highest load beyond the heaviest Zipf key, in mean loads, the rest of the keys its relationship gets. */
+    private static final double MAX_ZIPF_EXCESS = 1.5;
+
+    /** The highest share of moved keys on a resize of a consistent strategy, relative to the minimal share. */
+    private static final double MAX_REMAP_OVERHEAD = 1.25;
+
+    /** The tolerance of the share of moved keys on a resize of a modulo based strategy, around the expected share. */
+    private static final double REMAP_TOLERANCE = 0.01;
+
+
+    /* --- Data Members --- */
+
+    /** The synthetic keys, shaped like typical ids. */
+    private static String[] keys;
+
+    /** The keys of the Zipf distributed flowfiles, in arrival order. */
+    private static String[] zipfKeys;
+
+    /** The number of flowfiles of the heaviest Zipf key. */
+    private static int heaviestKeyFlowFiles;
+
+
+    /* --- Setup --- */
+
+    @BeforeClass
+    public static void setupKeys() {
+        keys = new String[KEYS_NUMBER];
+
+        for (int index = 0; index < KEYS_NUMBER; index++) {
+            keys[index] = "customer-" + index;
+        }
+
+        double[] cumulative = new double[ZIPF_KEYS];
+        double total = 0;
+
+        for (int rank = 0; rank < ZIPF_KEYS; rank++) {
+            total += 1 / Math.pow(rank + 1, ZIPF_EXPONENT);
+            cumulative[rank] = total;
+        }
+
+        Random random = new Random(0);
+        int[] flowFiles = new int[ZIPF_KEYS];
+        zipfKeys = new String[ZIPF_FLOW_FILES];
+
+        for (int index = 0; index < ZIPF_FLOW_FILES; index++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            rank = rank < 0 ? -rank - 1 : rank;
+            zipfKeys[index] = keys[rank];
+            flowFiles[rank]++;
+        }
+
+        heaviestKeyFlowFiles = Arrays.stream(flowFiles).max().getAsInt();
+    }
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldSpreadKeysUniformly() {
+        for (DistributionStrategy strategy : DistributionStrategy.values()) {
+            for (int relationships : RELATIONSHIPS) {
+                long[] loads = loads(table(runner(strategy), relationships), keys);
+                String subject = strategy + " over " + relationships + " relationships";
+
+                if (isHashRing(strategy)) {
+                    assertTrue(subject + ": max/mean " + maxToMean(loads), maxToMean(loads) <= MAX_RING_IMBALANCE);
+                } else {
+                    assertTrue(subject + ": chi-squared " + chiSquared(loads),
+                            chiSquared(loads) <= chiSquaredCritical(relationships - 1));
+                    assertTrue(subject + ": max/mean " + maxToMean(loads), maxToMean(loads) <= MAX_IMBALANCE);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldSpreadZipfTrafficUpToTheHeaviestKey() {
+        for (DistributionStrategy strategy : DistributionStrategy.values()) {
+            for (int relationships : RELATIONSHIPS) {
+                TestRunner runner = runner(strategy);
+                long[] loads = loads(table(runner, relationships), zipfKeys);
+                String subject = strategy + " over " + relationships + " relationships";
+
+                if (strategy == DistributionStrategy.BOUNDED_LOAD_HASH_RING) {
+                    double loadBound = runner.getProcessContext().getProperty(SafeDistributor.LOAD_BOUND).asDouble();
+                    assertTrue(subject + ": max/mean " + maxToMean(loads),
+                            maxToMean(loads) <= loadBound * BOUND_TOLERANCE);
+                } else {
+                    double mean = (double) ZIPF_FLOW_FILES / relationships;
+                    double excess = (Arrays.stream(loads).max().getAsLong() - heaviestKeyFlowFiles) / mean;
+                    assertTrue(subject + ": excess over the heaviest key " + excess, excess <= MAX_ZIPF_EXCESS);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldMoveFewKeysWhenResized() {
+        for (DistributionStrategy strategy : DistributionStrategy.values()) {
+            double grown = movedShare(strategy, REMAP_RELATIONSHIPS + 1);
+            double shrunk = movedShare(strategy, REMAP_RELATIONSHIPS - 1);
+
+            if (isConsistent(strategy)) {
+                assertTrue(strategy + " moved " + grown + " when grown",
+                        grown <= MAX_REMAP_OVERHEAD / (REMAP_RELATIONSHIPS + 1));
+                assertTrue(strategy + " moved " + shrunk + " when shrunk",
+                        shrunk <= MAX_REMAP_OVERHEAD / REMAP_RELATIONSHIPS);
+            } else {
+                // A key stays only if its hash modulo both numbers agrees, one in the larger number of the keys.
+                assertEquals(strategy + " moved " + grown + " when grown",
+                        1 - 1.0 / (REMAP_RELATIONSHIPS + 1), grown, REMAP_TOLERANCE);
+                assertEquals(strategy + " moved " + shrunk + " when shrunk",
+                        1 - 1.0 / REMAP_RELATIONSHIPS, shrunk, REMAP_TOLERANCE);
+            }
+        }
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * @param strategy A distribution strategy.
+     * @return A runner of the processor with the strategy and otherwise the default properties.
+     */
+    private static TestRunner runner(DistributionStrategy strategy) {
+        TestRunner runner = TestRunners.newTestRunner(SafeDistributor.class);
+        runner.setProperty(SafeDistributor.ATTRIBUTE_NAME, "key");
+        runner.setProperty(SafeDistributor.DISTRIBUTION_STRATEGY, strategy.getAllowableValue().getValue());
+        return runner;
+    }
+
+    /**
+     * Builds the table the way the processor builds it when scheduled, so the strategy creates its partitioner from
+     * the runner's properties. A strategy that keeps its routing in the cluster state, like the slot table, resizes
+     * the table of the previous call on the same runner.
+     *
+     * @param runner A runner of the processor.
+     * @param relationships The number of relationships.
+     * @return The table routing by the runner's properties over the number of relationships.
+     */
+    private static DistributionTable table(TestRunner runner, int relationships) {
+        runner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, String.valueOf(relationships));
+        return SafeDistributor.partitionedTable(
+                new DistributionTable(relationships, ImmutableSet.of(SafeDistributor.FAILURE)),
+                runner.getProcessContext(), runner.getLogger(), null, null);
+    }
+
+    /**
+     * @param strategy A distribution strategy.
+     * @return Whether the strategy routes over a hash ring, balanced only up to the variance of its arcs.
+     */
+    private static boolean isHashRing(DistributionStrategy strategy) {
+        return strategy == DistributionStrategy.CONSISTENT_HASH_RING ||
+                strategy == DistributionStrategy.BOUNDED_LOAD_HASH_RING;
+    }
+
+    /**
+     * Fails for a strategy the suite doesn't know yet, so every new strategy has to be classified.
+     *
+     * @param strategy A distribution strategy.
+     * @return Whether the strategy moves only about the minimal share of the keys when the relationships number
+     * changes by one. Modulo based strategies move almost all of them by design.
+     */
+    private static boolean isConsistent(DistributionStrategy strategy) {
+        switch (strategy) {
+            case MODULO:
+            case KAFKA_PARTITIONER:
+                return false;
+            case CONSISTENT_HASH_RING:
+            case BOUNDED_LOAD_HASH_RING:
+            case JUMP_CONSISTENT_HASH:
+            case WEIGHTED_RENDEZVOUS_HASH:
+            case MAGLEV:
+            case SLOT_TABLE:
+                return true;
+            default:
+                throw new AssertionError("The quality suite doesn't cover " + strategy);
+        }
+    }
+
+    /**
+     * @param table The table to route by.
+     * @param routedKeys The keys of the routed flowfiles.
+     * @return The number of flowfiles routed to every relationship.
+     */
+    private static long[] loads(DistributionTable table, String[] routedKeys) {
+        KeyBuffer buffer = new KeyBuffer();
+        long[] loads = new long[table.size()];
+
+        for (String key : routedKeys) {
+            loads[table.partition(key, buffer)]++;
+        }
+
+        return loads;
+    }
+
+    /**
+     * @param strategy A distribution strategy.
+     * @param relationships The number of relationships to resize to from {@link #REMAP_RELATIONSHIPS}.
+     * @return The share of the keys routed to a different relationship after the resize.
+     */
+    private static double movedShare(DistributionStrategy strategy, int relationships) {
+        TestRunner runner = runner(strategy);
+        DistributionTable before = table(runner, REMAP_RELATIONSHIPS);
+        DistributionTable after = table(runner, relationships);
+        KeyBuffer buffer = new KeyBuffer();
+        int moved = 0;
+
+        for (int index = 0; index < REMAP_KEYS; index++) {
+            if (before.partition(keys[index], buffer) != after.partition(keys[index], buffer)) {
+                moved++;
+            }
+        }
+
+        return (double) moved / REMAP_KEYS;
+    }
+
+    /**
+     * @param loads The number of flowfiles routed to every relationship.
+     * @return Pearson's chi-squared statistic of the loads against a uniform spread.
+     */
+    private static double chiSquared(long[] loads) {
+        double expected = (double) Arrays.stream(loads).sum() / loads.length;
+        double statistic = 0;
+
+        for (long load : loads) {
+            statistic += (load - expected) * (load - expected) / expected;
+        }
+
+        return statistic;
+    }
+
+    /**
+     * The Wilson-Hilferty approximation of the chi-squared quantile, accurate enough from a few degrees of freedom.
+     *
+     * @param degreesOfFreedom The degrees of freedom.
+     * @return The critical value of the chi-squared tests.
+     */
+    private static double chiSquaredCritical(int degreesOfFreedom) {
+        double variance = 2.0 / (9 * degreesOfFreedom);
+        return degreesOfFreedom * Math.pow(1 - variance + CHI_SQUARED_Z * Math.sqrt(variance), 3);
+    }
+
+    /**
+     * @param loads The number of flowfiles routed to every relationship.
+     * @return The ratio of the highest load to the mean load.
+     */
+    private static double maxToMean(long[] loads) {
+        return Arrays.stream(loads).max().getAsLong() * loads.length / (double) Arrays.stream(loads).sum();
+    }
+}
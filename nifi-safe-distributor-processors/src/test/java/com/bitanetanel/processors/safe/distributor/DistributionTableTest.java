@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link DistributionTable}.
+ *
+ * @author Netanel Bitan
+ */
+public class DistributionTableTest {
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldRouteCompositeKeyLikeItsJoinedFields() {
+        KeyBuffer buffer = new KeyBuffer();
+
+        for (HashFunction hashFunction : new HashFunction[]{HashFunction.MURMUR3_32, HashFunction.XXHASH64}) {
+            DistributionTable table = new DistributionTable(64, ImmutableSet.of())
+                    .withPartitioner(HashScheme.V2, hashFunction, new ModuloPartitioner(64), null, null);
+
+            for (int i = 0; i < 1_000; i++) {
+                String[] fields = {"tenant " + i % 7, "device \u00e9" + i};
+                assertEquals(table.partition(String.join("\0", fields), buffer), table.partition(fields, buffer));
+            }
+        }
+    }
+
+    @Test
+    public void shouldSeparateCompositeKeyFields() {
+        DistributionTable table = new DistributionTable(1 << 16, ImmutableSet.of())
+                .withPartitioner(HashScheme.V2, HashFunction.XXHASH64, new ModuloPartitioner(1 << 16), null, null);
+        KeyBuffer buffer = new KeyBuffer();
+        int collisions = 0;
+
+        for (int i = 0; i < 100; i++) {
+            String key = "key" + i;
+
+            int partition = table.partition(new String[]{key, "a"}, buffer);
+
+            if (partition == table.partition(new String[]{key + "a", ""}, buffer)) {
+                collisions++;
+            }
+        }
+
+        assertEquals(0, collisions);
+    }
+}
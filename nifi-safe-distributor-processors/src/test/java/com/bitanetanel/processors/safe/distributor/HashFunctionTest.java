@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Golden vector tests for {@link HashFunction}.
+ * The hashes decide the routing of every key, so these values must never change between releases.
+ *
+ * @author Netanel Bitan
+ */
+public class HashFunctionTest {
+
+
+    /* --- Constants --- */
+
+    /** The keys the golden vectors were computed for. */
+    private static final String[] KEYS = {"", "a", "abc", "123456789", "foobar", "Nobody inspects the spammish repetition"};
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldMatchMurmur3_32GoldenVectors() {
+        assertGoldenVectors(HashFunction.MURMUR3_32,
+                0L, 1009084850L, -1277324294L, -1258359934L, -1530604355L, 824637155L);
+    }
+
+    @Test
+    public void shouldMatchMurmur3_128GoldenVectors() {
+        assertGoldenVectors(HashFunction.MURMUR3_128,
+                0x0000000000000000L, 0x85555565f6597889L, 0xb4963f3f3fad7867L, 0x3c84645edb66cca4L,
+                0xbdd2ae7116c85a45L, 0x2abb2a444585bf0bL);
+    }
+
+    @Test
+    public void shouldMatchXxHash64GoldenVectors() {
+        assertGoldenVectors(HashFunction.XXHASH64,
+                0xef46db3751d8e999L, 0xd24ec4f1a98c6e5bL, 0x44bc2cf5ad770999L, 0x8cb841db40e6ae83L,
+                0xa2aa05ed9085aaf9L, 0xfbcea83c8a378bf1L);
+    }
+
+    @Test
+    public void shouldMatchCrc32cGoldenVectors() {
+        assertGoldenVectors(HashFunction.CRC32C,
+                0x00000000L, 0xc1d04330L, 0x364b3fb7L, 0xe3069283L, 0x0d5f5c7fL, 0x2cc89212L);
+    }
+
+    @Test
+    public void shouldMatchFnv1a64GoldenVectors() {
+        assertGoldenVectors(HashFunction.FNV1A_64,
+                0xcbf29ce484222325L, 0xaf63dc4c8601ec8cL, 0xe71fa2190541574bL, 0x06d5573923c6cdfcL,
+                0x85944171f73967e8L, 0x0637a291fd6c205bL);
+    }
+
+    @Test
+    public void shouldMatchKafkaMurmur2GoldenVectors() {
+        assertGoldenVectors(HashFunction.KAFKA_MURMUR2,
+                275646681L, -1563381124L, 479470107L, -1822237082L, -790332482L, 2070616377L);
+    }
+
+    @Test
+    public void shouldUseStrategyDefaultFunction() {
+        assertEquals(HashFunction.MURMUR3_32,
+                HashFunction.of(HashFunction.STRATEGY_DEFAULT.getValue(), DistributionStrategy.MODULO));
+        assertEquals(HashFunction.MURMUR3_128,
+                HashFunction.of(HashFunction.STRATEGY_DEFAULT.getValue(), DistributionStrategy.JUMP_CONSISTENT_HASH));
+        assertEquals(HashFunction.XXHASH64, HashFunction.of("xxHash64", DistributionStrategy.JUMP_CONSISTENT_HASH));
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * Asserts the hashes of {@link #KEYS}.
+     *
+     * @param function The function to check.
+     * @param expected The expected hash of every key.
+     */
+    private void assertGoldenVectors(HashFunction function, long... expected) {
+        for (int i = 0; i < KEYS.length; i++) {
+            byte[] bytes = KEYS[i].getBytes(StandardCharsets.UTF_8);
+            assertEquals(KEYS[i], expected[i], function.hash(bytes, bytes.length));
+        }
+    }
+}
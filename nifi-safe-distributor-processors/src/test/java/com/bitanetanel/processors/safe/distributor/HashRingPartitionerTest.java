@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link HashRingPartitioner}.
+ *
+ * @author Netanel Bitan
+ */
+public class HashRingPartitionerTest {
+
+
+    /* --- Constants --- */
+
+    /** The number of random keys to partition. */
+    private static final int KEYS_NUMBER = 100_000;
+
+    /** The number of virtual nodes of every partition. */
+    private static final int VIRTUAL_NODES = 100;
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldPartitionInRange() {
+        HashRingPartitioner partitioner = new HashRingPartitioner(5, VIRTUAL_NODES);
+        Random random = new Random(0);
+
+        for (int i = 0; i < KEYS_NUMBER; i++) {
+            int partition = partitioner.partition(random.nextLong());
+            assertTrue(partition >= 0 && partition < 5);
+        }
+    }
+
+    @Test
+    public void shouldMoveOnlyKeysOfTheAddedPartition() {
+        HashRingPartitioner before = new HashRingPartitioner(8, VIRTUAL_NODES);
+        HashRingPartitioner after = new HashRingPartitioner(9, VIRTUAL_NODES);
+        Random random = new Random(0);
+        int moved = 0;
+
+        for (int i = 0; i < KEYS_NUMBER; i++) {
+            long hash = random.nextLong();
+            int oldPartition = before.partition(hash);
+            int newPartition = after.partition(hash);
+
+            if (oldPartition != newPartition) {
+                assertEquals(8, newPartition);
+                moved++;
+            }
+        }
+
+        assertEquals(1.0 / 9, (double) moved / KEYS_NUMBER, 0.05);
+    }
+
+    @Test
+    public void shouldBalanceKeys() {
+        HashRingPartitioner partitioner = new HashRingPartitioner(8, VIRTUAL_NODES);
+        Random random = new Random(0);
+        int[] counts = new int[8];
+
+        for (int i = 0; i < KEYS_NUMBER; i++) {
+            counts[partitioner.partition(random.nextInt())]++;
+        }
+
+        for (int count : counts) {
+            assertEquals(1.0 / 8, (double) count / KEYS_NUMBER, 0.05);
+        }
+    }
+}
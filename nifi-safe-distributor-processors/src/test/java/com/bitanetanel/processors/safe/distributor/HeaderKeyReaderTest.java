@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link HeaderKeyReader}.
+ *
+ * @author Netanel Bitan
+ */
+public class HeaderKeyReaderTest {
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldReadKeyByOffsetAndLength() throws IOException {
+        HeaderKeyReader reader = new HeaderKeyReader(KeySource.HEADER_OFFSET, 1024, 4, 6, null, null);
+        assertEquals("tenant", read(reader, "v01:tenant:rest of the content"));
+        assertNull(read(reader, "v01:ten"));
+    }
+
+    @Test
+    public void shouldReadOnlyUpToTheEndOfTheOffsetKey() throws IOException {
+        HeaderKeyReader reader = new HeaderKeyReader(KeySource.HEADER_OFFSET, 1024, 4, 6, null, null);
+        CountingInputStream in = new CountingInputStream("v01:tenant:" + repeat('x', 10_000), Integer.MAX_VALUE);
+        assertEquals("tenant", reader.read(in));
+        assertEquals(10, in.count);
+
+        CountingInputStream smallReads = new CountingInputStream("v01:tenant:" + repeat('x', 10_000), 1);
+        assertEquals("tenant", reader.read(smallReads));
+        assertEquals(10, smallReads.count);
+    }
+
+    @Test
+    public void shouldReadKeyUpToDelimiter() throws IOException {
+        HeaderKeyReader reader = new HeaderKeyReader(KeySource.HEADER_DELIMITER, 16, 2, 0, "||", null);
+        assertEquals("tenant", read(reader, "> tenant||rest of the content"));
+        assertEquals("whole", read(reader, "> whole"));
+        assertNull(read(reader, "> a key longer than the header||"));
+    }
+
+    @Test
+    public void shouldFindDelimiterSplitBetweenSmallReads() throws IOException {
+        HeaderKeyReader reader = new HeaderKeyReader(KeySource.HEADER_DELIMITER, 1024, 2, 0, "||", null);
+        CountingInputStream in = new CountingInputStream("> " + repeat('k', 500) + "||" + repeat('x', 10_000), 1);
+        assertEquals(repeat('k', 500), reader.read(in));
+        assertEquals(504, in.count);
+        assertEquals("tenant", reader.read(new CountingInputStream("> tenant||", 1)));
+    }
+
+    @Test
+    public void shouldReadTopLevelJsonField() throws IOException {
+        HeaderKeyReader reader = new HeaderKeyReader(KeySource.HEADER_JSON_FIELD, 1024, 0, 0, null, "tenant");
+        assertEquals("acme", read(reader, "{\"id\": 1, \"tenant\": \"acme\", \"body\": \"...\"}"));
+        assertEquals("acme", read(reader,
+                "{\"nested\": {\"tenant\": \"other\"}, \"list\": [\"tenant\"], \"tenant\": \"acme\"}"));
+        assertEquals("42", read(reader, " {\"tenant\":42}"));
+        assertEquals("a\"c\u00e9", read(reader, "{\"tenant\": \"a\\\"c\\u00e9\"}"));
+        assertNull(read(reader, "{\"tenant\": null}"));
+        assertNull(read(reader, "{\"tenant\": {\"id\": 1}}"));
+        assertNull(read(reader, "{\"id\": \"tenant\"}"));
+        assertNull(read(reader, "[{\"tenant\": \"acme\"}]"));
+    }
+
+    @Test
+    public void shouldNotReadJsonFieldCutByTheHeader() throws IOException {
+        HeaderKeyReader reader = new HeaderKeyReader(KeySource.HEADER_JSON_FIELD, 16, 0, 0, null, "tenant");
+        assertNull(read(reader, "{\"tenant\": \"acme corporation\"}"));
+        assertNull(read(reader, "{\"tenant\": 12345678901}"));
+        assertEquals("1234", read(reader, "{\"tenant\": 1234}"));
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * @param reader The reader of the key.
+     * @param content The content to read the key from.
+     * @return The key of the content.
+     * @throws IOException If the content can't be read.
+     */
+    private static String read(HeaderKeyReader reader, String content) throws IOException {
+        return reader.read(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @param character The character to repeat.
+     * @param times The number of times to repeat it.
+     * @return The repeated character.
+     */
+    private static String repeat(char character, int times) {
+        StringBuilder builder = new StringBuilder(times);
+
+        for (int i = 0; i < times; i++) {
+            builder.append(character);
+        }
+
+        return builder.toString();
+    }
+
+
+    /* --- Inner Classes --- */
+
+    /**
+     * A stream of a string that counts the bytes read from it, and returns at most a chunk per read.
+     */
+    private static final class CountingInputStream extends InputStream {
+
+        /** The content of the stream. */
+        private final InputStream in;
+
+        /** The maximal number of bytes returned by a read. */
+        private final int chunk;
+
+        /** The number of bytes read. */
+        private int count;
+
+        /**
+         * @param content The content of the stream.
+         * @param chunk The maximal number of bytes returned by a read.
+         */
+        CountingInputStream(String content, int chunk) {
+            in = new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = in.read();
+            count += read < 0 ? 0 : 1;
+            return read;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = in.read(bytes, offset, Math.min(length, chunk));
+            count += Math.max(read, 0);
+            return read;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link HotKeySplitter}.
+ *
+ * @author Netanel Bitan
+ */
+public class HotKeySplitterTest {
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldKeepColdKeysHome() {
+        HotKeySplitter splitter = new HotKeySplitter(8, 0.1, 4, 100_000);
+
+        for (int i = 0; i < 10_000; i++) {
+            int route = splitter.route("key " + i, i % 8);
+            assertFalse(BatchRouter.isSplit(route));
+            assertEquals(i % 8, BatchRouter.partitionOf(route));
+        }
+    }
+
+    @Test
+    public void shouldSpreadHotKeyOverSpreadPartitions() {
+        HotKeySplitter splitter = new HotKeySplitter(8, 0.1, 3, 10_000);
+        Set<Integer> partitions = new TreeSet<>();
+        int split = 0;
+
+        for (int i = 0; i < 10_000; i++) {
+            splitter.route("key " + i, i % 8);
+            int route = splitter.route("hot", 5);
+
+            if (BatchRouter.isSplit(route)) {
+                split++;
+            }
+
+            partitions.add(BatchRouter.partitionOf(route));
+        }
+
+        assertTrue(split > 9_000);
+        assertTrue(partitions.contains(5));
+        assertTrue(partitions.size() > 1 && partitions.size() <= 3);
+    }
+
+    @Test
+    public void shouldSpreadEveryHotKeyOverDistinctPartitions() {
+        for (int partitions = 2; partitions <= 8; partitions++) {
+            for (int spread = 2; spread <= partitions; spread++) {
+                for (int key = 0; key < 20; key++) {
+                    HotKeySplitter splitter = new HotKeySplitter(partitions, 0.5, spread, 1_000);
+                    int home = key % partitions;
+                    Set<Integer> used = new TreeSet<>();
+
+                    for (int i = 0; i < 2_000; i++) {
+                        used.add(BatchRouter.partitionOf(splitter.route("hot " + key, home)));
+                    }
+
+                    assertTrue(used.contains(home));
+                    assertEquals(spread, used.size());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldNotSplitWithSpreadOfOne() {
+        HotKeySplitter splitter = new HotKeySplitter(8, 0.1, 1, 100_000);
+
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(2, splitter.route("hot", 2));
+        }
+    }
+
+    @Test
+    public void shouldCoolDownAfterWindow() {
+        HotKeySplitter splitter = new HotKeySplitter(8, 0.2, 2, 1_000);
+
+        for (int i = 0; i < 1_000; i++) {
+            splitter.route("hot", 1);
+        }
+
+        int split = 0;
+
+        for (int i = 0; i < 20_000; i++) {
+            splitter.route("key " + i, 0);
+        }
+
+        for (int i = 0; i < 10; i++) {
+            if (BatchRouter.isSplit(splitter.route("hot", 1))) {
+                split++;
+            }
+        }
+
+        assertEquals(0, split);
+    }
+}
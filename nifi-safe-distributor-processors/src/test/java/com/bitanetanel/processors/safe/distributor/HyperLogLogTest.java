@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link HyperLogLog}.
+ *
+ * @author Netanel Bitan
+ */
+public class HyperLogLogTest {
+
+
+    /* --- Constants --- */
+
+    /** The precision of the tested estimators, the one of the key statistics. */
+    private static final int PRECISION = 10;
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldEstimateFewDistinctKeys() {
+        HyperLogLog hyperLogLog = new HyperLogLog(PRECISION);
+
+        for (int repeat = 0; repeat < 100; repeat++) {
+            for (int key = 0; key < 50; key++) {
+                hyperLogLog.add(Hashes.fmix64(("key" + key).hashCode()));
+            }
+        }
+
+        assertEquals(50, hyperLogLog.estimate(), 2);
+    }
+
+    @Test
+    public void shouldEstimateManyDistinctKeys() {
+        HyperLogLog hyperLogLog = new HyperLogLog(PRECISION);
+
+        for (int key = 0; key < 1_000_000; key++) {
+            hyperLogLog.add(Hashes.fmix64(("key" + key).hashCode()));
+        }
+
+        assertEquals(1_000_000, hyperLogLog.estimate(), 1_000_000 * 0.1);
+    }
+
+    @Test
+    public void shouldForgetKeysWhenReset() {
+        HyperLogLog hyperLogLog = new HyperLogLog(PRECISION);
+        hyperLogLog.add(Hashes.fmix64("key".hashCode()));
+        hyperLogLog.reset();
+        assertEquals(0, hyperLogLog.estimate());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.components.state.StateManager;
+import org.apache.nifi.components.state.StateMap;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A versioned state manager kept in memory, for a single scope.
+ *
+ * @author Netanel Bitan
+ */
+final class InMemoryStateManager implements StateManager {
+
+
+    /* --- Data Members --- */
+
+    /** The current state. */
+    private Map<String, String> state = Collections.emptyMap();
+
+    /** The version of the current state, -1 before it is first set. */
+    private long version = -1;
+
+
+    /* --- StateManager Implementation --- */
+
+    @Override
+    public void setState(Map<String, String> state, Scope scope) {
+        this.state = ImmutableMap.copyOf(state);
+        version++;
+    }
+
+    @Override
+    public StateMap getState(Scope scope) {
+        Map<String, String> snapshot = state;
+        long snapshotVersion = version;
+
+        return new StateMap() {
+            @Override
+            public long getVersion() {
+                return snapshotVersion;
+            }
+
+            @Override
+            public String get(String key) {
+                return snapshot.get(key);
+            }
+
+            @Override
+            public Map<String, String> toMap() {
+                return snapshot;
+            }
+        };
+    }
+
+    @Override
+    public boolean replace(StateMap oldValue, Map<String, String> newValue, Scope scope) {
+        if (oldValue.getVersion() != version) {
+            return false;
+        }
+
+        setState(newValue, scope);
+        return true;
+    }
+
+    @Override
+    public void clear(Scope scope) {
+        setState(Maps.newHashMap(), scope);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.hash.Hashing;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link JumpPartitioner}.
+ *
+ * @author Netanel Bitan
+ */
+public class JumpPartitionerTest {
+
+
+    /* --- Constants --- */
+
+    /** The number of random keys to partition. */
+    private static final int KEYS_NUMBER = 100_000;
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldMatchReferenceImplementation() {
+        Random random = new Random(0);
+
+        for (int partitions = 1; partitions <= 1024; partitions *= 2) {
+            JumpPartitioner partitioner = new JumpPartitioner(partitions);
+
+            for (int i = 0; i < 1_000; i++) {
+                long hash = random.nextLong();
+                assertEquals(Hashing.consistentHash(hash, partitions), partitioner.partition(hash));
+            }
+        }
+    }
+
+    @Test
+    public void shouldMoveOnlyKeysToTheAddedPartition() {
+        JumpPartitioner before = new JumpPartitioner(8);
+        JumpPartitioner after = new JumpPartitioner(9);
+        Random random = new Random(0);
+        int moved = 0;
+
+        for (int i = 0; i < KEYS_NUMBER; i++) {
+            long hash = random.nextLong();
+            int newPartition = after.partition(hash);
+
+            if (before.partition(hash) != newPartition) {
+                assertEquals(8, newPartition);
+                moved++;
+            }
+        }
+
+        assertEquals(1.0 / 9, (double) moved / KEYS_NUMBER, 0.01);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compatibility tests of {@link KafkaPartitioner} with Kafka's default partitioner.
+ * The keys and murmur2 values are the vectors of Kafka's own {@code UtilsTest.testMurmur2}, and the expected
+ * partitions are {@code Utils.toPositive(murmur2) % partitions} for 3, 6, 12 and 100 partitions.
+ *
+ * @author Netanel Bitan
+ */
+public class KafkaPartitionerTest {
+
+
+    /* --- Constants --- */
+
+    /** The numbers of partitions the vectors were computed for. */
+    private static final int[] PARTITIONS = {3, 6, 12, 100};
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldMatchKafkaMurmur2Vectors() {
+        assertMurmur2("21", -973932308);
+        assertMurmur2("foobar", -790332482);
+        assertMurmur2("a-little-bit-long-string", -985981536);
+        assertMurmur2("a-little-bit-longer-string", -1486304829);
+        assertMurmur2("lkjh234lh9fiuh90y23oiuhsafujhadof229phr9h19h89h8", -58897971);
+        assertMurmur2("abc", 479470107);
+    }
+
+    @Test
+    public void shouldMatchKafkaPartitions() {
+        assertPartitions("21", 0, 0, 0, 40);
+        assertPartitions("foobar", 0, 0, 6, 66);
+        assertPartitions("a-little-bit-long-string", 2, 2, 8, 12);
+        assertPartitions("a-little-bit-longer-string", 2, 5, 11, 19);
+        assertPartitions("lkjh234lh9fiuh90y23oiuhsafujhadof229phr9h19h89h8", 2, 5, 5, 77);
+        assertPartitions("abc", 0, 3, 3, 7);
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * @param key The key to hash.
+     * @param expected The murmur2 hash Kafka gives the key.
+     */
+    private void assertMurmur2(String key, int expected) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        assertEquals(key, expected, HashFunction.KAFKA_MURMUR2.hash(bytes, bytes.length));
+    }
+
+    /**
+     * @param key The key to partition.
+     * @param expected The partition Kafka gives the key for every number of {@link #PARTITIONS}.
+     */
+    private void assertPartitions(String key, int... expected) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = HashFunction.KAFKA_MURMUR2.hash(bytes, bytes.length);
+
+        for (int i = 0; i < PARTITIONS.length; i++) {
+            assertEquals(key, expected[i], new KafkaPartitioner(PARTITIONS[i]).partition(hash));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Tests for {@link KeyBuffer}.
+ *
+ * @author Netanel Bitan
+ */
+public class KeyBufferTest {
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldEncodeLikeStringGetBytes() {
+        KeyBuffer buffer = new KeyBuffer();
+
+        for (String value : new String[]{"", "ascii", "\u00e9t\u00e9", "\u05e9\u05dc\u05d5\u05dd", "\ud83d\ude00 emoji",
+                "lone \ud83d high", "lone \ude00 low", "trailing \ud83d"}) {
+            assertEncodedLikeGetBytes(buffer, value);
+        }
+    }
+
+    @Test
+    public void shouldEncodeRandomCharactersLikeStringGetBytes() {
+        KeyBuffer buffer = new KeyBuffer();
+        Random random = new Random(0);
+
+        for (int i = 0; i < 10_000; i++) {
+            char[] chars = new char[random.nextInt(200)];
+
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) random.nextInt(Character.MAX_VALUE + 1);
+            }
+
+            assertEncodedLikeGetBytes(buffer, new String(chars));
+        }
+    }
+
+    @Test
+    public void shouldAppendAfterExistingBytes() {
+        KeyBuffer buffer = new KeyBuffer().clear().appendUtf8("tenant").append(new byte[]{0}).appendUtf8("device");
+        assertArrayEquals("tenant\u0000device".getBytes(StandardCharsets.UTF_8),
+                Arrays.copyOf(buffer.bytes(), buffer.length()));
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * Asserts that the buffer encodes the value to the same bytes as the JDK's UTF-8 encoder.
+     *
+     * @param buffer The buffer to encode into.
+     * @param value The value to encode.
+     */
+    private void assertEncodedLikeGetBytes(KeyBuffer buffer, String value) {
+        buffer.clear().appendUtf8(value);
+        assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), Arrays.copyOf(buffer.bytes(), buffer.length()));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LineReader}.
+ *
+ * @author Netanel Bitan
+ */
+public class LineReaderTest {
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldKeepLineTerminators() throws IOException {
+        assertEquals(Lists.newArrayList("first\n", "second\r\n", "\n", "last"), lines("first\nsecond\r\n\nlast", 4));
+    }
+
+    @Test
+    public void shouldReadLinesLongerThanTheBuffer() throws IOException {
+        StringBuilder line = new StringBuilder();
+
+        for (int i = 0; i < 1000; i++) {
+            line.append(i % 10);
+        }
+
+        assertEquals(Lists.newArrayList(line + "\n", "short\n"), lines(line + "\nshort\n", 3));
+    }
+
+    @Test
+    public void shouldStripTerminatorsFromContentLength() throws IOException {
+        LineReader reader = reader("a\r\nb\nc", 16);
+
+        assertTrue(reader.next());
+        assertEquals(1, reader.contentLength());
+        assertTrue(reader.next());
+        assertEquals(1, reader.contentLength());
+        assertTrue(reader.next());
+        assertEquals(1, reader.contentLength());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void shouldReadNoLinesFromEmptyStream() throws IOException {
+        assertFalse(reader("", 16).next());
+    }
+
+    @Test
+    public void shouldReadLinesOfTheMaximalLength() throws IOException {
+        LineReader reader = reader("12345\n1234", 2, 6);
+
+        assertTrue(reader.next());
+        assertEquals(6, reader.length());
+        assertTrue(reader.next());
+        assertEquals(4, reader.length());
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectLinesLongerThanTheMaximalLength() throws IOException {
+        reader("123456\n", 2, 6).next();
+    }
+
+    @Test
+    public void shouldDecodeLineContentIntoReusedBuffer() throws IOException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        LineReader reader = reader("caf\u00e9\r\n" + longLine() + "\nend", 16);
+
+        assertTrue(reader.next());
+        assertEquals("caf\u00e9", reader.decode(decoder).toString());
+        assertTrue(reader.next());
+        assertEquals(longLine(), reader.decode(decoder).toString());
+        assertTrue(reader.next());
+        assertEquals("end", reader.decode(decoder).toString());
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * @param content    The content to read.
+     * @param bufferSize The size of the read buffer.
+     * @return A reader of the content.
+     */
+    private LineReader reader(String content, int bufferSize) {
+        return reader(content, bufferSize, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param content       The content to read.
+     * @param bufferSize    The size of the read buffer.
+     * @param maxLineLength The maximal length of a line.
+     * @return A reader of the content.
+     */
+    private LineReader reader(String content, int bufferSize, int maxLineLength) {
+        return new LineReader(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), bufferSize,
+                maxLineLength);
+    }
+
+    /**
+     * @return A line longer than the initial line buffer.
+     */
+    private static String longLine() {
+        StringBuilder line = new StringBuilder();
+
+        for (int i = 0; i < 1000; i++) {
+            line.append(i % 10);
+        }
+
+        return line.toString();
+    }
+
+    /**
+     * @param content    The content to read.
+     * @param bufferSize The size of the read buffer.
+     * @return The lines of the content, their terminators included.
+     * @throws IOException If the content can't be read.
+     */
+    private List<String> lines(String content, int bufferSize) throws IOException {
+        LineReader reader = reader(content, bufferSize);
+        List<String> lines = Lists.newArrayList();
+
+        while (reader.next()) {
+            lines.add(new String(reader.bytes(), 0, reader.length(), StandardCharsets.UTF_8));
+        }
+
+        return lines;
+    }
+}
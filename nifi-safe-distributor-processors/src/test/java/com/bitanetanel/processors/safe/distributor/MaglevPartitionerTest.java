@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link MaglevPartitioner}.
+ *
+ * @author Netanel Bitan
+ */
+public class MaglevPartitionerTest {
+
+
+    /* --- Constants --- */
+
+    /** The number of random keys to partition. */
+    private static final int KEYS_NUMBER = 100_000;
+
+    /** The size of the lookup table. */
+    private static final int TABLE_SIZE = 65537;
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldBalanceKeys() {
+        MaglevPartitioner partitioner = new MaglevPartitioner(8, TABLE_SIZE);
+        Random random = new Random(0);
+        int[] counts = new int[8];
+
+        for (int i = 0; i < KEYS_NUMBER; i++) {
+            counts[partitioner.partition(random.nextInt())]++;
+        }
+
+        for (int count : counts) {
+            assertEquals(1.0 / 8, (double) count / KEYS_NUMBER, 0.01);
+        }
+    }
+
+    @Test
+    public void shouldMoveFewKeysWhenAddingPartition() {
+        MaglevPartitioner before = new MaglevPartitioner(8, TABLE_SIZE);
+        MaglevPartitioner after = new MaglevPartitioner(9, TABLE_SIZE);
+        Random random = new Random(0);
+        int moved = 0;
+
+        for (int i = 0; i < KEYS_NUMBER; i++) {
+            long hash = random.nextLong();
+
+            if (before.partition(hash) != after.partition(hash)) {
+                moved++;
+            }
+        }
+
+        assertTrue((double) moved / KEYS_NUMBER < 0.2);
+    }
+
+    @Test(timeout = 10_000)
+    public void shouldBuildLargeTable() {
+        MaglevPartitioner partitioner = new MaglevPartitioner(1024, TABLE_SIZE);
+        assertTrue(partitioner.partition(0) < 1024);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailOnTableSmallerThanPartitions() {
+        new MaglevPartitioner(8, 7);
+    }
+}
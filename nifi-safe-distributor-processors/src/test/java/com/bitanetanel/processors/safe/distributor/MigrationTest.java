@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link Migration}.
+ *
+ * @author Netanel Bitan
+ */
+public class MigrationTest {
+
+
+    /* --- Constants --- */
+
+    /** A time longer than any test. */
+    private static final long HOUR = TimeUnit.HOURS.toNanos(1);
+
+
+    /* --- Data Members --- */
+
+    private final DistributionTable before = new DistributionTable(2, ImmutableSet.of());
+
+    private final DistributionTable after = new DistributionTable(3, ImmutableSet.of());
+
+    private final KeyBuffer buffer = new KeyBuffer();
+
+    private final AtomicLong now = new AtomicLong();
+
+    private final Ticker ticker = new Ticker() {
+
+        @Override
+        public long read() {
+            return now.get();
+        }
+    };
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldRouteUnmovedKeyToItsPartition() {
+        Migration migration = new Migration(before, 1, 3, HOUR, HOUR);
+        String key = key(false);
+        int partition = after.partition(key, buffer);
+
+        assertEquals(partition, migration.route(key, partition, buffer));
+    }
+
+    @Test
+    public void shouldDrainMovedKeyToItsPreviousPartition() {
+        Migration migration = new Migration(before, 1, 3, HOUR, HOUR);
+        String key = key(true);
+        int route = migration.route(key, after.partition(key, buffer), buffer);
+
+        assertTrue(BatchRouter.isDraining(route));
+        assertEquals(before.partition(key, buffer), BatchRouter.partitionOf(route));
+    }
+
+    @Test
+    public void shouldSwitchIdleKey() {
+        Migration migration = new Migration(before, 1, 3, TimeUnit.MILLISECONDS.toNanos(20), HOUR, ticker);
+        String key = key(true);
+        int partition = after.partition(key, buffer);
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(19));
+        assertTrue(BatchRouter.isDraining(migration.route(key, partition, buffer)));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(19));
+        assertTrue(BatchRouter.isDraining(migration.route(key, partition, buffer)));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(partition, migration.route(key, partition, buffer));
+        assertEquals(partition, migration.route(key, partition, buffer));
+    }
+
+    @Test
+    public void shouldSwitchKeyGracePeriodAfterItWasFirstSeen() {
+        Migration migration = new Migration(before, 1, 3, HOUR, TimeUnit.MILLISECONDS.toNanos(20), ticker);
+        String key = key(true);
+        int partition = after.partition(key, buffer);
+
+        assertTrue(BatchRouter.isDraining(migration.route(key, partition, buffer)));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+        String laterKey = key(true, key);
+        int laterPartition = after.partition(laterKey, buffer);
+        assertTrue(BatchRouter.isDraining(migration.route(laterKey, laterPartition, buffer)));
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(partition, migration.route(key, partition, buffer));
+        assertTrue(BatchRouter.isDraining(migration.route(laterKey, laterPartition, buffer)));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(laterPartition, migration.route(laterKey, laterPartition, buffer));
+    }
+
+    @Test
+    public void shouldBeOverOnceAllSeenKeysSwitched() {
+        Migration migration = new Migration(before, 1, 3, TimeUnit.MILLISECONDS.toNanos(20), HOUR, ticker);
+        String key = key(true);
+        int partition = after.partition(key, buffer);
+
+        migration.route(key, partition, buffer);
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+        assertTrue(BatchRouter.isDraining(migration.route(key, partition, buffer)));
+        assertFalse(migration.isOver());
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+        assertFalse(migration.isOver());
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(migration.isOver());
+    }
+
+    @Test
+    public void shouldBeOverAfterIdleTimeAndGracePeriod() {
+        Migration migration = new Migration(before, 1, 3, HOUR, HOUR, ticker);
+        String key = key(true);
+        int partition = after.partition(key, buffer);
+
+        assertTrue(BatchRouter.isDraining(migration.route(key, partition, buffer)));
+        now.addAndGet(2 * HOUR);
+        assertTrue(migration.isOver());
+        assertEquals(partition, migration.route(key, partition, buffer));
+    }
+
+    @Test
+    public void shouldSwitchKeyOfRemovedPartition() {
+        Migration migration = new Migration(after, 1, 2, HOUR, HOUR);
+        String key = "key 0";
+
+        for (int i = 1; after.partition(key, buffer) != 2; i++) {
+            key = "key " + i;
+        }
+
+        int partition = before.partition(key, buffer);
+        assertEquals(partition, migration.route(key, partition, buffer));
+        assertFalse(migration.isOver());
+    }
+
+    @Test
+    public void shouldKeepEpochOfPreviousRouting() {
+        assertEquals(1, new Migration(before, 1, 3, HOUR, HOUR).getSourceEpoch());
+    }
+
+    @Test
+    public void shouldAdvanceEpochOnlyWhenRoutingChanges() throws Exception {
+        InMemoryStateManager stateManager = new InMemoryStateManager();
+
+        assertEquals(1, Migration.epoch(stateManager, "2 relationships"));
+        assertEquals(1, Migration.epoch(stateManager, "2 relationships"));
+        assertEquals(2, Migration.epoch(stateManager, "3 relationships"));
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * @param moved Whether to find a key whose partition changed between the tables.
+     * @param others Keys not to return.
+     * @return A key whose partition changed or not between the tables.
+     */
+    private String key(boolean moved, String... others) {
+        for (int i = 0; ; i++) {
+            String key = "key " + i;
+
+            if ((before.partition(key, buffer) != after.partition(key, buffer)) == moved
+                    && !Arrays.asList(others).contains(key)) {
+                return key;
+            }
+        }
+    }
+}
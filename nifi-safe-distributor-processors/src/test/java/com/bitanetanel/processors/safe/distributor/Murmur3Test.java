@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.hash.Hashing;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link Murmur3}.
+ *
+ * @author Netanel Bitan
+ */
+public class Murmur3Test {
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldMatchGuava32() {
+        Random random = new Random(0);
+
+        for (int length = 0; length < 100; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            assertEquals(Hashing.murmur3_32().hashBytes(bytes).asInt(), Murmur3.hash32(bytes, length));
+        }
+    }
+
+    @Test
+    public void shouldMatchGuava128() {
+        Random random = new Random(0);
+
+        for (int length = 0; length < 100; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            assertEquals(Hashing.murmur3_128().hashBytes(bytes).asLong(), Murmur3.hash128(bytes, length));
+        }
+    }
+
+    @Test
+    public void shouldHashOnlyTheGivenLength() {
+        byte[] bytes = "Some attribute value".getBytes();
+        byte[] padded = "Some attribute value and more".getBytes();
+        assertEquals(Murmur3.hash32(bytes, bytes.length), Murmur3.hash32(padded, bytes.length));
+        assertEquals(Murmur3.hash128(bytes, bytes.length), Murmur3.hash128(padded, bytes.length));
+    }
+}
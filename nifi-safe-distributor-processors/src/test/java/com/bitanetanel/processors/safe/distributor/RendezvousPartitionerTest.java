@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link RendezvousPartitioner}.
+ *
+ * @author Netanel Bitan
+ */
+public class RendezvousPartitionerTest {
+
+
+    /* --- Constants --- */
+
+    /** The number of random keys to partition. */
+    private static final int KEYS_NUMBER = 100_000;
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldPartitionProportionallyToWeights() {
+        RendezvousPartitioner partitioner = new RendezvousPartitioner(new double[]{1, 2, 1, 4});
+        Random random = new Random(0);
+        int[] counts = new int[4];
+
+        for (int i = 0; i < KEYS_NUMBER; i++) {
+            counts[partitioner.partition(random.nextLong())]++;
+        }
+
+        assertEquals(1.0 / 8, (double) counts[0] / KEYS_NUMBER, 0.01);
+        assertEquals(2.0 / 8, (double) counts[1] / KEYS_NUMBER, 0.01);
+        assertEquals(1.0 / 8, (double) counts[2] / KEYS_NUMBER, 0.01);
+        assertEquals(4.0 / 8, (double) counts[3] / KEYS_NUMBER, 0.01);
+    }
+
+    @Test
+    public void shouldMoveKeysOnlyToTheReweightedPartition() {
+        RendezvousPartitioner before = new RendezvousPartitioner(new double[]{1, 1, 1, 1});
+        RendezvousPartitioner after = new RendezvousPartitioner(new double[]{1, 1, 2.5, 1});
+        Random random = new Random(0);
+
+        for (int i = 0; i < KEYS_NUMBER; i++) {
+            long hash = random.nextLong();
+            int newPartition = after.partition(hash);
+            assertTrue(before.partition(hash) == newPartition || newPartition == 2);
+        }
+    }
+
+    @Test
+    public void shouldMoveKeysOnlyToTheAddedPartition() {
+        RendezvousPartitioner before = new RendezvousPartitioner(new double[]{1, 1, 1});
+        RendezvousPartitioner after = new RendezvousPartitioner(new double[]{1, 1, 1, 1});
+        Random random = new Random(0);
+
+        for (int i = 0; i < KEYS_NUMBER; i++) {
+            long hash = random.nextLong();
+            int newPartition = after.partition(hash);
+            assertTrue(before.partition(hash) == newPartition || newPartition == 3);
+        }
+    }
+}
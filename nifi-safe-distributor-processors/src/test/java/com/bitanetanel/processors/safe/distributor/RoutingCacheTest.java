@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link RoutingCache}.
+ *
+ * @author Netanel Bitan
+ */
+public class RoutingCacheTest {
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldMissUncachedKey() {
+        assertEquals(RoutingCache.MISS, new RoutingCache(16).get("Some key"));
+    }
+
+    @Test
+    public void shouldHitCachedKey() {
+        RoutingCache cache = new RoutingCache(16);
+        cache.put("Some key", 3);
+        assertEquals(3, cache.get("Some key"));
+    }
+
+    @Test
+    public void shouldStayBounded() {
+        RoutingCache cache = new RoutingCache(64);
+        int cached = 0;
+
+        for (int i = 0; i < 1_000; i++) {
+            cache.put("key " + i, i);
+        }
+
+        for (int i = 0; i < 1_000; i++) {
+            if (cache.get("key " + i) != RoutingCache.MISS) {
+                cached++;
+            }
+        }
+
+        assertTrue(cache.capacity() <= 64);
+        assertTrue(cached <= cache.capacity());
+    }
+
+    @Test
+    public void shouldNeverExceedMaxEntries() {
+        for (int maxEntries = 1; maxEntries <= 1_000; maxEntries++) {
+            assertTrue(new RoutingCache(maxEntries).capacity() <= maxEntries);
+        }
+    }
+
+    @Test
+    public void shouldKeepHotKeysOverOneTimeKeys() {
+        RoutingCache cache = new RoutingCache(64);
+        cache.put("hot", 1);
+
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(1, cache.get("hot"));
+            cache.put("cold " + i, 2);
+        }
+    }
+
+    @Test
+    public void shouldReturnConsistentPartitionsUnderConcurrency() throws Exception {
+        RoutingCache cache = new RoutingCache(128);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        Future<?>[] futures = new Future<?>[8];
+
+        for (int task = 0; task < futures.length; task++) {
+            futures[task] = executor.submit(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    String key = "key " + (i % 500);
+                    int partition = cache.get(key);
+
+                    if (partition == RoutingCache.MISS) {
+                        cache.put(key, i % 500);
+                    } else {
+                        assertEquals(i % 500, partition);
+                    }
+                }
+            });
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
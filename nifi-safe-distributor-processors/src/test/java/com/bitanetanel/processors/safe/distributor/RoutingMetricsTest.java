@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link RoutingMetrics}.
+ *
+ * @author Netanel Bitan
+ */
+public class RoutingMetricsTest {
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldMeasureNoSkewOfEvenLoads() {
+        long[] loads = {250, 250, 250, 250};
+        assertEquals(1.0, RoutingMetrics.maxToMean(loads), 0);
+        assertEquals(0.0, RoutingMetrics.coefficientOfVariation(loads), 0);
+    }
+
+    @Test
+    public void shouldMeasureSkewOfUnevenLoads() {
+        long[] loads = {100, 100, 100, 500};
+        assertEquals(2.5, RoutingMetrics.maxToMean(loads), 1e-9);
+        assertEquals(Math.sqrt(3) / 2, RoutingMetrics.coefficientOfVariation(loads), 1e-9);
+    }
+
+    @Test
+    public void shouldMeasureNoSkewWithoutLoads() {
+        long[] loads = new long[4];
+        assertEquals(0.0, RoutingMetrics.maxToMean(loads), 0);
+        assertEquals(0.0, RoutingMetrics.coefficientOfVariation(loads), 0);
+    }
+}
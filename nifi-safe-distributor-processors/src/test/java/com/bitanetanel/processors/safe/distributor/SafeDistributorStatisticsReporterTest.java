@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.apache.nifi.controller.status.ProcessGroupStatus;
+import org.apache.nifi.controller.status.ProcessorStatus;
+import org.apache.nifi.registry.VariableRegistry;
+import org.apache.nifi.reporting.Bulletin;
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.reporting.Severity;
+import org.apache.nifi.util.MockComponentLog;
+import org.apache.nifi.util.MockEventAccess;
+import org.apache.nifi.util.MockProcessContext;
+import org.apache.nifi.util.MockReportingContext;
+import org.apache.nifi.util.MockReportingInitializationContext;
+import org.apache.nifi.util.MockStateManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link SafeDistributorStatisticsReporter}.
+ *
+ * @author Netanel Bitan
+ */
+public class SafeDistributorStatisticsReporterTest {
+
+
+    /* --- Constants --- */
+
+    /** The identifier of the reported distributor. */
+    private static final String PROCESSOR_ID = "statistics-reporter-test-distributor";
+
+    /** The name of the reported distributor, with a tab that doesn't fit a line of the metrics file. */
+    private static final String PROCESSOR_NAME = "Some\tdistributor";
+
+
+    /* --- Data Members ---*/
+
+    /** A folder for the metrics file, deleted after every test. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** The tested reporting task. */
+    private SafeDistributorStatisticsReporter reporter;
+
+    /** The reporting context, with the reported distributor in its controller status. */
+    private MockReportingContext reportingContext;
+
+    /** The messages of the bulletins created by the reporting task. */
+    private List<String> bulletins;
+
+    /** The statistics of the reported distributor. */
+    private KeyStatistics statistics;
+
+    /** The buffer to record the keys by. */
+    private final KeyBuffer buffer = new KeyBuffer();
+
+
+    /* --- Setup --- */
+
+    @Before
+    public void setup() throws InitializationException {
+        reporter = new SafeDistributorStatisticsReporter();
+        reporter.initialize(new MockReportingInitializationContext("statistics-reporter", "Statistics reporter",
+                new MockComponentLog("statistics-reporter", reporter)));
+
+        bulletins = Lists.newArrayList();
+        reportingContext = new MockReportingContext(ImmutableMap.of(), new MockStateManager(reporter),
+                VariableRegistry.EMPTY_REGISTRY) {
+            @Override
+            public Bulletin createBulletin(String category, Severity severity, String message) {
+                bulletins.add(message);
+                return super.createBulletin(category, severity, message);
+            }
+        };
+
+        ProcessorStatus processor = new ProcessorStatus();
+        processor.setId(PROCESSOR_ID);
+        processor.setName(PROCESSOR_NAME);
+        ProcessGroupStatus group = new ProcessGroupStatus();
+        group.setProcessorStatus(ImmutableList.of(processor));
+        ProcessGroupStatus root = new ProcessGroupStatus();
+        root.setProcessGroupStatus(ImmutableList.of(group));
+        ((MockEventAccess) reportingContext.getEventAccess()).setProcessGroupStatus(root);
+
+        statistics = new KeyStatistics(2, 3);
+        KeyStatisticsRegistry.register(PROCESSOR_ID, statistics);
+    }
+
+    @After
+    public void cleanup() {
+        KeyStatisticsRegistry.unregister(PROCESSOR_ID);
+    }
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldRequireMetricsFileOnlyWhenReportingToIt() {
+        MockProcessContext processContext = new MockProcessContext(reporter);
+        assertTrue(processContext.isValid());
+
+        processContext.setProperty(SafeDistributorStatisticsReporter.OUTPUT, "Metrics file");
+        assertFalse(processContext.isValid());
+        processContext.setProperty(SafeDistributorStatisticsReporter.OUTPUT, "Bulletin and metrics file");
+        assertFalse(processContext.isValid());
+
+        processContext.setProperty(SafeDistributorStatisticsReporter.METRICS_FILE, "statistics.tsv");
+        assertTrue(processContext.isValid());
+    }
+
+    @Test
+    public void shouldReportBulletinOfBusiestRelationshipsSinceLastReport() {
+        File metricsFile = new File(folder.getRoot(), "statistics.tsv");
+        reportingContext.setProperty(SafeDistributorStatisticsReporter.METRICS_FILE.getName(), metricsFile.getPath());
+        recordKeys();
+
+        reporter.onTrigger(reportingContext);
+        reporter.onTrigger(reportingContext);
+
+        assertEquals(ImmutableList.of(
+                "SafeDistributor '" + PROCESSOR_NAME + "' since the last report: " +
+                        "relationship 2: 9 flowfiles, ~3 distinct keys, top keys: giant=6, big=2, tiny key=1; " +
+                        "relationship 1: 1 flowfiles, ~1 distinct keys, top keys: small=1",
+                "SafeDistributor '" + PROCESSOR_NAME + "' since the last report: nothing routed"),
+                bulletinsOf(PROCESSOR_NAME));
+        assertFalse(metricsFile.exists());
+    }
+
+    @Test
+    public void shouldAppendTabSeparatedLinePerRelationshipToMetricsFile() throws IOException {
+        File metricsFile = new File(folder.getRoot(), "statistics.tsv");
+        reportingContext.setProperty(SafeDistributorStatisticsReporter.OUTPUT.getName(), "Metrics file");
+        reportingContext.setProperty(SafeDistributorStatisticsReporter.METRICS_FILE.getName(), metricsFile.getPath());
+        recordKeys();
+
+        reporter.onTrigger(reportingContext);
+        statistics.record(0, "small", buffer);
+        reporter.onTrigger(reportingContext);
+
+        List<String[]> lines = Files.readAllLines(metricsFile.toPath(), StandardCharsets.UTF_8).stream()
+                .map(line -> line.split("\t", -1))
+                .filter(fields -> fields[1].equals(PROCESSOR_ID))
+                .collect(Collectors.toList());
+        assertEquals(4, lines.size());
+        assertArrayEquals(new String[]{PROCESSOR_ID, "Some distributor", "1", "1", "1", "small=1"},
+                withoutTime(lines.get(0)));
+        assertArrayEquals(new String[]{PROCESSOR_ID, "Some distributor", "2", "9", "3",
+                "giant=6, big=2, tiny key=1"}, withoutTime(lines.get(1)));
+        assertArrayEquals(new String[]{PROCESSOR_ID, "Some distributor", "1", "1", "1", "small=1"},
+                withoutTime(lines.get(2)));
+        assertArrayEquals(new String[]{PROCESSOR_ID, "Some distributor", "2", "0", "0", ""},
+                withoutTime(lines.get(3)));
+        assertTrue(bulletinsOf(PROCESSOR_NAME).isEmpty());
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * Records a giant, a big and a tiny key to the second relationship and a small key to the first one.
+     */
+    private void recordKeys() {
+        for (int index = 0; index < 6; index++) {
+            statistics.record(1, "giant", buffer);
+        }
+
+        statistics.record(1, "big", buffer);
+        statistics.record(1, "big", buffer);
+        statistics.record(1, "tiny\nkey", buffer);
+        statistics.record(0, "small", buffer);
+    }
+
+    /**
+     * @param name The name of a distributor.
+     * @return The messages of the bulletins created for the distributor, other registered distributors aside.
+     */
+    private List<String> bulletinsOf(String name) {
+        return bulletins.stream()
+                .filter(message -> message.startsWith("SafeDistributor '" + name + "'"))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param fields The fields of a line of the metrics file.
+     * @return The fields without the report time, which is checked to be a number.
+     */
+    private static String[] withoutTime(String[] fields) {
+        Long.parseLong(fields[0]);
+        String[] rest = new String[fields.length - 1];
+        System.arraycopy(fields, 1, rest, 0, rest.length);
+        return rest;
+    }
+}
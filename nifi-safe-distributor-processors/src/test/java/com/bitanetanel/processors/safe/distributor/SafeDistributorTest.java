@@ -18,12 +18,18 @@
 package com.bitanetanel.processors.safe.distributor;
 
 import com.google.common.collect.ImmutableMap;
-import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 /**
  * Tests for {@link SafeDistributor}.
  *
@@ -92,4 +98,358 @@ public class SafeDistributorTest {
         testRunner.assertTransferCount("1", 2);
         testRunner.assertTransferCount("2", 1);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldTransferWholeBatchOnSingleTrigger() {
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, "2");
+        testRunner.setProperty(SafeDistributor.BATCH_SIZE, "10");
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, "Value with other hash"));
+        testRunner.enqueue("Some content", ImmutableMap.of("Other attribute name", SOME_ATTRIBUTE_VALUE));
+        testRunner.run();
+        testRunner.assertTransferCount("1", 1);
+        testRunner.assertTransferCount("2", 1);
+        testRunner.assertTransferCount(SafeDistributor.FAILURE, 1);
+    }
+
+    @Test
+    public void shouldKeepOrderOfFilesWithSameValueInBatch() {
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, "2");
+        testRunner.setProperty(SafeDistributor.BATCH_SIZE, "10");
+        testRunner.enqueue("First", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.enqueue("Other", ImmutableMap.of(SOME_ATTRIBUTE_KEY, "Value with other hash"));
+        testRunner.enqueue("Second", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.enqueue("Third", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.run();
+
+        List<MockFlowFile> flowFiles = testRunner.getFlowFilesForRelationship("1");
+        assertEquals(3, flowFiles.size());
+        flowFiles.get(0).assertContentEquals("First");
+        flowFiles.get(1).assertContentEquals("Second");
+        flowFiles.get(2).assertContentEquals("Third");
+    }
+
+    @Test
+    public void shouldTransferFilesWithSameHashToSameRelationshipsOnHashRing() {
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, "3");
+        testRunner.setProperty(SafeDistributor.DISTRIBUTION_STRATEGY, "Consistent hash ring");
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.run();
+
+        int transferred = 0;
+        for (String relationship : new String[]{"1", "2", "3"}) {
+            int count = testRunner.getFlowFilesForRelationship(relationship).size();
+            assertTrue(count == 0 || count == 3);
+            transferred += count;
+        }
+        assertEquals(3, transferred);
+    }
+
+    @Test
+    public void shouldTransferOnlyToWeightedRelationships() {
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, "2");
+        testRunner.setProperty(SafeDistributor.DISTRIBUTION_STRATEGY, "Weighted rendezvous hash");
+        testRunner.setProperty("weight.1", "0.000001");
+        testRunner.setProperty("weight.2", "1000000");
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, "Value with other hash"));
+        testRunner.run();
+        testRunner.assertAllFlowFilesTransferred("2", 2);
+    }
+
+    @Test
+    public void shouldBeInvalidWithNonPositiveWeight() {
+        testRunner.setProperty("weight.1", "-1");
+        testRunner.assertNotValid();
+    }
+
+    @Test
+    public void shouldTransferToKafkaPartitionRelationship() {
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, "3");
+        testRunner.setProperty(SafeDistributor.DISTRIBUTION_STRATEGY, "Kafka partitioner");
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, "a-little-bit-long-string"));
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, "abc"));
+        testRunner.run();
+        testRunner.assertTransferCount("3", 1);
+        testRunner.assertTransferCount("1", 1);
+    }
+
+    @Test
+    public void shouldBeInvalidWithKafkaPartitionerAndOtherHashFunction() {
+        testRunner.setProperty(SafeDistributor.DISTRIBUTION_STRATEGY, "Kafka partitioner");
+        testRunner.setProperty(SafeDistributor.HASH_FUNCTION, "xxHash64");
+        testRunner.assertNotValid();
+    }
+
+    @Test
+    public void shouldCountRoutingCacheHitsAndMisses() {
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, "2");
+        testRunner.setProperty(SafeDistributor.ROUTING_CACHE_SIZE, "16");
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, "Value with other hash"));
+        testRunner.run();
+        testRunner.assertTransferCount("1", 2);
+        testRunner.assertTransferCount("2", 1);
+        assertEquals(Long.valueOf(1), testRunner.getCounterValue(SafeDistributor.CACHE_HITS_COUNTER));
+        assertEquals(Long.valueOf(2), testRunner.getCounterValue(SafeDistributor.CACHE_MISSES_COUNTER));
+    }
+
+    @Test
+    public void shouldCountRoutedFlowFilesAndBytesPerRelationship() {
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, "2");
+        testRunner.setProperty(SafeDistributor.SKEW_WINDOW, "3");
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.enqueue("Other", ImmutableMap.of(SOME_ATTRIBUTE_KEY, "Value with other hash"));
+        testRunner.run();
+        assertEquals(Long.valueOf(2), testRunner.getCounterValue(SafeDistributor.ROUTED_FLOW_FILES_COUNTER + "1"));
+        assertEquals(Long.valueOf(24), testRunner.getCounterValue(SafeDistributor.ROUTED_BYTES_COUNTER + "1"));
+        assertEquals(Long.valueOf(1), testRunner.getCounterValue(SafeDistributor.ROUTED_FLOW_FILES_COUNTER + "2"));
+        assertEquals(Long.valueOf(5), testRunner.getCounterValue(SafeDistributor.ROUTED_BYTES_COUNTER + "2"));
+        assertEquals(Long.valueOf(1333), testRunner.getCounterValue(SafeDistributor.SKEW_MAX_TO_MEAN_COUNTER));
+    }
+
+    @Test
+    public void shouldCollectKeyStatisticsWhileRunning() {
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, "2");
+        testRunner.setProperty(SafeDistributor.KEY_STATISTICS, "true");
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, "Value with other hash"));
+        testRunner.run(1, false);
+
+        String processorId = testRunner.getProcessor().getIdentifier();
+        List<KeyStatistics.RelationshipStatistics> statistics =
+                KeyStatisticsRegistry.registered().get(processorId).drain();
+        assertEquals(2, statistics.get(0).getRouted());
+        assertEquals(1, statistics.get(0).getDistinctKeys());
+        assertEquals(SOME_ATTRIBUTE_VALUE, statistics.get(0).getTopKeys().get(0).getKey());
+        assertEquals(1, statistics.get(1).getRouted());
+
+        testRunner.run(1, true, false);
+        assertNull(KeyStatisticsRegistry.registered().get(processorId));
+    }
+
+    @Test
+    public void shouldLeaveFilesOfUnavailableRelationshipQueued() {
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, "2");
+        testRunner.setRelationshipUnavailable("2");
+        testRunner.enqueue("First", ImmutableMap.of(SOME_ATTRIBUTE_KEY, "Value with other hash"));
+        testRunner.enqueue("Second", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.enqueue("Third", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.run();
+        testRunner.assertTransferCount("1", 2);
+        testRunner.assertTransferCount("2", 0);
+        assertEquals(1, testRunner.getQueueSize().getObjectCount());
+
+        testRunner.setRelationshipAvailable("2");
+        testRunner.run();
+        testRunner.assertTransferCount("2", 1);
+        testRunner.getFlowFilesForRelationship("2").get(0).assertContentEquals("First");
+    }
+
+    @Test
+    public void shouldSpreadHotKeyAndMarkIt() {
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, "2");
+        testRunner.setProperty(SafeDistributor.HOT_KEY_SHARE, "0.1");
+        testRunner.setProperty(SafeDistributor.HOT_KEY_SPREAD, "2");
+        testRunner.setProperty(SafeDistributor.HOT_KEY_WINDOW, "10");
+
+        for (String key : new String[]{SOME_ATTRIBUTE_VALUE, "Value with other hash", "Third value"}) {
+            testRunner.clearTransferState();
+
+            for (int i = 0; i < 50; i++) {
+                testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, key));
+            }
+
+            testRunner.run();
+            testRunner.assertTransferCount(SafeDistributor.FAILURE, 0);
+            assertTrue(testRunner.getFlowFilesForRelationship("1").size() > 0);
+            assertTrue(testRunner.getFlowFilesForRelationship("2").size() > 0);
+
+            for (String relationship : new String[]{"1", "2"}) {
+                testRunner.getFlowFilesForRelationship(relationship).get(0)
+                        .assertAttributeEquals(SafeDistributor.SPLIT_ATTRIBUTE, "2");
+            }
+        }
+    }
+
+    @Test
+    public void shouldNotBeValidWithHotKeyShareOfOne() {
+        testRunner.setProperty(SafeDistributor.HOT_KEY_SHARE, "1");
+        testRunner.assertNotValid();
+    }
+
+    @Test
+    public void shouldNotBeValidWithBoundedLoadsAndRoutingCache() {
+        testRunner.setProperty(SafeDistributor.DISTRIBUTION_STRATEGY, "Consistent hash with bounded loads");
+        testRunner.assertValid();
+        testRunner.setProperty(SafeDistributor.ROUTING_CACHE_SIZE, "16");
+        testRunner.assertNotValid();
+    }
+
+    @Test
+    public void shouldRouteByMovedSlots() {
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, "2");
+        testRunner.setProperty(SafeDistributor.DISTRIBUTION_STRATEGY, "Slot table");
+        testRunner.setProperty("slots.2", "0-" + (SlotPartitioner.SLOTS - 1));
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, "Value with other hash"));
+        testRunner.run();
+        testRunner.assertAllFlowFilesTransferred("2", 2);
+    }
+
+    @Test
+    public void shouldNotBeValidWithSlotOutOfRange() {
+        testRunner.setProperty(SafeDistributor.DISTRIBUTION_STRATEGY, "Slot table");
+        testRunner.setProperty("slots.1", String.valueOf(SlotPartitioner.SLOTS));
+        testRunner.assertNotValid();
+    }
+
+    @Test
+    public void shouldMarkEpochAndPartitionWhenMigrating() {
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, "2");
+        testRunner.setProperty(SafeDistributor.MIGRATION_IDLE_TIME, "1 min");
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.run();
+
+        MockFlowFile flowFile = testRunner.getFlowFilesForRelationship("1").get(0);
+        flowFile.assertAttributeEquals(SafeDistributor.EPOCH_ATTRIBUTE, "1");
+        flowFile.assertAttributeEquals(SafeDistributor.PARTITION_ATTRIBUTE, "0");
+    }
+
+    @Test
+    public void shouldAdvanceEpochWhenKeySourceChanges() {
+        testRunner.setProperty(SafeDistributor.MIGRATION_IDLE_TIME, "1 min");
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.run();
+
+        testRunner.clearTransferState();
+        testRunner.setProperty(SafeDistributor.ATTRIBUTE_NAME, "Other attribute name");
+        testRunner.enqueue("Some content", ImmutableMap.of("Other attribute name", SOME_ATTRIBUTE_VALUE));
+        testRunner.run();
+
+        testRunner.getFlowFilesForRelationship("1").get(0).assertAttributeEquals(SafeDistributor.EPOCH_ATTRIBUTE, "2");
+    }
+
+    @Test
+    public void shouldRouteByContentHeaderKeyLikeByAttribute() {
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, "8");
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.run();
+
+        TestRunner headerRunner = TestRunners.newTestRunner(SafeDistributor.class);
+        headerRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, "8");
+        headerRunner.setProperty(SafeDistributor.KEY_SOURCE, "Content header JSON field");
+        headerRunner.setProperty(SafeDistributor.HEADER_KEY_JSON_FIELD, "key");
+        headerRunner.enqueue("{\"key\": \"" + SOME_ATTRIBUTE_VALUE + "\", \"body\": \"Some content\"}");
+        headerRunner.run();
+
+        for (int relationship = 1; relationship <= 8; relationship++) {
+            String name = String.valueOf(relationship);
+            headerRunner.assertTransferCount(name, testRunner.getFlowFilesForRelationship(name).size());
+        }
+    }
+
+    @Test
+    public void shouldFailIfHeaderKeyNotFound() {
+        testRunner.setProperty(SafeDistributor.KEY_SOURCE, "Content header delimiter");
+        testRunner.setProperty(SafeDistributor.HEADER_KEY_DELIMITER, "|");
+        testRunner.setProperty(SafeDistributor.HEADER_SIZE, "4 B");
+        testRunner.enqueue("key|content");
+        testRunner.enqueue("long key|content");
+        testRunner.run();
+        testRunner.assertTransferCount("1", 1);
+        testRunner.assertTransferCount(SafeDistributor.FAILURE, 1);
+    }
+
+    @Test
+    public void shouldNotBeValidWithHeaderSizeAboveOneMegabyte() {
+        testRunner.setProperty(SafeDistributor.KEY_SOURCE, "Content header delimiter");
+        testRunner.setProperty(SafeDistributor.HEADER_KEY_DELIMITER, "|");
+        testRunner.setProperty(SafeDistributor.HEADER_SIZE, "1 MB");
+        testRunner.assertValid();
+        testRunner.setProperty(SafeDistributor.HEADER_SIZE, "3 GB");
+        testRunner.assertNotValid();
+    }
+
+    @Test
+    public void shouldNotBeValidWithoutHeaderKeyLength() {
+        testRunner.setProperty(SafeDistributor.KEY_SOURCE, "Content header offset");
+        testRunner.assertNotValid();
+        testRunner.setProperty(SafeDistributor.HEADER_KEY_LENGTH, "8");
+        testRunner.assertValid();
+    }
+
+    @Test
+    public void shouldRouteByCompositeKeyAttributes() {
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, "8");
+        testRunner.setProperty(SafeDistributor.KEY_ATTRIBUTES, "tenant, device");
+
+        for (int i = 0; i < 10; i++) {
+            testRunner.enqueue("Some content", ImmutableMap.of("tenant", "Some tenant", "device", "Some device"));
+        }
+
+        testRunner.enqueue("Some content", ImmutableMap.of("tenant", "Some tenant"));
+        testRunner.run();
+        testRunner.assertTransferCount(SafeDistributor.FAILURE, 1);
+
+        int routed = 0;
+
+        for (int relationship = 1; relationship <= 8; relationship++) {
+            int count = testRunner.getFlowFilesForRelationship(String.valueOf(relationship)).size();
+            assertTrue(count == 0 || count == 10);
+            routed += count;
+        }
+
+        assertEquals(10, routed);
+    }
+
+    @Test
+    public void shouldRouteByAttributeNameAsIs() {
+        testRunner.setProperty(SafeDistributor.ATTRIBUTE_NAME, " tenant,device ");
+        testRunner.enqueue("Some content", ImmutableMap.of(" tenant,device ", "Some key"));
+        testRunner.enqueue("Some content", ImmutableMap.of("tenant", "Some tenant", "device", "Some device"));
+        testRunner.run();
+        testRunner.assertTransferCount(SafeDistributor.FAILURE, 1);
+        assertEquals("Some tenant",
+                testRunner.getFlowFilesForRelationship(SafeDistributor.FAILURE).get(0).getAttribute("tenant"));
+    }
+
+    @Test
+    public void shouldNotBeValidWithKeyAttributesOfOnlyCommas() {
+        testRunner.setProperty(SafeDistributor.KEY_ATTRIBUTES, " , ");
+        testRunner.assertNotValid();
+    }
+
+    @Test
+    public void shouldRouteByKeyExpressionLikeByAttribute() {
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, "8");
+        testRunner.enqueue("Some content", ImmutableMap.of(SOME_ATTRIBUTE_KEY, SOME_ATTRIBUTE_VALUE));
+        testRunner.run();
+
+        TestRunner expressionRunner = TestRunners.newTestRunner(SafeDistributor.class);
+        expressionRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, "8");
+        expressionRunner.setProperty(SafeDistributor.KEY_SOURCE, "Expression");
+        expressionRunner.setProperty(SafeDistributor.KEY_EXPRESSION, "${first} ${second}");
+        expressionRunner.enqueue("Some content", ImmutableMap.of("first", "Some attribute", "second", "value"));
+        expressionRunner.run();
+
+        for (int relationship = 1; relationship <= 8; relationship++) {
+            String name = String.valueOf(relationship);
+            expressionRunner.assertTransferCount(name, testRunner.getFlowFilesForRelationship(name).size());
+        }
+    }
+
+    @Test
+    public void shouldFailIfKeyExpressionIsEmpty() {
+        testRunner.setProperty(SafeDistributor.KEY_SOURCE, "Expression");
+        testRunner.setProperty(SafeDistributor.KEY_EXPRESSION, "${missing}");
+        testRunner.enqueue("Some content");
+        testRunner.run();
+        testRunner.assertAllFlowFilesTransferred(SafeDistributor.FAILURE, 1);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link SafeLineDistributor}.
+ *
+ * @author Netanel Bitan
+ */
+public class SafeLineDistributorTest {
+
+
+    /* --- Constants --- */
+
+    /** The number of numbered relationships of the tests. */
+    private static final int RELATIONSHIPS_NUMBER = 4;
+
+
+    /* --- Data Members ---*/
+
+    /** NiFi's test runner */
+    private TestRunner testRunner;
+
+
+    /* --- Setup --- */
+
+    @Before
+    public void setup() {
+        testRunner = TestRunners.newTestRunner(SafeLineDistributor.class);
+        testRunner.setProperty(SafeLineDistributor.KEY_PATTERN, "user=(\\w+)");
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, String.valueOf(RELATIONSHIPS_NUMBER));
+    }
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldWriteAllLinesOfAKeyToOneRelationshipInOrder() {
+        StringBuilder content = new StringBuilder();
+
+        for (int line = 0; line < 100; line++) {
+            content.append("line=").append(line).append(" user=u").append(line % 10).append('\n');
+        }
+
+        testRunner.enqueue(content.toString());
+        testRunner.run();
+        testRunner.assertTransferCount(SafeLineDistributor.ORIGINAL, 1);
+        testRunner.assertTransferCount(SafeDistributor.FAILURE, 0);
+
+        int lines = 0;
+
+        for (int relationship = 1; relationship <= RELATIONSHIPS_NUMBER; relationship++) {
+            for (MockFlowFile flowFile : testRunner.getFlowFilesForRelationship(String.valueOf(relationship))) {
+                String output = new String(flowFile.toByteArray(), StandardCharsets.UTF_8);
+                lines += Integer.parseInt(flowFile.getAttribute(SafeLineDistributor.LINE_COUNT_ATTRIBUTE));
+
+                for (int user = 0; user < 10; user++) {
+                    int first = output.indexOf("line=" + user + " ");
+                    int last = output.indexOf("line=" + (90 + user) + " ");
+                    assertEquals(first < 0, last < 0);
+                    assertTrue(first <= last);
+                }
+            }
+        }
+
+        assertEquals(100, lines);
+    }
+
+    @Test
+    public void shouldRouteLinesLikeSafeDistributor() {
+        TestRunner attributeRunner = TestRunners.newTestRunner(SafeDistributor.class);
+        attributeRunner.setProperty(SafeDistributor.ATTRIBUTE_NAME, "user");
+        attributeRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, String.valueOf(RELATIONSHIPS_NUMBER));
+        StringBuilder content = new StringBuilder();
+
+        for (int user = 0; user < 20; user++) {
+            content.append("user=u").append(user).append('\n');
+            attributeRunner.enqueue("Some content", ImmutableMap.of("user", "u" + user));
+        }
+
+        testRunner.enqueue(content.toString());
+        testRunner.run();
+        attributeRunner.run();
+
+        for (int relationship = 1; relationship <= RELATIONSHIPS_NUMBER; relationship++) {
+            String name = String.valueOf(relationship);
+            int expected = attributeRunner.getFlowFilesForRelationship(name).size();
+            int actual = testRunner.getFlowFilesForRelationship(name).stream()
+                    .mapToInt(flowFile -> Integer.parseInt(flowFile.getAttribute(
+                            SafeLineDistributor.LINE_COUNT_ATTRIBUTE))).sum();
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void shouldWriteLinesWithoutKeyToFailureUnchanged() {
+        testRunner.enqueue("user=a\nno key here\r\nuser=b\nnor here");
+        testRunner.run();
+        testRunner.assertTransferCount(SafeLineDistributor.ORIGINAL, 1);
+        testRunner.assertTransferCount(SafeDistributor.FAILURE, 1);
+
+        MockFlowFile failure = testRunner.getFlowFilesForRelationship(SafeDistributor.FAILURE).get(0);
+        failure.assertContentEquals("no key here\r\nnor here");
+        failure.assertAttributeEquals(SafeLineDistributor.LINE_COUNT_ATTRIBUTE, "2");
+    }
+
+    @Test
+    public void shouldWriteFlowFileWithTooLongLineToFailureUnchanged() {
+        testRunner.setProperty(SafeLineDistributor.MAX_LINE_LENGTH, "16 B");
+        testRunner.enqueue("user=a\nuser=b and a line that is too long\n");
+        testRunner.run();
+        testRunner.assertTransferCount(SafeLineDistributor.ORIGINAL, 0);
+        testRunner.assertAllFlowFilesTransferred(SafeDistributor.FAILURE, 1);
+        testRunner.getFlowFilesForRelationship(SafeDistributor.FAILURE).get(0)
+                .assertContentEquals("user=a\nuser=b and a line that is too long\n");
+    }
+
+    @Test
+    public void shouldBeInvalidIfKeyGroupIsMissing() {
+        testRunner.setProperty(SafeLineDistributor.KEY_GROUP, "2");
+        testRunner.assertNotValid();
+    }
+
+    @Test
+    public void shouldBeInvalidWithCharacterSetNotEncodingAsciiAsIs() {
+        testRunner.setProperty(SafeLineDistributor.CHARACTER_SET, "UTF-16");
+        testRunner.assertNotValid();
+        testRunner.setProperty(SafeLineDistributor.CHARACTER_SET, "ISO-8859-1");
+        testRunner.assertValid();
+    }
+}
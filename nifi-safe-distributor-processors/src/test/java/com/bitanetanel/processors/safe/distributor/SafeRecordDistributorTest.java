@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.nifi.record.path.RecordPath;
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.record.MapRecord;
+import org.apache.nifi.serialization.record.MockRecordParser;
+import org.apache.nifi.serialization.record.MockRecordWriter;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link SafeRecordDistributor}.
+ *
+ * @author Netanel Bitan
+ */
+public class SafeRecordDistributorTest {
+
+
+    /* --- Constants --- */
+
+    /** The number of numbered relationships of the tests. */
+    private static final int RELATIONSHIPS_NUMBER = 4;
+
+
+    /* --- Data Members ---*/
+
+    /** NiFi's test runner */
+    private TestRunner testRunner;
+
+    /** The reader of the records of the tests. */
+    private MockRecordParser recordParser;
+
+
+    /* --- Setup --- */
+
+    @Before
+    public void setup() throws Exception {
+        testRunner = TestRunners.newTestRunner(SafeRecordDistributor.class);
+        recordParser = new MockRecordParser();
+        recordParser.addSchemaField("id", RecordFieldType.STRING);
+        recordParser.addSchemaField("value", RecordFieldType.INT);
+        MockRecordWriter recordWriter = new MockRecordWriter(null, false);
+
+        testRunner.addControllerService("reader", recordParser);
+        testRunner.enableControllerService(recordParser);
+        testRunner.addControllerService("writer", recordWriter);
+        testRunner.enableControllerService(recordWriter);
+
+        testRunner.setProperty(SafeRecordDistributor.RECORD_READER, "reader");
+        testRunner.setProperty(SafeRecordDistributor.RECORD_WRITER, "writer");
+        testRunner.setProperty(SafeRecordDistributor.KEY_RECORD_PATH, "/id");
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, String.valueOf(RELATIONSHIPS_NUMBER));
+    }
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldWriteAllRecordsOfAKeyToOneRelationship() {
+        for (int value = 0; value < 100; value++) {
+            recordParser.addRecord("key" + value % 10, value);
+        }
+
+        testRunner.enqueue(new byte[0]);
+        testRunner.run();
+        testRunner.assertTransferCount(SafeRecordDistributor.ORIGINAL, 1);
+        testRunner.assertTransferCount(SafeDistributor.FAILURE, 0);
+
+        int records = 0;
+
+        for (int relationship = 1; relationship <= RELATIONSHIPS_NUMBER; relationship++) {
+            String name = String.valueOf(relationship);
+
+            for (MockFlowFile flowFile : testRunner.getFlowFilesForRelationship(name)) {
+                flowFile.assertAttributeEquals(SafeDistributor.PARTITION_ATTRIBUTE, String.valueOf(relationship - 1));
+                records += Integer.parseInt(flowFile.getAttribute("record.count"));
+
+                for (int other = relationship + 1; other <= RELATIONSHIPS_NUMBER; other++) {
+                    assertDisjointKeys(flowFile, testRunner.getFlowFilesForRelationship(String.valueOf(other)));
+                }
+            }
+
+            assertFalse(testRunner.getFlowFilesForRelationship(name).size() > 1);
+        }
+
+        assertEquals(100, records);
+    }
+
+    @Test
+    public void shouldRouteRecordsLikeSafeDistributor() {
+        TestRunner attributeRunner = TestRunners.newTestRunner(SafeDistributor.class);
+        attributeRunner.setProperty(SafeDistributor.ATTRIBUTE_NAME, "id");
+        attributeRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, String.valueOf(RELATIONSHIPS_NUMBER));
+
+        for (int key = 0; key < 20; key++) {
+            recordParser.addRecord("key" + key, key);
+            attributeRunner.enqueue("Some content", ImmutableMap.of("id", "key" + key));
+        }
+
+        testRunner.enqueue(new byte[0]);
+        testRunner.run();
+        attributeRunner.run();
+
+        for (int relationship = 1; relationship <= RELATIONSHIPS_NUMBER; relationship++) {
+            String name = String.valueOf(relationship);
+            int expected = attributeRunner.getFlowFilesForRelationship(name).size();
+            int actual = testRunner.getFlowFilesForRelationship(name).stream()
+                    .mapToInt(flowFile -> Integer.parseInt(flowFile.getAttribute("record.count"))).sum();
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void shouldWriteRecordsWithoutKeyToFailure() {
+        recordParser.addRecord("key", 1);
+        recordParser.addRecord(null, 2);
+        recordParser.addRecord(null, 3);
+
+        testRunner.enqueue(new byte[0]);
+        testRunner.run();
+        testRunner.assertTransferCount(SafeRecordDistributor.ORIGINAL, 1);
+        testRunner.assertTransferCount(SafeDistributor.FAILURE, 1);
+        testRunner.getFlowFilesForRelationship(SafeDistributor.FAILURE).get(0)
+                .assertAttributeEquals("record.count", "2");
+    }
+
+    @Test
+    public void shouldFailOriginalIfRecordsCantBeRead() {
+        recordParser.addRecord("key", 1);
+        recordParser.addRecord("other key", 2);
+        recordParser.failAfter(1);
+
+        testRunner.enqueue(new byte[0]);
+        testRunner.run();
+        testRunner.assertAllFlowFilesTransferred(SafeDistributor.FAILURE, 1);
+        testRunner.assertTransferCount(SafeRecordDistributor.ORIGINAL, 0);
+    }
+
+
+    @Test
+    public void shouldFailOriginalIfRecordsCantBeWritten() throws Exception {
+        MockRecordWriter failingWriter = new MockRecordWriter(null, false, 1);
+        testRunner.addControllerService("failing writer", failingWriter);
+        testRunner.enableControllerService(failingWriter);
+        testRunner.setProperty(SafeRecordDistributor.RECORD_WRITER, "failing writer");
+        testRunner.setProperty(SafeDistributor.RELATIONSHIPS_NUMBER, "1");
+
+        for (int value = 0; value < 10; value++) {
+            recordParser.addRecord("key" + value, value);
+        }
+
+        testRunner.enqueue(new byte[0]);
+        testRunner.run();
+        testRunner.assertAllFlowFilesTransferred(SafeDistributor.FAILURE, 1);
+        testRunner.assertTransferCount(SafeRecordDistributor.ORIGINAL, 0);
+    }
+
+    @Test
+    public void shouldNotRouteByNonScalarKeys() {
+        RecordSchema nestedSchema =
+                new SimpleRecordSchema(ImmutableList.of(new RecordField("id", RecordFieldType.STRING.getDataType())));
+        RecordSchema schema = new SimpleRecordSchema(ImmutableList.of(
+                new RecordField("id", RecordFieldType.STRING.getDataType()),
+                new RecordField("ids", RecordFieldType.ARRAY.getArrayDataType(RecordFieldType.STRING.getDataType())),
+                new RecordField("tags", RecordFieldType.MAP.getMapDataType(RecordFieldType.STRING.getDataType())),
+                new RecordField("nested", RecordFieldType.RECORD.getRecordDataType(nestedSchema))));
+        Record record = new MapRecord(schema, ImmutableMap.of(
+                "id", "key",
+                "ids", new Object[]{"key", "other key"},
+                "tags", ImmutableMap.of("key", "value"),
+                "nested", new MapRecord(nestedSchema, ImmutableMap.of("id", "key"))));
+
+        assertEquals("key", SafeRecordDistributor.key(RecordPath.compile("/id"), record));
+        assertEquals("key", SafeRecordDistributor.key(RecordPath.compile("/nested/id"), record));
+        assertNull(SafeRecordDistributor.key(RecordPath.compile("/ids"), record));
+        assertNull(SafeRecordDistributor.key(RecordPath.compile("/tags"), record));
+        assertNull(SafeRecordDistributor.key(RecordPath.compile("/nested"), record));
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * Asserts that no key written to the flowfile was written to the other flowfiles too.
+     *
+     * @param flowFile   An output flowfile.
+     * @param flowFiles  Output flowfiles of another relationship.
+     */
+    private void assertDisjointKeys(MockFlowFile flowFile, Iterable<MockFlowFile> flowFiles) {
+        String content = new String(flowFile.toByteArray(), StandardCharsets.UTF_8);
+
+        for (MockFlowFile other : flowFiles) {
+            for (String line : new String(other.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+                if (!line.isEmpty()) {
+                    assertFalse(content.contains(line.split(",")[0] + ","));
+                }
+            }
+        }
+    }
+}
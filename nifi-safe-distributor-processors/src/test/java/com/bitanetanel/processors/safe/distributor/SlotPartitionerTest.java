@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.components.state.StateMap;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link SlotPartitioner}.
+ *
+ * @author Netanel Bitan
+ */
+public class SlotPartitionerTest {
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldBalanceSlots() {
+        int[] counts = slotCounts(SlotPartitioner.balanced(3), 3);
+
+        for (int count : counts) {
+            assertEquals(SlotPartitioner.SLOTS / 3.0, count, 1);
+        }
+    }
+
+    @Test
+    public void shouldRouteByLowBitsOfTheHash() {
+        SlotPartitioner table = SlotPartitioner.balanced(2);
+        assertEquals(0, table.partition(SlotPartitioner.SLOTS));
+        assertEquals(1, table.partition(-1));
+    }
+
+    @Test
+    public void shouldDecodeEncodedTable() {
+        SlotPartitioner table = SlotPartitioner.balanced(3).assign(100, 199, 2).assign(512, 512, 0);
+        SlotPartitioner decoded = SlotPartitioner.decode(table.encode());
+
+        for (int slot = 0; slot < SlotPartitioner.SLOTS; slot++) {
+            assertEquals(table.owner(slot), decoded.owner(slot));
+        }
+    }
+
+    @Test
+    public void shouldEncodeRuns() {
+        assertEquals("0-8191:1,8192-16383:2", SlotPartitioner.balanced(2).encode());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectPartialTable() {
+        SlotPartitioner.decode("0-8191:1");
+    }
+
+    @Test
+    public void shouldMoveOnlyAssignedSlots() {
+        SlotPartitioner before = SlotPartitioner.balanced(4);
+        SlotPartitioner after = before.assign(10, 19, 3);
+
+        for (int slot = 0; slot < SlotPartitioner.SLOTS; slot++) {
+            assertEquals(slot >= 10 && slot <= 19 ? 3 : before.owner(slot), after.owner(slot));
+        }
+
+        assertSame(after, after.assign(10, 19, 3));
+    }
+
+    @Test
+    public void shouldMoveFewSlotsOnResize() {
+        SlotPartitioner before = SlotPartitioner.balanced(3);
+        SlotPartitioner after = before.resize(4);
+        int moved = 0;
+
+        for (int slot = 0; slot < SlotPartitioner.SLOTS; slot++) {
+            if (before.owner(slot) != after.owner(slot)) {
+                assertEquals(3, after.owner(slot));
+                moved++;
+            }
+        }
+
+        assertEquals(SlotPartitioner.SLOTS / 4, moved);
+
+        for (int count : slotCounts(after.resize(2), 2)) {
+            assertEquals(SlotPartitioner.SLOTS / 2, count);
+        }
+    }
+
+    @Test
+    public void shouldPersistTableAcrossLoads() throws Exception {
+        InMemoryStateManager stateManager = new InMemoryStateManager();
+        SlotPartitioner.load(stateManager, 2, ImmutableMap.of(1, "0-9"));
+        SlotPartitioner reloaded = SlotPartitioner.load(stateManager, 2, Collections.emptyMap());
+
+        assertEquals(1, reloaded.owner(0));
+        assertEquals(1, reloaded.owner(9));
+        assertEquals(0, reloaded.owner(10));
+        // Stored once by the first load, since the second load didn't change the table.
+        assertEquals(0, stateManager.getState(Scope.CLUSTER).getVersion());
+    }
+
+    @Test
+    public void shouldRecordChangeOfStoredTableAsMove() throws Exception {
+        InMemoryStateManager stateManager = new InMemoryStateManager();
+        SlotPartitioner.load(stateManager, 2, Collections.emptyMap());
+        SlotPartitioner.load(stateManager, 2, ImmutableMap.of(1, "0-9,20"));
+        StateMap state = stateManager.getState(Scope.CLUSTER);
+
+        assertEquals(1, SlotRebalancer.epoch(state));
+        assertEquals("0-9,20:1>2", state.get(SlotRebalancer.MOVE_STATE_KEY_PREFIX + 1));
+
+        SlotPartitioner.load(stateManager, 2, ImmutableMap.of(1, "0-9,20"));
+        assertEquals(1, SlotRebalancer.epoch(stateManager.getState(Scope.CLUSTER)));
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * @param table A slot table.
+     * @param partitions The number of partitions of the table.
+     * @return The number of slots of every partition.
+     */
+    private static int[] slotCounts(SlotPartitioner table, int partitions) {
+        int[] counts = new int[partitions];
+
+        for (int slot = 0; slot < SlotPartitioner.SLOTS; slot++) {
+            counts[table.owner(slot)]++;
+        }
+
+        return counts;
+    }
+}
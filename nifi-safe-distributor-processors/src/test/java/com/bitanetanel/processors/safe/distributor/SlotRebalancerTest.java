@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitanetanel.processors.safe.distributor;
+
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.components.state.StateMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.function.LongFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link SlotRebalancer}.
+ *
+ * @author Netanel Bitan
+ */
+public class SlotRebalancerTest {
+
+
+    /* --- Constants --- */
+
+    /** The fingerprint of the routing by the slot table of an epoch. */
+    private static final LongFunction<String> FINGERPRINT = epoch -> "slot table " + epoch;
+
+
+    /* --- Data Members --- */
+
+    private InMemoryStateManager stateManager;
+
+    private SlotPartitioner table;
+
+
+    /* --- Setup --- */
+
+    @Before
+    public void init() throws Exception {
+        stateManager = new InMemoryStateManager();
+        table = SlotPartitioner.load(stateManager, 2, Collections.emptyMap());
+    }
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldMoveSlotsAwayFromBackPressuredRelationship() throws Exception {
+        SlotRebalancer rebalancer = new SlotRebalancer(2, 0, 0.2, 64, new BitSet());
+        recordTriggers(rebalancer, 10, 10);
+
+        SlotPartitioner moved = rebalancer.rebalance(table, stateManager, FINGERPRINT);
+        StateMap state = stateManager.getState(Scope.CLUSTER);
+
+        assertEquals(SlotPartitioner.SLOTS / 2 - 64, slotsOf(moved, 0));
+        assertEquals(1, SlotRebalancer.epoch(state));
+        assertNotNull(state.get(SlotRebalancer.MOVE_STATE_KEY_PREFIX + 1));
+        assertEquals(moved.encode(), state.get(SlotPartitioner.TABLE_STATE_KEY));
+        assertEquals("1", state.get(Migration.EPOCH_STATE_KEY));
+        assertEquals(1, Migration.epoch(stateManager, FINGERPRINT.apply(1)));
+    }
+
+    @Test
+    public void shouldNotMovePinnedSlots() throws Exception {
+        BitSet pinned = new BitSet();
+        pinned.set(SlotPartitioner.SLOTS / 2 - 100, SlotPartitioner.SLOTS / 2);
+        SlotRebalancer rebalancer = new SlotRebalancer(2, 0, 0.2, 64, pinned);
+        recordTriggers(rebalancer, 10, 10);
+
+        SlotPartitioner moved = rebalancer.rebalance(table, stateManager, FINGERPRINT);
+
+        for (int slot = pinned.nextSetBit(0); slot >= 0; slot = pinned.nextSetBit(slot + 1)) {
+            assertEquals(table.owner(slot), moved.owner(slot));
+        }
+
+        assertEquals(SlotPartitioner.SLOTS / 2 - 64, slotsOf(moved, 0));
+        assertEquals(1, moved.owner(SlotPartitioner.SLOTS / 2 - 101));
+    }
+
+    @Test
+    public void shouldNotMoveSlotsBelowThreshold() throws Exception {
+        SlotRebalancer rebalancer = new SlotRebalancer(2, 0, 0.2, 64, new BitSet());
+        recordTriggers(rebalancer, 10, 1);
+
+        assertSame(table, rebalancer.rebalance(table, stateManager, FINGERPRINT));
+        assertEquals(0, SlotRebalancer.epoch(stateManager.getState(Scope.CLUSTER)));
+    }
+
+    @Test
+    public void shouldNotDrainRelationshipThatJustReceivedSlots() throws Exception {
+        SlotRebalancer rebalancer = new SlotRebalancer(2, 0, 0.2, 64, new BitSet());
+        recordTriggers(rebalancer, 10, 10);
+        SlotPartitioner moved = rebalancer.rebalance(table, stateManager, FINGERPRINT);
+
+        rebalancer.record(new int[]{1, 1}, new boolean[]{false, true});
+        assertSame(moved, rebalancer.rebalance(moved, stateManager, FINGERPRINT));
+    }
+
+    @Test
+    public void shouldDrainPreviousTargetOnceItBecomesHottest() throws Exception {
+        SlotRebalancer rebalancer = new SlotRebalancer(2, 0, 0.2, 64, new BitSet());
+        recordTriggers(rebalancer, 10, 10);
+        SlotPartitioner moved = rebalancer.rebalance(table, stateManager, FINGERPRINT);
+
+        rebalancer.record(new int[]{1, 1}, new boolean[]{false, true});
+        assertSame(moved, rebalancer.rebalance(moved, stateManager, FINGERPRINT));
+
+        rebalancer.record(new int[]{1, 1}, new boolean[]{false, true});
+        SlotPartitioner movedBack = rebalancer.rebalance(moved, stateManager, FINGERPRINT);
+
+        assertEquals(SlotPartitioner.SLOTS / 2, slotsOf(movedBack, 0));
+        assertEquals(2, SlotRebalancer.epoch(stateManager.getState(Scope.CLUSTER)));
+        assertEquals("2", stateManager.getState(Scope.CLUSTER).get(Migration.EPOCH_STATE_KEY));
+    }
+
+    @Test
+    public void shouldAdoptTableMovedByAnotherNode() throws Exception {
+        SlotRebalancer other = new SlotRebalancer(2, 0, 0.2, 8, new BitSet());
+        recordTriggers(other, 10, 10);
+        SlotPartitioner moved = other.rebalance(table, stateManager, FINGERPRINT);
+
+        SlotRebalancer rebalancer = new SlotRebalancer(2, 0, 0.2, 8, new BitSet());
+        assertEquals(moved.encode(), rebalancer.rebalance(table, stateManager, FINGERPRINT).encode());
+    }
+
+
+    /* --- Private Methods --- */
+
+    /**
+     * Records triggers in which every relationship received a flowfile.
+     *
+     * @param rebalancer The rebalancer to record on.
+     * @param triggers The number of triggers.
+     * @param pressured The number of the triggers in which the first relationship was back pressured.
+     */
+    private static void recordTriggers(SlotRebalancer rebalancer, int triggers, int pressured) {
+        for (int i = 0; i < triggers; i++) {
+            rebalancer.record(new int[]{1, 1}, new boolean[]{i < pressured, false});
+        }
+    }
+
+    /**
+     * @param table A slot table.
+     * @param partition A partition.
+     * @return The number of slots of the partition.
+     */
+    private static int slotsOf(SlotPartitioner table, int partition) {
+        int slots = 0;
+
+        for (int slot = 0; slot < SlotPartitioner.SLOTS; slot++) {
+            if (table.owner(slot) == partition) {
+                slots++;
+            }
+        }
+
+        return slots;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bitanetanel.processors.safe.distributor;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link SpaceSaving}.
+ *
+ * @author Netanel Bitan
+ */
+public class SpaceSavingTest {
+
+
+    /* --- Tests --- */
+
+    @Test
+    public void shouldFindHeavyKeysAmongManyKeys() {
+        SpaceSaving spaceSaving = new SpaceSaving(20);
+
+        for (int index = 0; index < 100_000; index++) {
+            spaceSaving.offer(index % 10 == 0 ? "giant" : index % 20 == 1 ? "big" : "key" + index);
+        }
+
+        List<Map.Entry<String, Long>> heaviest = spaceSaving.drain(2);
+        assertEquals("giant", heaviest.get(0).getKey());
+        assertEquals("big", heaviest.get(1).getKey());
+        assertTrue(heaviest.get(0).getValue() >= 10_000);
+    }
+
+    @Test
+    public void shouldReplaceTheSmallestCounter() {
+        SpaceSaving spaceSaving = new SpaceSaving(3);
+
+        for (String key : new String[]{"a", "a", "a", "b", "c", "c", "d", "b", "e"}) {
+            spaceSaving.offer(key);
+        }
+
+        // d takes over b's count of 1, b then takes over one of the counts of 2, and e takes over the other.
+        List<Map.Entry<String, Long>> heaviest = spaceSaving.drain(3);
+        assertEquals(ImmutableSet.of("a", "b", "e"),
+                heaviest.stream().map(Map.Entry::getKey).collect(Collectors.toSet()));
+        assertTrue(heaviest.stream().allMatch(entry -> entry.getValue() == 3));
+    }
+
+    @Test
+    public void shouldCountKeysExactlyWithinCapacity() {
+        SpaceSaving spaceSaving = new SpaceSaving(4);
+        spaceSaving.offer("a");
+        spaceSaving.offer("b");
+        spaceSaving.offer("a");
+
+        List<Map.Entry<String, Long>> heaviest = spaceSaving.drain(4);
+        assertEquals(2, heaviest.size());
+        assertEquals(Long.valueOf(2), heaviest.get(0).getValue());
+        assertEquals(Long.valueOf(1), heaviest.get(1).getValue());
+        assertTrue(spaceSaving.drain(4).isEmpty());
+    }
+}